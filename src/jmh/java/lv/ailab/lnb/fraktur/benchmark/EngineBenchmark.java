@@ -0,0 +1,47 @@
+package lv.ailab.lnb.fraktur.benchmark;
+
+import lv.ailab.lnb.fraktur.translit.Engine;
+import lv.ailab.lnb.fraktur.translit.Rules;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transliteration variant generation for each rule group, without dictionary
+ * lookup or morphology.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Thread)
+public class EngineBenchmark
+{
+	@Param({"core", "Fraktur", "Fraktur_Double", "Latin"})
+	public String group;
+
+	@Param({"false", "true"})
+	public boolean fuzzy;
+
+	private Rules rules;
+
+	@Setup(Level.Trial)
+	public void loadRules()
+	throws Exception
+	{
+		String ruleFile = Workload.paths().getProperty(group);
+		if (ruleFile == null)
+			throw new IllegalArgumentException(
+				"Path file contains no rule group \"" + group + "\".");
+		rules = new Rules(new File(ruleFile));
+	}
+
+	@Benchmark
+	public HashMap<String, Boolean> transform(TokenState tokens)
+	{
+		return Engine.transform(tokens.next(), rules, fuzzy);
+	}
+}
@@ -0,0 +1,46 @@
+package lv.ailab.lnb.fraktur.benchmark;
+
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * N-gram evaluation of corpus tokens. Requires N-grams to be enabled in the
+ * path file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class EvaluatorBenchmark
+{
+	private VariantEvaluator evaluator;
+
+	@Setup(Level.Trial)
+	public void loadModel()
+	throws Exception
+	{
+		Properties paths = Workload.paths();
+		int level = Integer.parseInt(paths.getProperty("ngramLevel", "0").trim());
+		if (level < 1)
+			throw new IllegalArgumentException(
+				"N-grams are disabled in the path file.");
+		evaluator = new VariantEvaluator(
+			paths.getProperty("ngramBegin", "<s>"),
+			paths.getProperty("ngramEnd", "</s>"),
+			paths.getProperty("ngramUnknown", "<unk>"),
+			paths.getProperty("ngramVocab"),
+			paths.getProperty("ngramStats"),
+			level);
+	}
+
+	@Benchmark
+	public double evaluateToken(TokenState tokens)
+	{
+		return evaluator.evaluateToken(tokens.next());
+	}
+}
@@ -0,0 +1,63 @@
+package lv.ailab.lnb.fraktur.benchmark;
+
+import lv.ailab.lnb.fraktur.Transliterator;
+import lv.ailab.lnb.fraktur.translit.ResultData;
+import lv.semti.morphology.analyzer.Analyzer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complete processing of corpus tokens with the rule group each corpus is
+ * meant for. Result cache is bypassed, so every token is processed anew;
+ * morphology cache is used as configured in the path file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class ProcessWordBenchmark
+{
+	@Param({"false", "true"})
+	public boolean fuzzy;
+
+	private Transliterator translit;
+
+	@Setup(Level.Trial)
+	public void loadTransliterator()
+	throws Exception
+	{
+		String pathFile = System.getProperty(
+			"pathFile", Transliterator.PATH_FILE);
+		Properties paths = Workload.paths();
+		Analyzer morph = null;
+		// Use lexicon bundled with morphology, if none is provided.
+		if (!new File(paths.getProperty("morphLex", "")).isFile())
+		{
+			morph = new Analyzer(false);
+			morph.enableDiminutive = true;
+			morph.enablePrefixes = true;
+			morph.enableVocative = true;
+			morph.enableGuessing = true;
+			morph.enableAllGuesses = true;
+		}
+		translit = new Transliterator(pathFile, morph);
+	}
+
+	@TearDown(Level.Trial)
+	public void closeTransliterator()
+	{
+		translit.close();
+	}
+
+	@Benchmark
+	public ResultData processWord(TokenState tokens)
+	{
+		return translit.processWord(
+			tokens.next(), Workload.group(tokens.corpus), fuzzy, 0);
+	}
+}
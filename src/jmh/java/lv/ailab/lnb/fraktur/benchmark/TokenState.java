@@ -0,0 +1,40 @@
+package lv.ailab.lnb.fraktur.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+/**
+ * Corpus tokens given to the benchmark one by one. Each benchmark operation
+ * processes a single token, so throughput is measured in tokens per second and
+ * normalized allocation rate (<code>gc.alloc.rate.norm</code> with
+ * <code>-prof gc</code>) in bytes per token.
+ */
+@State(Scope.Thread)
+public class TokenState
+{
+	@Param({"aarste6", "aviize1861", "Meernieki", "kraupeens",
+		"gadagraamata1797"})
+	public String corpus;
+
+	private String[] tokens;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void loadTokens()
+	throws IOException
+	{
+		tokens = Workload.tokens(corpus);
+		next = 0;
+	}
+
+	/**
+	 * Next token, corpus is repeated from the beginning when finished.
+	 */
+	public String next()
+	{
+		String res = tokens[next];
+		next = next + 1 < tokens.length ? next + 1 : 0;
+		return res;
+	}
+}
@@ -0,0 +1,45 @@
+package lv.ailab.lnb.fraktur.benchmark;
+
+import lv.ailab.lnb.fraktur.WordList;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dictionary lookup of corpus tokens.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class WordListBenchmark
+{
+	private WordList dict;
+
+	@Setup(Level.Trial)
+	public void loadDictionaries()
+	throws Exception
+	{
+		File dictDir = new File(Workload.paths().getProperty("dictDir"));
+		dict = new WordList();
+		for (File f : dictDir.listFiles())
+		{
+			if (f.getName().endsWith(".txt"))
+			{
+				String absName = f.getPath().substring(
+						0, f.getPath().length() - 4);
+				dict.addDictionary(f, new File(absName + ".conf"));
+			}
+		}
+	}
+
+	@Benchmark
+	public Properties[] dictionaries(TokenState tokens)
+	{
+		return dict.dictionaries(tokens.next());
+	}
+}
@@ -0,0 +1,85 @@
+package lv.ailab.lnb.fraktur.benchmark;
+
+import lv.ailab.lnb.fraktur.Transliterator;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/**
+ * Shared data for benchmarks: bundled corpora and path file. Benchmarks are
+ * meant to be run from the project directory; system property
+ * <code>corpusDir</code> gives other location of the corpora and
+ * <code>pathFile</code> gives other path file.
+ */
+public class Workload
+{
+	/**
+	 * Tokens from the given bundled corpus, in the order they appear in text.
+	 */
+	public static String[] tokens(String corpus)
+	throws IOException
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		File dir = new File(System.getProperty("corpusDir", "src/test/resources"));
+		for (String fileName : files(corpus))
+		{
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(new File(dir, fileName)), "UTF8"));
+			String line = in.readLine();
+			while (line != null)
+			{
+				// Only the first column is needed.
+				String token = line.split("\t")[0].trim();
+				if (token.length() > 0) res.add(token);
+				line = in.readLine();
+			}
+			in.close();
+		}
+		if (res.isEmpty())
+			throw new IllegalArgumentException(
+				"Corpus \"" + corpus + "\" contains no tokens.");
+		return res.toArray(new String[res.size()]);
+	}
+
+	/**
+	 * Transliteration rule group the given corpus is meant to be processed
+	 * with (as in <code>test.bat</code>).
+	 */
+	public static String group(String corpus)
+	{
+		if (corpus.equals("Meernieki") || corpus.equals("kraupeens"))
+			return "Fraktur";
+		return "Fraktur_Double";
+	}
+
+	/**
+	 * Path file contents.
+	 */
+	public static Properties paths()
+	throws IOException
+	{
+		Properties res = new Properties();
+		InputStreamReader in = new InputStreamReader(new FileInputStream(
+			System.getProperty("pathFile", Transliterator.PATH_FILE)), "UTF8");
+		res.load(in);
+		in.close();
+		return res;
+	}
+
+	/**
+	 * Files constituting the given corpus.
+	 */
+	private static String[] files(String corpus)
+	{
+		if (corpus.equals("aarste6")) return new String[] {"aarste6-1kol.txt"};
+		if (corpus.equals("aviize1861"))
+			return new String[] {"aviize1861-1kol.txt"};
+		if (corpus.equals("Meernieki")) return new String[] {
+			"Meernieki-1nod-1kol.txt", "Meernieki-2nod-1kol.txt"};
+		if (corpus.equals("kraupeens")) return new String[] {"kraupeens.txt"};
+		if (corpus.equals("gadagraamata1797"))
+			return new String[] {"gadagraamata1797.txt"};
+		throw new IllegalArgumentException("Unknown corpus \"" + corpus + "\".");
+	}
+}
@@ -0,0 +1,210 @@
+package lv.ailab.lnb.fraktur;
+
+import lv.ailab.lnb.fraktur.util.BoundedCache;
+import lv.semti.morphology.analyzer.Analyzer;
+import lv.semti.morphology.analyzer.Wordform;
+import lv.semti.morphology.attributes.AttributeNames;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memoizing layer in front of the morphological analyzer. For each wordform
+ * only the sets of lemmas obtained with and without guessing are needed, so
+ * those are cached instead of full analysis results.
+ * Analyzer keeps its own cache, so it can't be used from several threads at
+ * once. Wordforms not found in the cache are analyzed by as many threads at
+ * once as there are analyzers given; others wait. Analysis takes about
+ * 0.15 ms per wordform, but each analyzer holds its own copy of the lexicon,
+ * about 120 MB.
+ */
+public class LemmaAnalyzer
+{
+	/**
+	 * Morphological analyzers, each used by one thread at a time.
+	 */
+	private final Analyzer[] analyzers;
+	/**
+	 * Locks of analyzers with the same index.
+	 */
+	private final ReentrantLock[] locks;
+
+	/**
+	 * Cache for analysis results, keyed by wordform. Bounded by approximate
+	 * memory use in bytes. <code>null</code>, if caching is disabled.
+	 */
+	public final BoundedCache<String, Lemmas> cache;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param morph		morphological analyzer to use.
+	 * @param maxBytes	approximate memory limit for cached results, caching is
+	 *					disabled, if this is 0 or less.
+	 */
+	public LemmaAnalyzer(Analyzer morph, long maxBytes)
+	{
+		this(Collections.singletonList(morph), maxBytes);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param morph		morphological analyzers to use, set up the same way
+	 *					and not used by anything else.
+	 * @param maxBytes	approximate memory limit for cached results, caching is
+	 *					disabled, if this is 0 or less.
+	 */
+	public LemmaAnalyzer(List<Analyzer> morph, long maxBytes)
+	{
+		if (morph.isEmpty())
+			throw new IllegalArgumentException("No morphological analyzer given.");
+		analyzers = morph.toArray(new Analyzer[morph.size()]);
+		locks = new ReentrantLock[analyzers.length];
+		for (int i = 0; i < locks.length; i++) locks[i] = new ReentrantLock();
+		if (maxBytes < 1) cache = null;
+		else cache = new BoundedCache<String, Lemmas>(maxBytes)
+		{
+			@Override
+			protected long weigh(String key, Lemmas value)
+			{
+				return stringSize(key) + value.size();
+			}
+		};
+	}
+
+	/**
+	 * Get unique lemmas for the given wordform.
+	 */
+	public Lemmas analyze(String wordform)
+	{
+		if (cache == null) return doAnalyze(wordform);
+		Lemmas res = cache.get(wordform);
+		if (res == null)
+		{
+			res = doAnalyze(wordform);
+			cache.put(wordform, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Do morpho-analysis and sort out unique lemmas.
+	 */
+	private Lemmas doAnalyze(String wordform)
+	{
+		// Any free analyzer will do; if all are busy, wait for the one this
+		// thread starts looking from, so that waiting threads are spread.
+		int first = (int) (Thread.currentThread().getId() % analyzers.length);
+		int used = -1;
+		for (int i = 0; i < analyzers.length && used < 0; i++)
+		{
+			int index = (first + i) % analyzers.length;
+			if (locks[index].tryLock()) used = index;
+		}
+		if (used < 0)
+		{
+			used = first;
+			locks[used].lock();
+		}
+		ArrayList<Wordform> analRes;
+		try
+		{
+			analRes = new ArrayList<Wordform>(
+				analyzers[used].analyze(wordform).wordforms);
+		} finally
+		{
+			locks[used].unlock();
+		}
+
+		// Lemmas with no guessing used.
+		HashSet<String> trusted = new HashSet<String>();
+		// Lemmas, SourceLemmas with guessing.
+		HashSet<String> guessed = new HashSet<String>();
+
+		// Sort out unique lemmas.
+		// Without guessing.
+		for (Wordform wf : analRes)
+		{
+			if(wf.getValue(AttributeNames.i_Lemma) == null)
+				throw new NullPointerException(
+					"Morphoanalyzer didn't return lemma for \"" + wordform + "\"!");
+			if (wf.isMatchingStrong(
+				AttributeNames.i_Guess, AttributeNames.v_NoGuess))
+			{
+				trusted.add(
+					wf.getValue(AttributeNames.i_Lemma).toLowerCase().trim());
+				String sl = wf.getValue(AttributeNames.i_SourceLemma);
+				if (sl != null) trusted.add(sl.toLowerCase().trim());
+			}
+		}
+		// Guessed lemmas.
+		for (Wordform wf : analRes)
+		{
+			if(wf.getValue(AttributeNames.i_Lemma) == null)
+				throw new NullPointerException(
+					"Morphoanalyzer didn't return lemma for \"" + wordform + "\"!");
+
+			String l = wf.getValue(AttributeNames.i_Lemma).toLowerCase().trim();
+
+			if (!wf.isMatchingStrong(
+				AttributeNames.i_Guess, AttributeNames.v_NoGuess))
+			{
+				if (!trusted.contains(l)) guessed.add(l);
+
+				String sl = wf.getValue(AttributeNames.i_SourceLemma);
+				if (sl != null && !trusted.contains(sl))
+					guessed.add(sl.toLowerCase().trim());
+			}
+		}
+
+		return new Lemmas(trusted, guessed);
+	}
+
+	/**
+	 * Approximate memory used by a string, in bytes.
+	 */
+	private static long stringSize(String s)
+	{
+		return 56 + 2 * s.length();
+	}
+
+	/**
+	 * Unique lemmas of one wordform. Sets are not modifiable.
+	 */
+	public static class Lemmas
+	{
+		/**
+		 * Lemmas obtained without guessing.
+		 */
+		public final Set<String> trusted;
+		/**
+		 * Lemmas obtained with guessing (not including trusted ones).
+		 */
+		public final Set<String> guessed;
+
+		/**
+		 * Constructor.
+		 */
+		Lemmas(Set<String> trusted, Set<String> guessed)
+		{
+			this.trusted = Collections.unmodifiableSet(trusted);
+			this.guessed = Collections.unmodifiableSet(guessed);
+		}
+
+		/**
+		 * Approximate memory used by this object, in bytes.
+		 */
+		long size()
+		{
+			long res = 128;
+			for (String s : trusted) res += 32 + stringSize(s);
+			for (String s : guessed) res += 32 + stringSize(s);
+			return res;
+		}
+	}
+}
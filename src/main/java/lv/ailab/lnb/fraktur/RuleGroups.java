@@ -0,0 +1,186 @@
+package lv.ailab.lnb.fraktur;
+
+import lv.ailab.lnb.fraktur.translit.Rules;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transliteration rules for each rule group, loaded on first use. Rules of
+ * groups not used for a given time can be dropped to free memory, they are
+ * loaded again when needed. Can be used from several threads at once, each
+ * group is loaded by one thread only.
+ */
+public class RuleGroups
+{
+	/**
+	 * All groups by name. Not modified after construction.
+	 */
+	private final LinkedHashMap<String, Group> groups;
+
+	/**
+	 * After how long (in nanoseconds) rules of an unused group are dropped, 0
+	 * if they are kept.
+	 */
+	private final long idleNanos;
+
+	/**
+	 * When idle groups should be checked next, in terms of
+	 * <code>System.nanoTime()</code>.
+	 */
+	private volatile long nextCheck;
+
+	/**
+	 * Constructor. No rules are loaded yet.
+	 *
+	 * @param ruleFiles		rule file for each group name.
+	 * @param idleMillis	after how long (in milliseconds) rules of an unused
+	 *						group are dropped, 0 if they are kept.
+	 */
+	public RuleGroups(Map<String, File> ruleFiles, long idleMillis)
+	{
+		groups = new LinkedHashMap<String, Group>();
+		for (Map.Entry<String, File> e : ruleFiles.entrySet())
+			groups.put(e.getKey(), new Group(e.getKey(), e.getValue()));
+		idleNanos = idleMillis > 0 ? idleMillis * 1000000 : 0;
+		nextCheck = System.nanoTime() + idleNanos;
+	}
+
+	/**
+	 * Names of all groups.
+	 */
+	public Set<String> names()
+	{
+		return Collections.unmodifiableSet(groups.keySet());
+	}
+
+	/**
+	 * Check if there is such group.
+	 */
+	public boolean contains(String name)
+	{
+		return groups.containsKey(name);
+	}
+
+	/**
+	 * Rules of the given group, loaded if necessary. Returns
+	 * <code>null</code>, if there is no such group.
+	 *
+	 * @throws IllegalArgumentException	if rule file can't be loaded.
+	 */
+	public Rules get(String name)
+	{
+		Group group = groups.get(name);
+		if (group == null) return null;
+		Rules res = group.get();
+		if (idleNanos > 0 && System.nanoTime() - nextCheck >= 0) evictIdle();
+		return res;
+	}
+
+	/**
+	 * Check if rules of the given group are loaded now.
+	 */
+	public boolean isLoaded(String name)
+	{
+		Group group = groups.get(name);
+		return group != null && group.rules != null;
+	}
+
+	/**
+	 * Drop rules of groups not used for longer than allowed. This is done
+	 * automatically, when rules are asked for.
+	 *
+	 * @return	count of groups dropped.
+	 */
+	public int evictIdle()
+	{
+		if (idleNanos < 1) return 0;
+		long now = System.nanoTime();
+		nextCheck = now + idleNanos / 2;
+		int res = 0;
+		for (Group group : groups.values())
+			if (group.evictIfIdle(now, idleNanos)) res++;
+		return res;
+	}
+
+	/**
+	 * One rule group.
+	 */
+	private static class Group
+	{
+		/**
+		 * Group name.
+		 */
+		final String name;
+		/**
+		 * Rule file.
+		 */
+		final File file;
+		/**
+		 * Loaded rules, <code>null</code>, if not loaded.
+		 */
+		volatile Rules rules;
+		/**
+		 * When rules were last used, in terms of <code>System.nanoTime()</code>.
+		 */
+		volatile long lastUsed;
+
+		/**
+		 * Constructor.
+		 */
+		Group(String name, File file)
+		{
+			this.name = name;
+			this.file = file;
+			rules = null;
+		}
+
+		/**
+		 * Get rules, load them, if necessary.
+		 */
+		Rules get()
+		{
+			Rules res = rules;
+			if (res == null)
+			{
+				synchronized (this)
+				{
+					res = rules;
+					if (res == null)
+					{
+						try
+						{
+							res = new Rules(file);
+						} catch (Exception e)
+						{
+							throw new IllegalArgumentException("Rule file \""
+								+ file + "\" for group \"" + name
+								+ "\" can't be loaded.", e);
+						}
+						// Fresh time goes first, so that rules just loaded are
+						// never seen as idle by evictIfIdle().
+						lastUsed = System.nanoTime();
+						rules = res;
+					}
+				}
+			}
+			lastUsed = System.nanoTime();
+			return res;
+		}
+
+		/**
+		 * Drop rules, if they have not been used for the given time.
+		 *
+		 * @return	whether rules were dropped.
+		 */
+		synchronized boolean evictIfIdle(long now, long idleNanos)
+		{
+			if (rules == null || now - lastUsed < idleNanos) return false;
+			rules = null;
+			return true;
+		}
+	}
+}
@@ -6,14 +6,17 @@ package lv.ailab.lnb.fraktur;
 
 import lv.ailab.lnb.fraktur.translit.Engine;
 import lv.ailab.lnb.fraktur.translit.Rules;
+import lv.ailab.lnb.fraktur.translit.TokenBudget;
 import lv.ailab.lnb.fraktur.translit.ResultData;
 import lv.ailab.lnb.fraktur.translit.Variant;
 import lv.ailab.lnb.fraktur.ngram.VariantComparator;
 import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.ailab.lnb.fraktur.util.BoundedCache;
 import lv.ailab.lnb.fraktur.util.HashMultiMap;
+import lv.ailab.lnb.fraktur.util.PrefixIndex;
+import lv.ailab.lnb.fraktur.util.Triplet;
+import lv.ailab.lnb.fraktur.util.Tuple;
 import lv.semti.morphology.analyzer.Analyzer;
-import lv.semti.morphology.analyzer.Wordform;
-import lv.semti.morphology.attributes.AttributeNames;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -21,24 +24,32 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
-
-import javax.xml.parsers.ParserConfigurationException;
-import org.xml.sax.SAXException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * Start using transliteration library here!
  */
-public class Transliterator
+public class Transliterator implements Closeable
 {
 	/**
-	 * This is singleton class.
+	 * Shared instance for <code>getTransliterator()</code>. Instances created
+	 * with constructor are independent from this one.
 	 */
-	private static Transliterator itIsMe = null;
+	private static volatile Transliterator itIsMe = null;
 	
 	/**
 	 * Path to configuration file. 
@@ -48,37 +59,95 @@ public class Transliterator
 	/**
 	 * Paths to external resources. Hash keys are hard-coded.
 	 */
-	private Properties paths;
+	private final Properties paths;
+	
+	/**
+	 * Path to configuration file this instance was created from.
+	 */
+	private final String pathFile;
 	
 	/**
-	 * Transliteration rules for each transliteration group.
+	 * Transliteration rules for each transliteration group, loaded on first
+	 * use.
 	 */
-	private HashMap<String, Rules> rules;
+	private final RuleGroups rules;
 	
 	/**
 	 * Dictionary data structure.
 	 */
-	public WordList dict;
+	public final WordList dict;
 	
 	/**
-	 * Morphological analyzer.
+	 * Morphological analyzer given to the constructor or the first one
+	 * loaded. Analyzer can't be used from several threads at once, so it is
+	 * only used through <code>lemmatizer</code>.
 	 */
-	public Analyzer morph;
+	private final Analyzer morph;
+	
+	/**
+	 * Memoizing lemma extractor on top of morphological analyzer.
+	 */
+	public final LemmaAnalyzer lemmatizer;
 	
 	/**
 	 * N-gram statistics calculator.
 	 */
-	public VariantEvaluator nGrams;
+	public final VariantEvaluator nGrams;
 	
 	/**
 	 * Transliteration variant comparator, based on n-grams.
 	 */
-	public VariantComparator comparator;
+	public final VariantComparator comparator;
+	
+	/**
+	 * Cache for <code>processWord()</code> results, keyed by token, rule group
+	 * and fuzzy flag. <code>null</code>, if caching is disabled.
+	 */
+	public final BoundedCache<Triplet<String, String, Boolean>, ResultData>
+		resultCache;
+	
+	/**
+	 * Thread pool for <code>processWords()</code>.
+	 */
+	private final ForkJoinPool pool;
+	
+	/**
+	 * Prefix trie of dictionary words for dropping variants that can not be
+	 * dictionary words, <code>null</code>, if pruning is disabled.
+	 */
+	private final PrefixIndex prefixes;
 	
 	/**
-	 * Get singleton instance of this class.
+	 * How many characters at the end of a variant may differ from any
+	 * dictionary word, when pruning is enabled.
 	 */
-	public static Transliterator getTransliterator()
+	private final int suffixTolerance;
+	
+	/**
+	 * Maximum count of variants processed for one token, 0 if not limited.
+	 */
+	private final int variantLimit;
+	
+	/**
+	 * Maximum count of partial variants kept at once while searching for the
+	 * most probable variants, 0 if default is used.
+	 */
+	private final int latticeWidth;
+	
+	/**
+	 * Processing time limit for one token in milliseconds, 0 if not limited.
+	 */
+	private final long tokenTimeout;
+	
+	/**
+	 * How long loading of each resource took, in milliseconds.
+	 */
+	private final LinkedHashMap<String, Long> startupTimes;
+	
+	/**
+	 * Get shared instance of this class.
+	 */
+	public static synchronized Transliterator getTransliterator()
 	throws Exception
 	{
 		if (itIsMe == null)
@@ -87,33 +156,47 @@ public class Transliterator
 	}
 	
 	/**
-	 * Get singleton instance of this class. If transliterator is already
+	 * Get shared instance of this class. If transliterator is already
 	 * initialized with different morphology, reinitialization is done.
 	 */
-	public static Transliterator getTransliterator(Analyzer anal)
+	public static synchronized Transliterator getTransliterator(Analyzer anal)
 	throws Exception
 	{
 		if (itIsMe == null || !itIsMe.morph.equals(anal))
-			itIsMe = new Transliterator(PATH_FILE, anal);
+			replaceShared(new Transliterator(PATH_FILE, anal));
 		return itIsMe;
 	}
 	
 	/**
 	 * Reload Transliterator. You should call this if PATH_FILE have changed.
+	 * All cached results are dropped together with the old instance, and
+	 * the old instance is closed (see <code>close()</code>). Callers already
+	 * holding the old instance can keep using it.
 	 */
-	public static void reloadTransliterator()
+	public static synchronized void reloadTransliterator()
 	throws Exception
 	{
-		itIsMe = new Transliterator(PATH_FILE, null);
+		replaceShared(new Transliterator(PATH_FILE, null));
 	}
 	
 	/**
 	 * Reload Transliterator. You should call this if PATH_FILE have changed.
 	 */
-	public static void reloadTransliterator(Analyzer anal)
+	public static synchronized void reloadTransliterator(Analyzer anal)
 	throws Exception
 	{
-		itIsMe = new Transliterator(PATH_FILE, anal);
+		replaceShared(new Transliterator(PATH_FILE, anal));
+	}
+	
+	/**
+	 * Set new shared instance and close the old one, so that its threads are
+	 * not left running.
+	 */
+	private static synchronized void replaceShared(Transliterator newInstance)
+	{
+		Transliterator old = itIsMe;
+		itIsMe = newInstance;
+		if (old != null) old.close();
 	}
 	
 	/**
@@ -121,7 +204,7 @@ public class Transliterator
 	 */
 	public Set<String> ruleSets()
 	{
-		return rules.keySet();
+		return rules.names();
 	}
 	
 	/**
@@ -129,7 +212,7 @@ public class Transliterator
 	 */
 	public boolean isValidRuleSet(String setName)
 	{
-		return rules.containsKey(setName);
+		return rules.contains(setName);
 	}
 	
 	/**
@@ -153,8 +236,51 @@ public class Transliterator
 	 * transliteration, and checking against dictionary.
 	 * In case of invalid input data (no token or invalid group), returns
 	 * <code>null<code>.
+	 * If result cache is enabled (see <code>resultCache</code> in path file),
+	 * results are kept in the cache and each call returns a new copy of the
+	 * cached result (see <code>ResultData.copy()</code>), so the caller may
+	 * modify it. <code>Variant</code> objects in it are shared between the
+	 * copies. Truncated results (see <code>ResultData.truncated</code>) are
+	 * not cached, as they depend on the time available for the call.
 	 */
 	public ResultData processWord(String token, String group, boolean useFuzzy)
+	{
+		if (token == null || group == null || resultCache == null)
+			return processWord(token, group, useFuzzy, 0);
+		
+		Triplet<String, String, Boolean> key =
+			new Triplet<String, String, Boolean>(token.trim(), group, useFuzzy);
+		ResultData res = resultCache.get(key);
+		if (res == null)
+		{
+			res = processWord(token, group, useFuzzy, 0);
+			if (res == null || res.truncated) return res;
+			resultCache.put(key, res);
+		}
+		// Cached object is never given out, so callers can not change it.
+		return res.copy();
+	}
+	
+	/**
+	 * Complete processing of one word: transliteration, and, if asked, fuzzy
+	 * transliteration, and checking against dictionary. If N-gram statistics
+	 * are available, only <code>maxVariants</code> most probable
+	 * transliteration variants are found and processed; this is much faster
+	 * for tokens with many variants. If lattice pruning is enabled (see
+	 * <code>prunePrefixes</code> in path file), only variants that can be
+	 * dictionary words are processed. Results of this method are not cached.
+	 * If limits for one token are set (see <code>maxVariants</code>,
+	 * <code>maxLatticeWidth</code> and <code>tokenTimeout</code> in path
+	 * file), processing stops when a limit is reached: the most probable
+	 * variants found so far are kept and result is marked as truncated.
+	 * In case of invalid input data (no token or invalid group), returns
+	 * <code>null<code>.
+	 *
+	 * @param maxVariants	how many variants to process, all variants are
+	 *						processed, if this is 0 or less.
+	 */
+	public ResultData processWord(
+		String token, String group, boolean useFuzzy, int maxVariants)
 	{
 		if (token == null) return null; // Nothing to do.
 		token = token.trim();
@@ -162,188 +288,644 @@ public class Transliterator
 		Rules r = rules.get(group);
 		if (r == null) return null; // No such group;
 		
-		HashMap<String, Boolean> transRez = Engine.transform(token, r, useFuzzy);
+		TokenBudget budget = budget();
+		HashMap<String, Boolean> transRez =
+			candidates(token, r, useFuzzy, maxVariants, budget);
 		ResultData res = new ResultData();
 		
 		for (Map.Entry<String, Boolean> e : transRez.entrySet())
 		{
-			// Transliteration variant;
-			String var = e.getKey();
-			
-			// Do morpho-analysis.
-			ArrayList<Wordform> analRes = morph.analyze(var).wordforms;
+			// Out of time: keep variants processed so far.
+			if (budget != null && budget.expired()) break;
 			
-			// Lemmas with no guessing used.
-			HashSet<String> trusted = new HashSet<String>();
-			// Lemmas, SourceLemmas with guessing.
-			HashSet<String> guessed = new HashSet<String>();
-			
-			// Sort out unique lemmas.
-			// Without guessing.
-			for (Wordform wf : analRes)
+			// One object for all result categories, so that the estimate is
+			// calculated no more than once.
+			analyze(res, new Variant(e.getKey(), nGrams), e.getValue());
+		}
+		
+		res.truncated = budget != null && budget.truncated();
+		return res;
+	}
+	
+	/**
+	 * Processing of one word, when only the best answer is needed.
+	 * Transliteration variants are processed in order of expected trust:
+	 * exact before fuzzy, and the most probable first within each of them, if
+	 * N-gram statistics are available (alphabetically otherwise). Variants
+	 * are generated lazily in this order, so variants after the answer are
+	 * neither built nor evaluated. Processing stops at the first variant
+	 * confirmed as <code>DICT_EXACT</code>, so the result contains it and
+	 * less trusted variants processed before it. Count of candidate variants
+	 * left unprocessed is given in <code>ResultData.skipped</code>. Pruning
+	 * and limits for one token are applied as in <code>processWord()</code>.
+	 * Results of this method are not cached.
+	 * In case of invalid input data (no token or invalid group), returns
+	 * <code>null</code>.
+	 */
+	public ResultData processWordBest(
+		String token, String group, boolean useFuzzy)
+	{
+		if (token == null) return null; // Nothing to do.
+		token = token.trim();
+		if (token.length() < 1) return null; // Nothing to do.
+		Rules r = rules.get(group);
+		if (r == null) return null; // No such group;
+		
+		TokenBudget budget = budget();
+		ResultData res = new ResultData();
+		PrefixIndex pruning = prefixes;
+		int processed = 0;
+		boolean found = false;
+		while (true)
+		{
+			// Exact variants first, then the ones needing fuzzy rules. Fuzzy
+			// lattice gives exact variants again, they are passed over.
+			Iterator<Tuple<String, Boolean>> exact =
+				rankedVariants(token, r, false, pruning, budget);
+			while (!found && exact.hasNext() && within(budget, processed))
 			{
-				if(wf.getValue(AttributeNames.i_Lemma) == null)
-					throw new NullPointerException(
-						"Morphoanalyzer didn't return lemma for \"" + var + "\"!");
-				if (wf.isMatchingStrong(
-					AttributeNames.i_Guess, AttributeNames.v_NoGuess))
-				{
-					trusted.add(
-						wf.getValue(AttributeNames.i_Lemma).toLowerCase().trim());
-					String sl = wf.getValue(AttributeNames.i_SourceLemma);
-					if (sl != null) trusted.add(sl.toLowerCase().trim());
-				}
+				processed++;
+				found = analyze(
+					res, new Variant(exact.next().first, nGrams), false);
 			}
-			// Guessed lemmas.
-			for (Wordform wf : analRes)
+			Iterator<Tuple<String, Boolean>> fuzzy = found || !useFuzzy
+				? null : rankedVariants(token, r, true, pruning, budget);
+			while (fuzzy != null && fuzzy.hasNext()
+				&& within(budget, processed))
 			{
-				if(wf.getValue(AttributeNames.i_Lemma) == null)
-					throw new NullPointerException(
-						"Morphoanalyzer didn't return lemma for \"" + var + "\"!");
-						
-				String l = wf.getValue(AttributeNames.i_Lemma).toLowerCase().trim();
-				
-				if (!wf.isMatchingStrong(
-					AttributeNames.i_Guess, AttributeNames.v_NoGuess))
-				{
-					if (!trusted.contains(l)) guessed.add(l);
-					
-					String sl = wf.getValue(AttributeNames.i_SourceLemma);
-					if (sl != null && !trusted.contains(sl))
-						guessed.add(sl.toLowerCase().trim());
-				}
+				Tuple<String, Boolean> variant = fuzzy.next();
+				if (!variant.second) continue;
+				processed++;
+				analyze(res, new Variant(variant.first, nGrams), true);
 			}
 			
-			// Search lemmas in dictionaries.
-			boolean found = false;
-			for (String lemma: trusted)
+			// As in candidates(): if pruning leaves nothing, all variants
+			// are tried.
+			if (processed > 0 || pruning == null) break;
+			pruning = null;
+		}
+		
+		// Only the answer needs the count of candidates left behind.
+		if (found)
+		{
+			long limit = budget != null && budget.maxVariants > 0
+				? budget.maxVariants : Integer.MAX_VALUE;
+			long candidates = Engine.variantCount(
+				token, r, useFuzzy, pruning, suffixTolerance, limit);
+			res.skipped = (int) (Math.min(candidates, limit) - processed);
+		}
+		res.truncated = budget != null && budget.truncated();
+		return res;
+	}
+	
+	/**
+	 * Transliteration variants for <code>processWordBest()</code>, generated
+	 * lazily: the most probable first, if N-gram statistics are available,
+	 * alphabetically otherwise.
+	 *
+	 * @param prefixes	prefix trie for pruning, or <code>null</code>.
+	 * @param budget	limits for processing, or <code>null</code>.
+	 */
+	private Iterator<Tuple<String, Boolean>> rankedVariants(String token,
+		Rules r, boolean useFuzzy, PrefixIndex prefixes, TokenBudget budget)
+	{
+		if (nGrams == null)
+			return Engine.variants(
+				token, r, useFuzzy, prefixes, suffixTolerance, budget);
+		return Engine.rankedVariants(
+			token, r, useFuzzy, nGrams, prefixes, suffixTolerance, budget);
+	}
+	
+	/**
+	 * Whether one more variant may be processed within the variant limit of
+	 * the budget. If not, budget is marked as truncated.
+	 */
+	private static boolean within(TokenBudget budget, int processed)
+	{
+		if (budget == null || budget.maxVariants < 1
+			|| processed < budget.maxVariants)
+			return true;
+		budget.truncate();
+		return false;
+	}
+	
+	/**
+	 * Morphologically analyze the variant, check its lemmas against
+	 * dictionaries and add it to the appropriate result categories.
+	 *
+	 * @param fuzzy	whether fuzzy rules are needed for this variant.
+	 * @return	<code>true</code>, if variant was added to
+	 *			<code>DICT_EXACT</code>.
+	 */
+	private boolean analyze(ResultData res, Variant variant, boolean fuzzy)
+	{
+		// Do morpho-analysis.
+		LemmaAnalyzer.Lemmas lemmas = lemmatizer.analyze(variant.token);
+		
+		// Search lemmas in dictionaries.
+		boolean found = false;
+		boolean dictExact = false;
+		for (String lemma: lemmas.trusted)
+		{
+			Properties[] foundDict = dict.dictionaries(lemma);
+			if (fuzzy)
 			{
-				Properties[] foundDict = dict.dictionaries(lemma);
-				if (e.getValue())	// Fuzzy.
+				if (foundDict != null && foundDict.length > 0)
 				{
-					if (foundDict != null && foundDict.length > 0)
-					{
-						res.DICT_FUZZY.add(
-							new Variant(var, nGrams), lemma, foundDict);
-						found = true;
-					}
+					res.DICT_FUZZY.add(
+						variant, lemma, foundDict);
+					found = true;
 				}
-				else				// Exact.
+			}
+			else				// Exact.
+			{
+				if (foundDict != null && foundDict.length > 0)
 				{
-					if (foundDict != null && foundDict.length > 0)
-					{
-						res.DICT_EXACT.add(
-							new Variant(var, nGrams), lemma, foundDict);
-						found = true;
-					}
+					res.DICT_EXACT.add(
+						variant, lemma, foundDict);
+					found = true;
+					dictExact = true;
 				}
 			}
-			for (String lemma: guessed)
+		}
+		for (String lemma: lemmas.guessed)
+		{
+			Properties[] foundDict = dict.dictionaries(lemma);
+			if (fuzzy)
 			{
-				Properties[] foundDict = dict.dictionaries(lemma);
-				if (e.getValue())	// Fuzzy.
+				if (foundDict != null && foundDict.length > 0)
 				{
-					if (foundDict != null && foundDict.length > 0)
-					{
-						res.DICT_FUZZY_GUESS.add(
-							new Variant(var, nGrams), lemma, foundDict);
-						found = true;
-					}
+					res.DICT_FUZZY_GUESS.add(
+						variant, lemma, foundDict);
+					found = true;
 				}
-				else				// Exact.
+			}
+			else				// Exact.
+			{
+				if (foundDict != null && foundDict.length > 0)
 				{
-					if (foundDict != null && foundDict.length > 0)
-					{
-						res.DICT_EXACT_GUESS.add(
-							new Variant(var, nGrams), lemma, foundDict);
-						found = true;
-					}
+					res.DICT_EXACT_GUESS.add(
+						variant, lemma, foundDict);
+					found = true;
 				}
 			}
-			
-			// If none of lemmas was found in dictionaries.
-			if (!found)
+		}
+		
+		// If none of lemmas was found in dictionaries.
+		if (!found)
+		{
+			if (fuzzy) res.NO_DICT_FUZZY.add(variant);
+			else res.NO_DICT_EXACT.add(variant);
+		}
+		return dictExact;
+	}
+	
+	/**
+	 * Limits for processing one token as set in path file, or
+	 * <code>null</code>, if there are none.
+	 */
+	private TokenBudget budget()
+	{
+		if (variantLimit > 0 || latticeWidth > 0 || tokenTimeout > 0)
+			return new TokenBudget(variantLimit, latticeWidth, tokenTimeout);
+		return null;
+	}
+	
+	/**
+	 * Transliteration variants to be processed by <code>processWord()</code>.
+	 * If pruning leaves nothing, the token is not a dictionary word at all,
+	 * so all variants are given instead, exact and fuzzy, as with no pruning.
+	 */
+	private HashMap<String, Boolean> candidates(String token, Rules r,
+		boolean useFuzzy, int maxVariants, TokenBudget budget)
+	{
+		HashMap<String, Boolean> res = variants(
+			token, r, useFuzzy, maxVariants, prefixes, budget);
+		if (res.isEmpty() && prefixes != null)
+			res = variants(token, r, useFuzzy, maxVariants, null, budget);
+		return res;
+	}
+	
+	/**
+	 * Transliteration variants for <code>processWord()</code>.
+	 *
+	 * @param prefixes	prefix trie for pruning, or <code>null</code>.
+	 * @param budget	limits for processing, or <code>null</code>.
+	 */
+	private HashMap<String, Boolean> variants(String token, Rules r,
+		boolean useFuzzy, int maxVariants, PrefixIndex prefixes,
+		TokenBudget budget)
+	{
+		if (maxVariants > 0 && nGrams != null)
+			return Engine.bestVariants(token, r, useFuzzy, nGrams, maxVariants,
+				latticeWidth > 0 ? latticeWidth : Engine.DEFAULT_BEAM_WIDTH,
+				prefixes, suffixTolerance, budget);
+		if (budget != null)
+			return Engine.transform(token, r, useFuzzy, nGrams, prefixes,
+				suffixTolerance, budget);
+		return Engine.transform(token, r, useFuzzy, prefixes, suffixTolerance);
+	}
+	
+	/**
+	 * How many threads <code>processWords()</code> uses (see
+	 * <code>threads</code> in path file).
+	 */
+	public int parallelism()
+	{
+		return pool.getParallelism();
+	}
+	
+	/**
+	 * Stop the thread pool of this transliterator. Tasks already submitted
+	 * are finished. Instance can still be used after closing, but
+	 * <code>processWords()</code> and <code>processDocument()</code> then
+	 * process tokens in the calling thread.
+	 */
+	public void close()
+	{
+		pool.shutdown();
+	}
+	
+	/**
+	 * How long loading of each resource took when this instance was created,
+	 * in milliseconds, and total startup time. Resources are loaded
+	 * concurrently, so total is less than their sum.
+	 */
+	public LinkedHashMap<String, Long> startupTimes()
+	{
+		return new LinkedHashMap<String, Long>(startupTimes);
+	}
+	
+	/**
+	 * Startup times in human readable form, one resource per line.
+	 */
+	public String startupReport()
+	{
+		StringBuilder res = new StringBuilder("Startup times:");
+		for (Map.Entry<String, Long> e : startupTimes.entrySet())
+			res.append("\r\n\t").append(e.getKey()).append(": ")
+				.append(e.getValue()).append(" ms");
+		return res.toString();
+	}
+	
+	/**
+	 * Process many words in parallel, using thread pool of this
+	 * transliterator (see <code>threads</code> in path file).
+	 *
+	 * @return	results of <code>processWord()</code> for each token in the
+	 *			same order as tokens are given.
+	 */
+	public ArrayList<ResultData> processWords(
+		List<String> tokens, String group, boolean useFuzzy)
+	throws InterruptedException
+	{
+		return processWords(tokens, group, useFuzzy,
+			pool.isShutdown() ? null : pool, pool.getParallelism());
+	}
+	
+	/**
+	 * Process many words in parallel, using given executor. If waiting is
+	 * interrupted, remaining work is cancelled: tasks not started yet are
+	 * dropped and running tasks stop after the current token.
+	 *
+	 * @param executor		where to run processing, <code>null</code> to
+	 *						process in the calling thread.
+	 * @param parallelism	how many threads executor has, used for splitting
+	 *						work into tasks.
+	 * @return	results of <code>processWord()</code> for each token in the
+	 *			same order as tokens are given.
+	 */
+	public ArrayList<ResultData> processWords(
+		final List<String> tokens, final String group, final boolean useFuzzy,
+		ExecutorService executor, int parallelism)
+	throws InterruptedException
+	{
+		final ResultData[] res = new ResultData[tokens.size()];
+		if (executor == null)
+		{
+			for (int i = 0; i < tokens.size(); i++)
+				res[i] = processWord(tokens.get(i), group, useFuzzy);
+			return new ArrayList<ResultData>(Arrays.asList(res));
+		}
+		
+		// Several tasks per thread, so that threads which get easy tokens do
+		// not stay idle.
+		int chunk = Math.max(1, tokens.size() / Math.max(1, parallelism * 4));
+		// Not all executors interrupt running tasks on cancel, so tasks check
+		// this between tokens.
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		ArrayList<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (int start = 0; start < tokens.size(); start += chunk)
+		{
+			final int from = start;
+			final int to = Math.min(start + chunk, tokens.size());
+			tasks.add(executor.submit(new Runnable()
 			{
-				// Fuzzy.
-				if (e.getValue()) res.NO_DICT_FUZZY.add(new Variant(var, nGrams));
-				// Exact.
-				else res.NO_DICT_EXACT.add(new Variant(var, nGrams));
-			}
+				public void run()
+				{
+					for (int i = from; i < to && !cancelled.get(); i++)
+						res[i] = processWord(tokens.get(i), group, useFuzzy);
+				}
+			}));
 		}
 		
+		try
+		{
+			for (Future<?> task : tasks) task.get();
+		} catch (InterruptedException e)
+		{
+			cancelled.set(true);
+			for (Future<?> task : tasks) task.cancel(true);
+			throw e;
+		} catch (ExecutionException e)
+		{
+			cancelled.set(true);
+			for (Future<?> task : tasks) task.cancel(true);
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		return new ArrayList<ResultData>(Arrays.asList(res));
+	}
+	
+	/**
+	 * Count how many times each token occurs in a document. Tokens are
+	 * trimmed, but case is kept, as it matters for transliteration; empty
+	 * tokens and <code>null</code>s are skipped.
+	 *
+	 * @return	unique tokens in the order of the first occurrence with their
+	 *			frequencies.
+	 */
+	public static LinkedHashMap<String, Integer> tokenFrequencies(
+		List<String> tokens)
+	{
+		LinkedHashMap<String, Integer> res = new LinkedHashMap<String, Integer>();
+		for (String token : tokens)
+		{
+			if (token == null) continue;
+			token = token.trim();
+			if (token.length() < 1) continue;
+			Integer count = res.get(token);
+			res.put(token, count == null ? 1 : count + 1);
+		}
 		return res;
-	}	
+	}
+	
+	/**
+	 * Process all tokens of a document, using thread pool of this
+	 * transliterator (see <code>threads</code> in path file). Each distinct
+	 * token is processed only once, see
+	 * <code>processDocument(List, String, boolean, ExecutorService, int)</code>.
+	 *
+	 * @return	results of <code>processWord()</code> for each token in the
+	 *			same order as tokens are given.
+	 */
+	public ArrayList<ResultData> processDocument(
+		List<String> tokens, String group, boolean useFuzzy)
+	throws InterruptedException
+	{
+		return processDocument(tokens, group, useFuzzy,
+			pool.isShutdown() ? null : pool, pool.getParallelism());
+	}
+	
+	/**
+	 * Process all tokens of a document in two phases: first, distinct tokens
+	 * are collected (see <code>tokenFrequencies()</code>), then each of them
+	 * is transliterated once and results are spread back to all occurrences.
+	 * Repeated tokens get the same <code>ResultData</code> object, so it
+	 * should not be modified by the caller. Unlike result cache, this needs
+	 * no memory beyond the current document.
+	 *
+	 * @param executor		where to run processing, <code>null</code> to
+	 *						process in the calling thread.
+	 * @param parallelism	how many threads executor has, used for splitting
+	 *						work into tasks.
+	 * @return	results of <code>processWord()</code> for each token in the
+	 *			same order as tokens are given.
+	 */
+	public ArrayList<ResultData> processDocument(
+		List<String> tokens, String group, boolean useFuzzy,
+		ExecutorService executor, int parallelism)
+	throws InterruptedException
+	{
+		ArrayList<String> unique =
+			new ArrayList<String>(tokenFrequencies(tokens).keySet());
+		ArrayList<ResultData> uniqueRes;
+		if (executor == null)
+		{
+			uniqueRes = new ArrayList<ResultData>(unique.size());
+			for (String token : unique)
+				uniqueRes.add(processWord(token, group, useFuzzy));
+		}
+		else uniqueRes = processWords(
+			unique, group, useFuzzy, executor, parallelism);
+		
+		HashMap<String, ResultData> byToken =
+			new HashMap<String, ResultData>(unique.size() * 2);
+		for (int i = 0; i < unique.size(); i++)
+			byToken.put(unique.get(i), uniqueRes.get(i));
+		ArrayList<ResultData> res = new ArrayList<ResultData>(tokens.size());
+		for (String token : tokens)
+			res.add(token == null ? null : byToken.get(token.trim()));
+		return res;
+	}
 	
 	//=== Supporting functions. ================================================
 	
 	/**
-	 * Constructor.
+	 * Constructor. Creates new instance independent from the shared one.
+	 * Configured instance is not modified by processing, so it can be used
+	 * from several threads at once. Instance has its own thread pool, which
+	 * should be stopped with <code>close()</code> when the instance is no
+	 * longer needed.
 	 * If analyzer == null, then morphology is initialized from lexicon given in
-	 * path file.
+	 * path file, with as many analyzers as <code>morphAnalyzers</code> gives.
+	 * Otherwise the given analyzer is the only one used, and it must not be
+	 * used elsewhere while this instance is processing.
 	 */
-	private Transliterator(String pathFile, Analyzer analyzer)
+	public Transliterator(String pathFile, Analyzer analyzer)
 	throws Exception
 	{
+		this.pathFile = pathFile;
 		paths = new Properties();
 		paths.load(new InputStreamReader(new FileInputStream(pathFile),	"UTF8"));
+		long start = System.nanoTime();
 		
-		// Transliteration groups.
-		rules = new HashMap <String, Rules>();
-		initTranslit();
+		// Parallel processing.
+		int threads = (int) numericProperty("threads");
+		if (threads < 1) threads = Runtime.getRuntime().availableProcessors();
+		pool = new ForkJoinPool(threads);
 		
-		// Dictionaries.
-		dict = new WordList();
-		initDict(new File(paths.getProperty("dictDir")));
+		// Transliteration groups, loaded on first use.
+		rules = initTranslit();
 		
-		// Set up morpho-analyzer.
-		if (analyzer == null)
+		// Independent resources are loaded concurrently, so startup takes
+		// about as long as loading of the slowest one.
+		ExecutorService init = Executors.newCachedThreadPool();
+		ArrayList<Analyzer> analyzers = new ArrayList<Analyzer>();
+		LinkedHashMap<String, TimedTask<?>> tasks =
+			new LinkedHashMap<String, TimedTask<?>>();
+		try
 		{
-			morph = new Analyzer(paths.getProperty("morphLex"));
-			morph.enableDiminutive = true;
-			morph.enablePrefixes = true;
-			morph.enableVocative = true;
-			morph.enableGuessing = true;
-			morph.enableAllGuesses = true;
-		} else
+			// Transliteration groups to be loaded right away.
+			ArrayList<Future<Rules>> ruleTasks = new ArrayList<Future<Rules>>();
+			for (String gr : paths.getProperty("preloadGroups", "").split(","))
+			{
+				final String group = gr.trim();
+				if (group.length() < 1) continue;
+				if (!rules.contains(group))
+					throw new IllegalArgumentException(
+						"Path file \"" + pathFile + "\" contains unknown "
+						+ "group \"" + group + "\" in \"preloadGroups\".");
+				TimedTask<Rules> task = new TimedTask<Rules>(
+					new Callable<Rules>()
+					{
+						public Rules call()
+						{
+							return rules.get(group);
+						}
+					});
+				tasks.put("rules " + group, task);
+				ruleTasks.add(init.submit(task));
+			}
+			
+			// Dictionaries.
+			TimedTask<WordList> dictTask = new TimedTask<WordList>(
+				new Callable<WordList>()
+				{
+					public WordList call() throws Exception
+					{
+						return initDict(new File(paths.getProperty("dictDir")));
+					}
+				});
+			tasks.put("dictionaries", dictTask);
+			Future<WordList> dictFuture = init.submit(dictTask);
+			
+			// Set up morpho-analyzers, each with its own lexicon.
+			ArrayList<Future<Analyzer>> morphTasks =
+				new ArrayList<Future<Analyzer>>();
+			int morphCount = analyzer != null ? 0
+				: (int) Math.max(1, numericProperty("morphAnalyzers"));
+			for (int i = 1; i <= morphCount; i++)
+			{
+				TimedTask<Analyzer> morphTask = new TimedTask<Analyzer>(
+					new Callable<Analyzer>()
+					{
+						public Analyzer call() throws Exception
+						{
+							Analyzer res = new Analyzer(
+								paths.getProperty("morphLex"));
+							res.enableDiminutive = true;
+							res.enablePrefixes = true;
+							res.enableVocative = true;
+							res.enableGuessing = true;
+							res.enableAllGuesses = true;
+							return res;
+						}
+					});
+				tasks.put(i == 1 ? "morphology" : "morphology " + i, morphTask);
+				morphTasks.add(init.submit(morphTask));
+			}
+			
+			// N-grams.
+			TimedTask<VariantEvaluator> nGramTask =
+				new TimedTask<VariantEvaluator>(
+					new Callable<VariantEvaluator>()
+					{
+						public VariantEvaluator call() throws Exception
+						{
+							return initNGramEval();
+						}
+					});
+			tasks.put("n-grams", nGramTask);
+			Future<VariantEvaluator> nGramFuture = init.submit(nGramTask);
+			
+			// Collect results.
+			for (Future<Rules> task : ruleTasks) result(task);
+			dict = result(dictFuture);
+			if (analyzer != null) analyzers.add(analyzer);
+			for (Future<Analyzer> task : morphTasks)
+				analyzers.add(result(task));
+			morph = analyzers.get(0);
+			nGrams = result(nGramFuture);
+		} finally
 		{
-			morph = analyzer;
+			init.shutdownNow();
 		}
-		
-		// N-grams.
-		initNGramEval();
 		if (nGrams != null) comparator = new VariantComparator(nGrams);
 		else comparator = null;
+		
+		// Caches.
+		long lemmaCacheMB = numericProperty("lemmaCache");
+		lemmatizer = new LemmaAnalyzer(analyzers, lemmaCacheMB * 1024 * 1024);
+		long cacheSize = numericProperty("resultCache");
+		if (cacheSize < 1) resultCache = null;	// No caching.
+		else resultCache =
+			new BoundedCache<Triplet<String, String, Boolean>, ResultData>(
+				cacheSize);
+		
+		// Lattice pruning.
+		if (Boolean.parseBoolean(paths.getProperty("prunePrefixes", "false")
+			.trim()))
+		{
+			prefixes = dict.prefixIndex();
+			suffixTolerance = (int) numericProperty("suffixTolerance");
+			if (suffixTolerance < 0)
+				throw new IllegalArgumentException("Path file \"" + pathFile
+					+ "\" contains illegal value for parameter "
+					+ "\"suffixTolerance\".");
+		} else
+		{
+			prefixes = null;
+			suffixTolerance = 0;
+		}
+		
+		// Limits for one token.
+		variantLimit = (int) numericProperty("maxVariants");
+		latticeWidth = (int) numericProperty("maxLatticeWidth");
+		tokenTimeout = numericProperty("tokenTimeout");
+		
+		startupTimes = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, TimedTask<?>> e : tasks.entrySet())
+			startupTimes.put(e.getKey(), e.getValue().millis);
+		startupTimes.put("total", (System.nanoTime() - start) / 1000000);
 	}
 	
-	
-	
 	/**
-	 * Reads in all transliterarion rules.
+	 * Prepares all transliterarion rule groups. Rules are not loaded yet.
 	 */
-	private void initTranslit()
-	throws IOException, SAXException, ParserConfigurationException
+	private RuleGroups initTranslit()
 	{
 		String[] groups = paths.getProperty("groups", "").split(",");
 		if (groups.length < 1)
 			throw new IllegalArgumentException(
-				"Path file \"" + PATH_FILE +
+				"Path file \"" + pathFile +
 				"\" contains no translitaration groups.");
+		LinkedHashMap<String, File> files = new LinkedHashMap<String, File>();
 		for (String gr : groups)
 		{
-			rules.put(gr, new Rules(new File(paths.getProperty(gr))));
+			if (paths.getProperty(gr) == null)
+				throw new IllegalArgumentException(
+					"Path file \"" + pathFile +
+					"\" contains no rule file for group \"" + gr + "\".");
+			files.put(gr, new File(paths.getProperty(gr)));
 		}
+		return new RuleGroups(files, numericProperty("ruleIdleTimeout") * 1000);
 	}
 	
 	/**
-	 * Reads in all dictionaries.
+	 * Reads in all dictionaries. Wordlists are parsed in parallel.
 	 */
-	private void initDict(File dictDir)
-	throws IOException
+	private WordList initDict(File dictDir)
+	throws IOException, InterruptedException
 	{
 		if (!dictDir.isDirectory())
 			throw new IllegalArgumentException(
-				"Path file \"" + PATH_FILE +
+				"Path file \"" + pathFile +
 				"\" contains invalid \"dictDir\".");
+		ArrayList<File> wordlists = new ArrayList<File>();
+		ArrayList<File> attributes = new ArrayList<File>();
 		for (File f : dictDir.listFiles())
 		{
 			if (f.getName().endsWith(".txt"))
@@ -351,39 +933,103 @@ public class Transliterator
 				String absName = f.getPath().substring(
 						0, f.getPath().length() - 4);
 				
-				dict.addDictionary(f, new File(absName + ".conf"));
+				wordlists.add(f);
+				attributes.add(new File(absName + ".conf"));
 			}
 		}
+		WordList res = new WordList();
+		res.addDictionaries(wordlists, attributes, pool);
+		return res;
 	}
 	
 	/**
 	 * Read in data for N-gram statistics.
 	 */
-	private void initNGramEval()
+	private VariantEvaluator initNGramEval()
 	throws IOException
 	{
-		int nGramLev = 0;
+		int nGramLev = (int) numericProperty("ngramLevel");
+		if (nGramLev < 1) return null;	// No N-grams given.
+		
+		return new VariantEvaluator(
+			paths.getProperty("ngramBegin", "<s>"),
+			paths.getProperty("ngramEnd", "</s>"),
+			paths.getProperty("ngramUnknown", "<unk>"),
+			paths.getProperty("ngramVocab"),
+			paths.getProperty("ngramStats"),
+			nGramLev);
+	}
+	
+	/**
+	 * Get numeric parameter from path file, 0 is used as default value.
+	 */
+	private long numericProperty(String key)
+	{
 		try
 		{
-			nGramLev = Integer.parseInt(paths.getProperty("ngramLevel", "0"));
+			return Long.parseLong(paths.getProperty(key, "0").trim());
 		} catch (NumberFormatException nfe)
 		{
-			throw new IllegalArgumentException("Path file \"" + PATH_FILE +
-				"\" contains illegal value for parameter \"ngramLevel\".");
+			throw new IllegalArgumentException("Path file \"" + pathFile +
+				"\" contains illegal value for parameter \"" + key + "\".");
 		}
-		
-		if (nGramLev < 1)
-			nGrams = null;	// No N-grams given.
-		else
+	}
+	
+	/**
+	 * Get result of initialization task, rethrowing the exception it has
+	 * thrown, if any.
+	 */
+	private static <T> T result(Future<T> task)
+	throws Exception
+	{
+		try
 		{
-			nGrams = new VariantEvaluator(
-				paths.getProperty("ngramBegin", "<s>"),
-				paths.getProperty("ngramEnd", "</s>"),
-				paths.getProperty("ngramUnknown", "<unk>"),
-				paths.getProperty("ngramVocab"),
-				paths.getProperty("ngramStats"),
-				nGramLev);
-		}		
+			return task.get();
+		} catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw e;
+		}
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Initialization task that measures how long it runs.
+	 */
+	private static class TimedTask<T> implements Callable<T>
+	{
+		/**
+		 * Task to run.
+		 */
+		private final Callable<T> task;
+		/**
+		 * Running time in milliseconds, set when the task is finished.
+		 */
+		volatile long millis;
+		
+		/**
+		 * Constructor.
+		 */
+		TimedTask(Callable<T> task)
+		{
+			this.task = task;
+		}
+		
+		/**
+		 * Run the task and measure its time.
+		 */
+		public T call()
+		throws Exception
+		{
+			long start = System.nanoTime();
+			try
+			{
+				return task.call();
+			} finally
+			{
+				millis = (System.nanoTime() - start) / 1000000;
+			}
+		}
+	}
+}
@@ -1,133 +1,376 @@
 package lv.ailab.lnb.fraktur;
 
+import lv.ailab.lnb.fraktur.util.PrefixIndex;
+
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This class handles dictionaries (wordlists).
+ *
+ * Words are kept in an open addressing hash table. For each word a bitmask
+ * tells which dictionaries contain it, and the metadata array for each
+ * bitmask in use is built once, so lookups create no new objects.
  */
 public class WordList
 {
 	/**
-	 * Maps words from wordlist to the internal ID of dictionary.
+	 * Maximum count of dictionaries, limited by bitmask size.
+	 */
+	public static final int MAX_DICTIONARIES = 32;
+
+	/**
+	 * Approximate size in bytes of wordlist chunks parsed in parallel by
+	 * <code>addDictionaries()</code>.
+	 */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Hash table of words, <code>null</code> marks an empty slot. Table
+	 * length is power of 2.
+	 */
+	private String[] words;
+
+	/**
+	 * Bitmask of dictionaries for each word in <code>words</code>. Bit i is
+	 * set, if the word is in dictionary i.
+	 */
+	private int[] masks;
+
+	/**
+	 * Count of words in the table.
 	 */
-	private HashMap<String, ArrayList<String>> word2id;
-	
+	private int wordCount;
+
 	/**
-	 * Maps dictionary ID to the metadata.
+	 * Metadata of each dictionary, indexed by dictionary bit.
 	 */
-	private HashMap<String, Properties> id2meta;
-	
+	private ArrayList<Properties> dictMeta;
+
 	/**
-	 * To maintain easy generation of unique IDs, last ID is stored.
+	 * All bitmasks in use, sorted.
 	 */
-	private int lastId;
-	
+	private int[] knownMasks;
+
+	/**
+	 * Metadata arrays for each bitmask in <code>knownMasks</code>.
+	 */
+	private Properties[][] maskMeta;
+
+	/**
+	 * Prefix trie of all words, built on demand.
+	 */
+	private PrefixIndex prefixIndex;
+
 	/**
 	 * Constructor.
 	 */
 	public WordList ()
 	{
-		word2id = new HashMap<String, ArrayList<String>>();
-		id2meta = new HashMap<String, Properties>();
-		lastId = -1;
+		words = new String[1024];
+		masks = new int[1024];
+		wordCount = 0;
+		dictMeta = new ArrayList<Properties>();
+		knownMasks = new int[0];
+		maskMeta = new Properties[0][];
 	}
-	
+
 	/**
 	 * Load new dictionary.
 	 */
 	public void addDictionary(File wordlist, File attributes)
 	throws IOException
 	{
-		String id = lastId + "-" + wordlist.getName();
-		
-		// Process attributes.	
-		Properties attribData = new Properties();
-		attribData.load(
-			new InputStreamReader(new FileInputStream(attributes), "UTF8"));
-		attribData.setProperty("attribFile", attributes.getName());
-		attribData.setProperty("dataFile", wordlist.getName());
-		id2meta.put(id, attribData);
-		
+		int bit = addMeta(wordlist, attributes);
+
 		// Read wordlist.
 		// Open file.
 		BufferedReader in = new BufferedReader(new InputStreamReader(
 			new FileInputStream(wordlist), "UTF8"));
-		
+
 		// Process each line.
 		String line = in.readLine();
 		while (line != null)
 		{
-			line = line.trim().toLowerCase();
-			if (line.length() > 0)
+			addWord(line.trim().toLowerCase(), bit);
+			line = in.readLine();
+		}
+
+		// Close file.
+		in.close();
+
+		indexMasks();
+		prefixIndex = null;
+	}
+
+	/**
+	 * Load several dictionaries. Wordlists are split in chunks, which are
+	 * parsed in parallel by the given executor, then words are added the same
+	 * way <code>addDictionary()</code> adds them.
+	 *
+	 * @param wordlists		wordlist files.
+	 * @param attributes	attribute file for each wordlist.
+	 */
+	public void addDictionaries(List<File> wordlists, List<File> attributes,
+		ExecutorService executor)
+	throws IOException, InterruptedException
+	{
+		// Parse all chunks of all wordlists.
+		ArrayList<ArrayList<Future<ArrayList<String>>>> parsed =
+			new ArrayList<ArrayList<Future<ArrayList<String>>>>();
+		for (File wordlist : wordlists)
+		{
+			final byte[] data = Files.readAllBytes(wordlist.toPath());
+			ArrayList<Future<ArrayList<String>>> chunks =
+				new ArrayList<Future<ArrayList<String>>>();
+			int start = 0;
+			while (start < data.length)
 			{
-				// Add new data.
-				if (word2id.containsKey(line))
+				// Chunks end at line breaks, so no character is split.
+				int end = Math.min(start + CHUNK_SIZE, data.length);
+				while (end < data.length && data[end - 1] != '\n') end++;
+				final int from = start;
+				final int to = end;
+				chunks.add(executor.submit(new Callable<ArrayList<String>>()
 				{
-					word2id.get(line).add(id);
-				} else
+					public ArrayList<String> call()
+					throws IOException
+					{
+						return parseLines(new String(data, from, to - from,
+							"UTF8"));
+					}
+				}));
+				start = end;
+			}
+			parsed.add(chunks);
+		}
+
+		// Add words in the original order.
+		try
+		{
+			for (int i = 0; i < wordlists.size(); i++)
+			{
+				int bit = addMeta(wordlists.get(i), attributes.get(i));
+				for (Future<ArrayList<String>> chunk : parsed.get(i))
 				{
-					ArrayList<String> tmp = new ArrayList<String>();
-					tmp.add(id);
-					word2id.put(line, tmp);
+					for (String word : chunk.get()) addWord(word, bit);
 				}
 			}
-			line = in.readLine();
+		} catch (ExecutionException e)
+		{
+			for (ArrayList<Future<ArrayList<String>>> chunks : parsed)
+				for (Future<ArrayList<String>> chunk : chunks) chunk.cancel(true);
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
 		}
-		
-		// Close file.
-		in.close();
+
+		indexMasks();
+		prefixIndex = null;
 	}
-	
+
 	/**
 	 * Check if the word is in dictionary.
 	 */
 	public boolean containsWord(String token)
 	{
-		return word2id.containsKey(token.toLowerCase());
+		return words[slotOf(token.toLowerCase())] != null;
 	}
-	
+
 	/**
 	 * How many dictionaries contain the given word.
 	 */
 	public int countDict (String token)
 	{
-		token = token.toLowerCase();
-		if (!word2id.containsKey(token)) return 0;
-		return word2id.get(token).size();
+		return Integer.bitCount(maskOf(token));
 	}
-	
+
 	/**
 	 * How many entries are in the word list?
 	 */
 	public int wordCount ()
 	{
-		return word2id.size();
+		return wordCount;
 	}
-	
+
 	/**
-	 * Returns attributes for dictionaries containing given word.
+	 * Returns attributes for dictionaries containing given word. Returned
+	 * array is shared, it must not be modified.
 	 */
 	public Properties[] dictionaries (String token)
 	{
-		token = token.toLowerCase();
-		if (!word2id.containsKey(token)) return null;
-		Properties[] res = new Properties[countDict(token)];
-		for (int i = 0; i < countDict(token); i++)
+		int mask = maskOf(token);
+		if (mask == 0) return null;
+		return maskMeta[Arrays.binarySearch(knownMasks, mask)];
+	}
+
+	/**
+	 * Returns attributes for all dictionaries constituting this wordlist.
+	 */
+	public HashSet<Properties> allDictionaries()
+	{
+		return new HashSet<Properties>(dictMeta);
+	}
+
+	/**
+	 * Returns prefix trie of all words in this wordlist (lowercase), builds one
+	 * if necessary.
+	 */
+	public synchronized PrefixIndex prefixIndex()
+	{
+		if (prefixIndex == null)
 		{
-			res[i] = id2meta.get(word2id.get(token).get(i));
+			ArrayList<String> all = new ArrayList<String>(wordCount);
+			for (String w : words) if (w != null) all.add(w);
+			prefixIndex = new PrefixIndex(all);
+		}
+		return prefixIndex;
+	}
+
+	//=== Supporting functions. ================================================
+
+	/**
+	 * Load attributes of a new dictionary.
+	 *
+	 * @return	dictionary bit for this dictionary.
+	 */
+	private int addMeta(File wordlist, File attributes)
+	throws IOException
+	{
+		if (dictMeta.size() >= MAX_DICTIONARIES)
+			throw new IllegalArgumentException("Can't load \""
+				+ wordlist.getName() + "\": no more than " + MAX_DICTIONARIES
+				+ " dictionaries are supported.");
+		int bit = 1 << dictMeta.size();
+
+		// Process attributes.
+		Properties attribData = new Properties();
+		attribData.load(
+			new InputStreamReader(new FileInputStream(attributes), "UTF8"));
+		attribData.setProperty("attribFile", attributes.getName());
+		attribData.setProperty("dataFile", wordlist.getName());
+		dictMeta.add(attribData);
+		return bit;
+	}
+
+	/**
+	 * Add word (trimmed, lowercase) to the dictionary given by bit. Empty
+	 * words are ignored.
+	 */
+	private void addWord(String word, int bit)
+	{
+		if (word.length() < 1) return;
+		int slot = slotOf(word);
+		if (words[slot] == null)
+		{
+			words[slot] = word;
+			wordCount++;
+			if (wordCount * 2 > words.length)
+			{
+				rehash();
+				slot = slotOf(word);
+			}
+		}
+		masks[slot] |= bit;
+	}
+
+	/**
+	 * Split text in lines, trim and lowercase them. Line breaks are the same
+	 * as for <code>BufferedReader.readLine()</code>, empty lines are left
+	 * out.
+	 */
+	private static ArrayList<String> parseLines(String text)
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i <= text.length(); i++)
+		{
+			if (i < text.length() && text.charAt(i) != '\n'
+				&& text.charAt(i) != '\r')
+				continue;
+			String line = text.substring(start, i).trim().toLowerCase();
+			if (line.length() > 0) res.add(line);
+			start = i + 1;
 		}
 		return res;
 	}
 
 	/**
-	 * Returns attributes for all dictionaries constituting this wordlist.
-	 */	
-	public HashSet<Properties> allDictionaries()
+	 * Dictionary bitmask for given word, 0 if word is not found.
+	 */
+	private int maskOf(String token)
+	{
+		return masks[slotOf(token.toLowerCase())];
+	}
+
+	/**
+	 * Hash table slot containing the given word or empty slot where the word
+	 * should be put. Linear probing is used.
+	 */
+	private int slotOf(String word)
+	{
+		int h = word.hashCode();
+		h ^= h >>> 16;
+		int mask = words.length - 1;
+		int slot = h & mask;
+		while (words[slot] != null && !words[slot].equals(word))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Double the size of the hash table.
+	 */
+	private void rehash()
 	{
-		return new HashSet<Properties>(id2meta.values());
+		String[] oldWords = words;
+		int[] oldMasks = masks;
+		words = new String[oldWords.length * 2];
+		masks = new int[oldWords.length * 2];
+		for (int i = 0; i < oldWords.length; i++)
+		{
+			if (oldWords[i] == null) continue;
+			int slot = slotOf(oldWords[i]);
+			words[slot] = oldWords[i];
+			masks[slot] = oldMasks[i];
+		}
+	}
+
+	/**
+	 * Build metadata arrays for all bitmasks in use.
+	 */
+	private void indexMasks()
+	{
+		TreeSet<Integer> inUse = new TreeSet<Integer>();
+		for (int i = 0; i < words.length; i++)
+			if (words[i] != null) inUse.add(masks[i]);
+
+		knownMasks = new int[inUse.size()];
+		maskMeta = new Properties[inUse.size()][];
+		int i = 0;
+		for (int mask : inUse)
+		{
+			knownMasks[i] = mask;
+			maskMeta[i] = new Properties[Integer.bitCount(mask)];
+			int j = 0;
+			for (int d = 0; d < dictMeta.size(); d++)
+			{
+				if ((mask & (1 << d)) != 0) maskMeta[i][j++] = dictMeta.get(d);
+			}
+			i++;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,305 @@
+package lv.ailab.lnb.fraktur.ngram;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * N-gram data in binary file, memory-mapped read-only, so it is kept off the
+ * Java heap and shared between processes using the same file. Binary files
+ * are made from text N-gram files with <code>NGramConverter</code>.
+ *
+ * File format (big-endian):
+ *	int		magic number;
+ *	int		format version;
+ *	int		length of the longest N-grams stored;
+ *	int		count of bits used for one vocabulary item in N-gram keys;
+ *	int		count of vocabulary characters, followed by char and ID pairs;
+ *	int		count of distinct scores, followed by scores (double);
+ *	int		count of N-grams;
+ *			padding to multiple of 8 bytes;
+ *	long[]	packed N-gram keys, sorted;
+ *	short[]	probability index in score table for each N-gram;
+ *	short[]	back-off weight index in score table for each N-gram.
+ * Scores are quantized to no more than 65536 distinct values; N-gram files
+ * with 4 decimal digits usually have less, so no precision is lost.
+ */
+class MappedNGramTable implements NGramLookup
+{
+	/**
+	 * First 4 bytes of binary N-gram file: "LNBG".
+	 */
+	static final int MAGIC = 0x4C4E4247;
+	/**
+	 * Current file format version.
+	 */
+	static final int VERSION = 1;
+	/**
+	 * Maximum count of distinct scores.
+	 */
+	static final int MAX_SCORES = 1 << 16;
+
+	/**
+	 * Length of the longest N-grams stored.
+	 */
+	final int level;
+	/**
+	 * Count of bits used for one vocabulary item in N-gram keys.
+	 */
+	final int bits;
+	/**
+	 * Vocabulary item IDs for characters, indexed by character.
+	 */
+	final int[] charIds;
+
+	/**
+	 * Distinct scores.
+	 */
+	private final double[] scores;
+	/**
+	 * Sorted N-gram keys.
+	 */
+	private final LongBuffer keys;
+	/**
+	 * Probability index in <code>scores</code>, parallel to <code>keys</code>.
+	 */
+	private final ShortBuffer probs;
+	/**
+	 * Back-off weight index in <code>scores</code>, parallel to
+	 * <code>keys</code>.
+	 */
+	private final ShortBuffer backoffs;
+	/**
+	 * Count of N-grams.
+	 */
+	private final int size;
+
+	/**
+	 * Map the given binary N-gram file.
+	 */
+	MappedNGramTable(String file)
+	throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer data;
+		try
+		{
+			data = raf.getChannel().map(
+				FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally
+		{
+			// Mapping stays valid after the file is closed.
+			raf.close();
+		}
+
+		if (data.getInt() != MAGIC)
+			throw new IllegalArgumentException(
+				"\"" + file + "\" is not a binary N-gram file.");
+		int version = data.getInt();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Binary N-gram file \"" + file
+				+ "\" has unsupported format version " + version + ".");
+		level = data.getInt();
+		bits = data.getInt();
+
+		int charCount = data.getInt();
+		char[] chars = new char[charCount];
+		int[] ids = new int[charCount];
+		char maxChar = 0;
+		for (int i = 0; i < charCount; i++)
+		{
+			chars[i] = data.getChar();
+			ids[i] = data.getInt();
+			maxChar = (char) Math.max(maxChar, chars[i]);
+		}
+		charIds = new int[maxChar + 1];
+		for (int i = 0; i < charCount; i++) charIds[chars[i]] = ids[i];
+
+		scores = new double[data.getInt()];
+		for (int i = 0; i < scores.length; i++) scores[i] = data.getDouble();
+
+		size = data.getInt();
+		((Buffer) data).position(align(data.position()));
+		keys = slice(data, size * 8).asLongBuffer();
+		probs = slice(data, size * 2).asShortBuffer();
+		backoffs = slice(data, size * 2).asShortBuffer();
+	}
+
+	/**
+	 * Slot containing given N-gram or -1, if there is no such N-gram.
+	 */
+	public int find(long key)
+	{
+		int low = 0;
+		int high = size - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long midKey = keys.get(mid);
+			if (midKey < key) low = mid + 1;
+			else if (midKey > key) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Probability stored in the given slot.
+	 */
+	public double prob(int slot)
+	{
+		return scores[probs.get(slot) & 0xFFFF];
+	}
+
+	/**
+	 * Back-off weight for given N-gram, 0 if there is no such N-gram.
+	 */
+	public double backoff(long key)
+	{
+		int slot = find(key);
+		return slot < 0 ? 0 : scores[backoffs.get(slot) & 0xFFFF];
+	}
+
+	/**
+	 * Count of N-grams stored.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Check if the given file starts like binary N-gram file.
+	 */
+	static boolean isBinary(String file)
+	throws IOException
+	{
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			return in.readInt() == MAGIC;
+		} catch (EOFException e)
+		{
+			return false;
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Write binary N-gram file.
+	 *
+	 * @param charIds	vocabulary item IDs for characters, indexed by
+	 *					character, 0 for characters not in vocabulary.
+	 */
+	static void write(String file, NGramTable table, int[] charIds,
+		int bits, int level)
+	throws IOException
+	{
+		long[] sortedKeys = table.sortedKeys();
+		double[] probValues = new double[sortedKeys.length];
+		double[] backoffValues = new double[sortedKeys.length];
+		for (int i = 0; i < sortedKeys.length; i++)
+		{
+			probValues[i] = table.prob(table.find(sortedKeys[i]));
+			backoffValues[i] = table.backoff(sortedKeys[i]);
+		}
+		double[] scores = quantize(probValues, backoffValues);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(file), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(level);
+			out.writeInt(bits);
+
+			int charCount = 0;
+			for (int id : charIds) if (id != 0) charCount++;
+			out.writeInt(charCount);
+			for (int c = 0; c < charIds.length; c++)
+			{
+				if (charIds[c] == 0) continue;
+				out.writeChar(c);
+				out.writeInt(charIds[c]);
+			}
+
+			out.writeInt(scores.length);
+			for (double s : scores) out.writeDouble(s);
+
+			out.writeInt(sortedKeys.length);
+			while (out.size() != align(out.size())) out.writeByte(0);
+			for (long key : sortedKeys) out.writeLong(key);
+			for (double p : probValues) out.writeShort(nearest(scores, p));
+			for (double b : backoffValues) out.writeShort(nearest(scores, b));
+		} finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Sorted table of distinct scores. If there are too many distinct values,
+	 * evenly spaced quantiles are used.
+	 */
+	private static double[] quantize(double[] probValues, double[] backoffValues)
+	{
+		double[] all = new double[probValues.length + backoffValues.length];
+		System.arraycopy(probValues, 0, all, 0, probValues.length);
+		System.arraycopy(
+			backoffValues, 0, all, probValues.length, backoffValues.length);
+		Arrays.sort(all);
+
+		double[] distinct = new double[all.length];
+		int count = 0;
+		for (double v : all)
+		{
+			if (count == 0 || distinct[count - 1] != v) distinct[count++] = v;
+		}
+		if (count <= MAX_SCORES) return Arrays.copyOf(distinct, count);
+
+		double[] res = new double[MAX_SCORES];
+		for (int i = 0; i < MAX_SCORES; i++)
+			res[i] = all[(int) ((long) i * (all.length - 1) / (MAX_SCORES - 1))];
+		return res;
+	}
+
+	/**
+	 * Index of the value in sorted score table closest to the given one.
+	 */
+	private static int nearest(double[] scores, double value)
+	{
+		int pos = Arrays.binarySearch(scores, value);
+		if (pos >= 0) return pos;
+		pos = -pos - 1;
+		if (pos == 0) return 0;
+		if (pos == scores.length) return scores.length - 1;
+		return value - scores[pos - 1] <= scores[pos] - value ? pos - 1 : pos;
+	}
+
+	/**
+	 * Next position that is a multiple of 8.
+	 */
+	private static int align(int position)
+	{
+		return (position + 7) & ~7;
+	}
+
+	/**
+	 * Cut next <code>length</code> bytes from the buffer.
+	 */
+	private static ByteBuffer slice(ByteBuffer data, int length)
+	{
+		ByteBuffer res = data.slice();
+		((Buffer) res).limit(length);
+		((Buffer) data).position(data.position() + length);
+		return res;
+	}
+}
@@ -0,0 +1,39 @@
+package lv.ailab.lnb.fraktur.ngram;
+
+import java.io.File;
+
+/**
+ * Offline tool for converting text N-gram statistics to binary file that
+ * <code>VariantEvaluator</code> memory-maps instead of parsing.
+ *
+ * Usage: NGramConverter vocabFile nGramFile binaryFile level
+ *			[beginTag endTag unknownTag]
+ */
+public class NGramConverter
+{
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length != 4 && args.length != 7)
+		{
+			System.out.println("Usage: NGramConverter vocabFile nGramFile "
+				+ "binaryFile level [beginTag endTag unknownTag]");
+			return;
+		}
+		int level = Integer.parseInt(args[3]);
+		long start = System.currentTimeMillis();
+		VariantEvaluator ev = args.length == 7
+			? new VariantEvaluator(
+				args[4], args[5], args[6], args[0], args[1], level)
+			: new VariantEvaluator(null, null, null, args[0], args[1], level);
+		System.out.println("Text N-grams loaded in "
+			+ (System.currentTimeMillis() - start) + " ms.");
+		
+		ev.writeBinary(args[2]);
+		start = System.currentTimeMillis();
+		new VariantEvaluator(null, null, null, args[0], args[2], level);
+		System.out.println("Binary N-grams written to \"" + args[2] + "\" ("
+			+ new File(args[2]).length() + " bytes), loaded in "
+			+ (System.currentTimeMillis() - start) + " ms.");
+	}
+}
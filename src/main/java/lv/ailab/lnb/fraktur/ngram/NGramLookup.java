@@ -0,0 +1,28 @@
+package lv.ailab.lnb.fraktur.ngram;
+
+/**
+ * Storage of N-gram data for <code>VariantEvaluator</code>: logarithmic
+ * probabilities and back-off weights by packed N-gram keys.
+ */
+interface NGramLookup
+{
+	/**
+	 * Slot containing given N-gram or -1, if there is no such N-gram.
+	 */
+	int find(long key);
+
+	/**
+	 * Probability stored in the given slot.
+	 */
+	double prob(int slot);
+
+	/**
+	 * Back-off weight for given N-gram, 0 if there is no such N-gram.
+	 */
+	double backoff(long key);
+
+	/**
+	 * Count of N-grams stored.
+	 */
+	int size();
+}
@@ -0,0 +1,140 @@
+package lv.ailab.lnb.fraktur.ngram;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table mapping packed N-gram keys to logarithmic
+ * probabilities and back-off weights. Keys must be non-zero, zero marks an
+ * empty slot. Linear probing is used.
+ */
+class NGramTable implements NGramLookup
+{
+	/**
+	 * Packed N-grams, table length is power of 2.
+	 */
+	private long[] keys;
+	/**
+	 * N-gram probabilities, parallel to <code>keys</code>.
+	 */
+	private double[] probs;
+	/**
+	 * Back-off weights, parallel to <code>keys</code>. 0 (i.e., log(1)) if not
+	 * given.
+	 */
+	private double[] backoffs;
+	/**
+	 * Count of N-grams in the table.
+	 */
+	private int size;
+
+	/**
+	 * Constructor for empty table.
+	 */
+	NGramTable()
+	{
+		keys = new long[1024];
+		probs = new double[1024];
+		backoffs = new double[1024];
+		size = 0;
+	}
+
+	/**
+	 * Add or replace N-gram data.
+	 */
+	void put(long key, double prob, double backoff)
+	{
+		int slot = slotOf(key);
+		if (keys[slot] == 0)
+		{
+			keys[slot] = key;
+			size++;
+		}
+		probs[slot] = prob;
+		backoffs[slot] = backoff;
+		if (size * 2 > keys.length) rehash();
+	}
+
+	/**
+	 * Slot containing given N-gram or -1, if there is no such N-gram.
+	 */
+	public int find(long key)
+	{
+		int slot = slotOf(key);
+		return keys[slot] == 0 ? -1 : slot;
+	}
+
+	/**
+	 * Probability stored in the given slot.
+	 */
+	public double prob(int slot)
+	{
+		return probs[slot];
+	}
+
+	/**
+	 * Back-off weight for given N-gram, 0 if there is no such N-gram.
+	 */
+	public double backoff(long key)
+	{
+		int slot = slotOf(key);
+		return keys[slot] == 0 ? 0 : backoffs[slot];
+	}
+
+	/**
+	 * Count of N-grams in the table.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * All N-gram keys in the table, sorted.
+	 */
+	long[] sortedKeys()
+	{
+		long[] res = new long[size];
+		int i = 0;
+		for (long key : keys)
+		{
+			if (key != 0) res[i++] = key;
+		}
+		Arrays.sort(res);
+		return res;
+	}
+
+	/**
+	 * Slot containing the given key or empty slot where the key should be
+	 * put.
+	 */
+	private int slotOf(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		int mask = keys.length - 1;
+		int slot = (int) (h >>> 32) & mask;
+		while (keys[slot] != 0 && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * Double the size of the table.
+	 */
+	private void rehash()
+	{
+		long[] oldKeys = keys;
+		double[] oldProbs = probs;
+		double[] oldBackoffs = backoffs;
+		keys = new long[oldKeys.length * 2];
+		probs = new double[oldKeys.length * 2];
+		backoffs = new double[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldKeys[i] == 0) continue;
+			int slot = slotOf(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			probs[slot] = oldProbs[i];
+			backoffs[slot] = oldBackoffs[i];
+		}
+	}
+}
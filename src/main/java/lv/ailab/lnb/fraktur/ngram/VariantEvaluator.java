@@ -1,44 +1,64 @@
 package lv.ailab.lnb.fraktur.ngram;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 
 /**
  * Tool for providing comparable rating for how "probable" each transliteration
- * variant (or arbitrary text string) is.
+ * variant (or arbitrary text string) is. Not modified after construction, so
+ * can be used from several threads at once.
+ *
+ * Vocabulary items are mapped to small integer IDs and N-grams are packed in
+ * <code>long</code> keys, last item in the lowest bits, so evaluation needs
+ * no objects to be created.
  */
 public class VariantEvaluator
 {
-	public int maxNGramLevel;
+	public final int maxNGramLevel;
 	
 	/**
 	 * Tag denoting beginning of the word.
 	 */
-	private static String BEGIN_TAG;
+	private final String BEGIN_TAG;
 	/**
 	 * Tag denoting end of the word.
 	 */
-	private static String END_TAG;
+	private final String END_TAG;
 	/**
 	 * Tag denoting out-of-vocabulary characters.
 	 */
-	private static String UNK_TAG;
-
+	private final String UNK_TAG;
+	
 	/**
-	 * Vocabulary (special constants BEGIN_TAG, END_TAG, UNK_TAG are not
-	 * included).
+	 * Vocabulary item ID for the beginning of the word. ID 0 is never used,
+	 * so N-grams of different length never get the same key.
 	 */
-	private HashSet<String> vocab;
+	private static final int BEGIN_ID = 1;
 	/**
-	 * N-gram probabilities.
+	 * Vocabulary item ID for the end of the word.
 	 */
-	private HashMap<String, Double> nGramProb;
+	private static final int END_ID = 2;
 	/**
-	 * N-1-gram probabilities for back-propagation.
+	 * Vocabulary item ID for out-of-vocabulary characters.
 	 */
-	private HashMap<String, Double> backpropProb;
+	private static final int UNK_ID = 3;
+	
+	/**
+	 * Vocabulary item IDs for characters, indexed by character. 0 for
+	 * out-of-vocabulary characters.
+	 */
+	private final int[] charIds;
+	/**
+	 * Count of bits used for one vocabulary item in packed N-gram.
+	 */
+	private final int bits;
+	/**
+	 * N-gram probabilities together with N-1-gram probabilities for
+	 * back-propagation.
+	 */
+	private final NGramLookup nGrams;
 	
 	/**
 	 * Constructor.
@@ -57,7 +77,11 @@ public class VariantEvaluator
 	 *					unknownTag), error will rise. Space characters are not
 	 *					supported.
 	 * @param nGramFile	Path to N-gram statistics file. Statistics must be log.
-	 * @param level	length of the longest N-grams provided.
+	 *					Binary file made by <code>NGramConverter</code> can be
+	 *					given instead; then it is memory-mapped, and
+	 *					vocabulary file and tags are not used.
+	 * @param level	length of the longest N-grams provided. For binary
+	 *				N-gram file it must be the level the file was made with.
 	 *
 	 */
 	public VariantEvaluator(String beginTag, String endTag, String unknownTag,
@@ -71,14 +95,34 @@ public class VariantEvaluator
 			endTag : "</s>";
 		UNK_TAG = !(unknownTag == null || "".equals(unknownTag.trim())) ?
 			unknownTag : "<unk>";
+		if (level < 1)
+			throw new IllegalArgumentException(level + "-grams can't be used");
 		maxNGramLevel = level;
 		
-		// Initialize data structures.
-		vocab = new HashSet<String>();
-		nGramProb = new HashMap<String, Double>();
-		backpropProb = new HashMap<String, Double>();
+		// Binary N-gram file needs no parsing.
+		if (MappedNGramTable.isBinary(nGramFile))
+		{
+			MappedNGramTable mapped = new MappedNGramTable(nGramFile);
+			if (mapped.level != level)
+				throw new IllegalArgumentException ("Binary N-gram file \""
+					+ nGramFile + "\" contains " + mapped.level
+					+ "-grams, but " + level + "-grams are configured");
+			charIds = mapped.charIds;
+			bits = mapped.bits;
+			if (bits * level > 63)
+				throw new IllegalArgumentException (level
+					+ "-grams can't be used with binary N-gram file \""
+					+ nGramFile + "\"");
+			nGrams = mapped;
+			return;
+		}
 		
 		// Read the vocabulary.
+		HashMap<String, Integer> vocab = new HashMap<String, Integer>();
+		vocab.put(BEGIN_TAG, BEGIN_ID);
+		vocab.put(END_TAG, END_ID);
+		vocab.put(UNK_TAG, UNK_ID);
+		char maxChar = 0;
 		BufferedReader inVocab = new BufferedReader(new InputStreamReader(
 			new FileInputStream(vocabFile), "UTF8"));
 		String line = inVocab.readLine();
@@ -86,7 +130,10 @@ public class VariantEvaluator
 		{
 			line = line.trim();
 			if (!line.equals("") && line.length() == 1)
-				vocab.add(line);
+			{
+				if (!vocab.containsKey(line)) vocab.put(line, vocab.size() + 1);
+				maxChar = (char) Math.max(maxChar, line.charAt(0));
+			}
 			else if (!BEGIN_TAG.equals(line) && !END_TAG.equals(line)
 				&& !UNK_TAG.equals(line))
 				throw new IllegalArgumentException ("Line \""
@@ -94,8 +141,19 @@ public class VariantEvaluator
 			line = inVocab.readLine();
 		}
 		inVocab.close();
-		
+	
+		charIds = new int[maxChar + 1];
+		for (String item : vocab.keySet())
+		{
+			if (item.length() == 1) charIds[item.charAt(0)] = vocab.get(item);
+		}
+		bits = 32 - Integer.numberOfLeadingZeros(vocab.size());
+		if (bits * level > 63)
+			throw new IllegalArgumentException (level
+				+ "-grams can't be used with vocabulary of size " + vocab.size());
+	
 		// Read the n-grams.
+		NGramTable table = new NGramTable();
 		BufferedReader inNGram = new BufferedReader(new InputStreamReader(
 			new FileInputStream(nGramFile), "UTF8"));
 		line = inNGram.readLine();
@@ -114,26 +172,38 @@ public class VariantEvaluator
 					throw new IllegalArgumentException (
 						"N-gram input file contains no N-grams.");
 			}
-			
+		
 			// Process data lines.
 			if (!line.startsWith("\\") && !line.equals(""))
 			{
 				String[] split = line.split("\t");
-				// If both probabilities are given.
-				if (split.length == 3)
-				{
-					nGramProb.put(split[1], Double.parseDouble(split[0]));
-					backpropProb.put(split[1], Double.parseDouble(split[2]));
-				} else if (split.length == 2) // If only one probability is given.
-				{
-					nGramProb.put(split[1], Double.parseDouble(split[0]));
-				} else // Something gone wrong.
+				if (split.length != 2 && split.length != 3)	// Something gone wrong.
 					throw new IllegalArgumentException ("Line \"" + line
 						+ "\" from N-gram file could not be parsed.");
+			
+				// N-grams that can't occur in evaluation are not stored.
+				long key = pack(split[1].split(" "), vocab);
+				if (key != 0) table.put(key, Double.parseDouble(split[0]),
+					split.length == 3 ? Double.parseDouble(split[2]) : 0);
 			}
 			line = inNGram.readLine();
 		}
 		inNGram.close();
+		nGrams = table;
+	}
+	
+	/**
+	 * Save N-gram data loaded from text file in binary form, usable as
+	 * <code>nGramFile</code> for the constructor.
+	 */
+	void writeBinary(String file)
+	throws IOException
+	{
+		if (!(nGrams instanceof NGramTable))
+			throw new IllegalStateException(
+				"N-grams are already loaded from binary file.");
+		MappedNGramTable.write(
+			file, (NGramTable) nGrams, charIds, bits, maxNGramLevel);
 	}
 	
 	/**
@@ -142,27 +212,131 @@ public class VariantEvaluator
 	public double evaluateToken(String token)
 	{
 		if (token == null || "".equals(token)) return 0;
-		ArrayList<String> charList = tokenToArray(token);
-		ArrayList<String[]> substrings = makeNGrams(charList);
 		
 		//Calculate evaluation.
-		double rez = 0;		//nGramProb.get(charList.get(0));
+		long window = BEGIN_ID;
+		long windowMask = mask(maxNGramLevel);
+		double rez = 0;
 		
 		// There is no need to add probability for beginning of the word.
-		for (int pos = 1; pos < charList.size(); pos++)
+		for (int pos = 1; pos <= token.length() + 1; pos++)
 		{
+			int id = pos <= token.length() ? idOf(token.charAt(pos - 1)) : END_ID;
+			window = ((window << bits) | id) & windowMask;
 			int lev = pos + 1 < maxNGramLevel ? pos + 1 : maxNGramLevel;
-			//System.out.println("call");
-			double prob = calculateProb(lev, pos, charList, substrings);
-			//System.out.println("prob " + prob);
-			rez = rez + prob;
+			rez = rez + calculateProb(lev, window);
 		}
 		return rez;
 	}
 	
 	/**
-	 * Recursive method for calculating probability of one n-gram. Calculation
-	 * is done as follows:
+	 * Calculate evaluations for many tokens at once, e.g., for all
+	 * transliteration variants of one token. Tokens are processed in sorted
+	 * order, so evaluation of the common prefix with the previous token is
+	 * reused; each result is the same as <code>evaluateToken()</code> gives.
+	 */
+	public HashMap<String, Double> evaluateAll(Collection<String> tokens)
+	{
+		HashMap<String, Double> res = new HashMap<String, Double>();
+		String[] sorted = new String[tokens.size()];
+		int count = 0;
+		int maxLength = 0;
+		for (String token : tokens)
+		{
+			if (token == null || "".equals(token)) res.put(token, 0.0);
+			else
+			{
+				sorted[count++] = token;
+				maxLength = Math.max(maxLength, token.length());
+			}
+		}
+		Arrays.sort(sorted, 0, count);
+		
+		// Context and evaluation after each prefix of the previous token.
+		int[] ids = new int[maxLength];
+		long[] windows = new long[maxLength + 1];
+		double[] scores = new double[maxLength + 1];
+		windows[0] = BEGIN_ID;
+		scores[0] = 0;
+		long windowMask = mask(maxNGramLevel);
+		int prevLength = 0;
+		
+		for (int i = 0; i < count; i++)
+		{
+			String token = sorted[i];
+			
+			// Find how much of the previous token can be reused.
+			int common = 0;
+			while (common < prevLength && common < token.length()
+				&& ids[common] == idOf(token.charAt(common)))
+				common++;
+			
+			// Evaluate the rest.
+			for (int pos = common + 1; pos <= token.length(); pos++)
+			{
+				ids[pos - 1] = idOf(token.charAt(pos - 1));
+				windows[pos] =
+					((windows[pos - 1] << bits) | ids[pos - 1]) & windowMask;
+				int lev = pos + 1 < maxNGramLevel ? pos + 1 : maxNGramLevel;
+				scores[pos] = scores[pos - 1] + calculateProb(lev, windows[pos]);
+			}
+			prevLength = token.length();
+			
+			// Add the end of the word.
+			int pos = token.length() + 1;
+			long window = ((windows[pos - 1] << bits) | END_ID) & windowMask;
+			int lev = pos + 1 < maxNGramLevel ? pos + 1 : maxNGramLevel;
+			res.put(token, scores[pos - 1] + calculateProb(lev, window));
+		}
+		return res;
+	}
+	
+	/**
+	 * Start incremental evaluation of a token. Characters are added with
+	 * <code>extend()</code> and evaluation is completed with
+	 * <code>finish()</code>. Result is the same as
+	 * <code>evaluateToken()</code> gives for the whole token.
+	 */
+	public Partial begin()
+	{
+		return new Partial(0, BEGIN_ID, 1);
+	}
+	
+	/**
+	 * Evaluate one more character after the given partial evaluation.
+	 * Provided partial evaluation is not changed.
+	 */
+	public Partial extend(Partial prefix, char c)
+	{
+		return extend(prefix, idOf(c));
+	}
+	
+	/**
+	 * Complete the partial evaluation by adding the end of the word.
+	 */
+	public double finish(Partial prefix)
+	{
+		return extend(prefix, END_ID).score;
+	}
+	
+	/**
+	 * Evaluate one more vocabulary item after the given partial evaluation.
+	 */
+	private Partial extend(Partial prefix, int id)
+	{
+		long window = (prefix.history << bits) | id;
+		int length = prefix.length + 1;
+		int lev = Math.min(length, maxNGramLevel);
+		double prob = calculateProb(lev, window);
+		
+		// Only the last N-1 items are needed for evaluating further.
+		int keep = Math.min(length, Math.max(maxNGramLevel - 1, 1));
+		return new Partial(prefix.score + prob, window & mask(keep), keep);
+	}
+	
+	/**
+	 * Method for calculating probability of the n-gram formed by the last
+	 * <code>level</code> items in the window. Calculation is done as follows:
 	 * <code>
 	 *  			  | given_prob("string")				if available;
 	 * Pr("string") = {
@@ -171,81 +345,100 @@ public class VariantEvaluator
 	 * If no <code>backprop_prob("strin")</code> is available,
 	 * <code>log(1) = 0</code> is used.
 	 */
-	private double calculateProb(int level, int position,
-		ArrayList<String> charList, ArrayList<String[]> substrings)
+	private double calculateProb(int level, long window)
 	{
-		try
+		if (level < 1)
+			throw new IllegalArgumentException(level + "-grams can't be used");
+		
+		// Find the longest N-gram given.
+		int found = level;
+		int slot = nGrams.find(window & mask(found));
+		while (slot < 0 && found > 1)
 		{
-			if (level == 1) return nGramProb.get(charList.get(position));
-		} catch (NullPointerException e)
+			found--;
+			slot = nGrams.find(window & mask(found));
+		}
+		if (slot < 0)
 		{
-			if (charList.get(position).equals(UNK_TAG))
+			if ((window & mask(1)) == UNK_ID)
 				throw new IllegalArgumentException(
 					"N-gram file must provide probability for \"unknown symbol\".");
-			else throw e;
-		}
-		if (level < 1)
-			throw new IllegalArgumentException(level + "-grams can't be used");
-			
-		String nGram = substrings.get(level - 2)[position - level + 1];
-		//System.out.println("query: " + nGram);
-		if (nGramProb.containsKey(nGram)) return nGramProb.get(nGram);
-		else
-		{
-			String prefix = level > 2 ?
-				substrings.get(level - 3)[position - level + 1]
-				: charList.get(position - 1);
-			double res =
-				backpropProb.containsKey(prefix) ? backpropProb.get(prefix) : 0;
-			return res + calculateProb(level - 1, position, charList, substrings);
+			throw new IllegalArgumentException(
+				"N-gram file provides no probability for some vocabulary item.");
 		}
+		
+		// Add back-propagation weights in the same order as recursion would.
+		double res = nGrams.prob(slot);
+		for (int lev = found + 1; lev <= level; lev++)
+			res = nGrams.backoff((window >>> bits) & mask(lev - 1)) + res;
+		return res;
 	}
 	
 	/**
-	 * Create all substrings in length from 2 to maxNGramLevel.
+	 * Vocabulary item ID for the given character.
 	 */
-	private ArrayList<String[]> makeNGrams(ArrayList<String> charList)
+	private int idOf(char c)
 	{
-		ArrayList<String[]> substrings = new ArrayList<String[]>();
-		
-		// Make 2-grams.
-		String[] diGrams = new String[charList.size() - 1]; // -2 + 1 = -1
-		for (int pos = 0; pos < diGrams.length; pos++)
-		{
-			diGrams[pos] = charList.get(pos) + " " + charList.get(pos + 1);
-		}
-		substrings.add(diGrams);
-		
-		// Make N-grams for N > 2.
-		for (int len = 3; len <= Math.min(maxNGramLevel, charList.size()); len++)
+		c = Character.toLowerCase(c);
+		if (c >= charIds.length || charIds[c] == 0) return UNK_ID;
+		return charIds[c];
+	}
+	
+	/**
+	 * Bitmask covering the given count of items in a packed N-gram.
+	 */
+	private long mask(int items)
+	{
+		return (1L << (items * bits)) - 1;
+	}
+	
+	/**
+	 * Pack the N-gram from the N-gram file. Returns 0, if N-gram is longer than
+	 * <code>maxNGramLevel</code> or contains items not in vocabulary.
+	 */
+	private long pack(String[] items, HashMap<String, Integer> vocab)
+	{
+		if (items.length > maxNGramLevel) return 0;
+		long res = 0;
+		for (String item : items)
 		{
-			String[] nGrams = new String[charList.size() - len + 1];
-			for (int pos = 0; pos < nGrams.length; pos++)
-			{
-				nGrams[pos] = substrings.get(len - 3)[pos] + " "
-					+ charList.get(pos + len - 1);
-			}
-			substrings.add(nGrams);
+			Integer id = vocab.get(item);
+			if (id == null) return 0;
+			res = (res << bits) | id;
 		}
-		
-		return substrings;
+		return res;
 	}
-	
+
 	/**
-	 * Transform token to the array of vocabulary items.
+	 * Immutable partial evaluation of a token: logarithmic estimate of the
+	 * characters read so far and the context needed for evaluating the next
+	 * one. Partial evaluations of a common prefix can be shared by all its
+	 * continuations.
 	 */
-	private ArrayList<String> tokenToArray(String token)
+	public static class Partial
 	{
-		token = token.toLowerCase();
-		ArrayList<String> charList = new ArrayList<String>();
-		charList.add(BEGIN_TAG);
-		for (int i = 0; i < token.length(); i++)
+		/**
+		 * Logarithmic estimate of the characters read so far.
+		 */
+		public final double score;
+		/**
+		 * Last vocabulary items read, packed, the most recent in the lowest
+		 * bits.
+		 */
+		private final long history;
+		/**
+		 * Count of items in <code>history</code>.
+		 */
+		private final int length;
+		
+		/**
+		 * Constructor.
+		 */
+		private Partial(double score, long history, int length)
 		{
-			String cChar = token.substring(i, i + 1);
-			if (vocab.contains(cChar)) charList.add(cChar);
-			else charList.add(UNK_TAG);
+			this.score = score;
+			this.history = history;
+			this.length = length;
 		}
-		charList.add(END_TAG);
-		return charList;
 	}
 }
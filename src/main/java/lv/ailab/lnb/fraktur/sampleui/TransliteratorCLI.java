@@ -7,8 +7,13 @@ import lv.ailab.lnb.fraktur.translit.Variant;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class provides CLI for Transliterator for demonstration purposes.
@@ -24,7 +29,9 @@ import java.util.HashSet;
  * -group-name  name of the rule group;
  * -file        process first parameter as filename;
  * -order       order variants accordingly to n-gram statistics, if statistics
- *              are available (for single column files only).
+ *              are available (for single column files only);
+ * -parallel    process file in several threads, as many as set in path file;
+ * -parallel=N  process file in N threads.
  * All flags are optional.
  *
  * Technical note: if you want to take a look at code performing
@@ -44,6 +51,14 @@ public class TransliteratorCLI
 	private String group;
 	private boolean isFile;
 	private boolean doOrder;
+	private boolean parallel;
+	private int threads;
+	private boolean dedup;
+	
+	/**
+	 * How many input lines are read at once in parallel file processing.
+	 */
+	private static final int PARALLEL_CHUNK = 10000;
 	
 	private TransliteratorCLI()
 	throws Exception
@@ -70,7 +85,8 @@ public class TransliteratorCLI
 		TransliteratorCLI cli = new TransliteratorCLI();
 
 		System.out.println(
-			"Wordlists contain " + cli.t.dict.wordCount() + " entries.\r\n");
+			"Wordlists contain " + cli.t.dict.wordCount() + " entries.");
+		System.out.println(cli.t.startupReport() + "\r\n");
 
 		if (args.length < 1)
 			cli.interactiveInterface();
@@ -114,7 +130,15 @@ public class TransliteratorCLI
 		System.out.println(
 			"                  -order       order variants accordingly to n-gram statistics,\r\n" +
 			"                               if statistics are available (for single column\r\n" +
-			"                               files only).");
+			"                               files only);");
+		System.out.println(
+			"                  -parallel    process file in several threads, as many as\r\n" +
+			"                               set in path file;");
+		System.out.println(
+			"                  -parallel=N  process file in N threads;");
+		System.out.println(
+			"                  -dedup       read whole file first and process each distinct\r\n" +
+			"                               token once.");
 		System.out.println("All flags are optional.");
 		
 		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
@@ -164,6 +188,11 @@ public class TransliteratorCLI
 				if (doOrder) prefix = "res-ord-";
 				processFile(input, prefix + input, group);
 					System.out.println("Processing file finished.");
+					if (t.resultCache != null)
+						System.out.println("Result cache: " + t.resultCache);
+					if (t.lemmatizer.cache != null)
+						System.out.println(
+							"Morphology cache: " + t.lemmatizer.cache);
 				} catch (IOException e)
 				{
 					System.out.println(
@@ -204,7 +233,7 @@ public class TransliteratorCLI
 		BufferedReader in = new BufferedReader(new InputStreamReader(
 			new FileInputStream(inpath), "UTF8"));
 		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
-			new FileOutputStream(outpath), "UTF8"));
+			new FileOutputStream(outpath), "UTF8"), 1 << 20);
 		
 		// Check if, file contains answers.
 		String firstLine = in.readLine();
@@ -264,106 +293,50 @@ public class TransliteratorCLI
 		BufferedReader in, BufferedWriter out, String firstLine, String group)
 	throws IOException
 	{
-		String line = (firstLine == null) ? in.readLine() : firstLine;
-		int counter = 1;
-		
 		// Print table header.
 		out.write(
 			"Token\tExact dict\tCount\tExact dict guess\tCount\tFuzzy dict\t"
 			+ "Count\tFuzzy dict guess\tCount\tExact no-dict\tCount\t"
 			+ "Fuzzy no-dict\tCount");
 		out.newLine();
-		// Process each line.
-		while (line != null)
+		processLines(in, out, firstLine, group, Format.BASIC);
+	}
+	
+	/**
+	 * Write output row for <code>processFileBasic()</code>.
+	 */
+	private void writeRowBasic(Appendable out, String word, ResultData r)
+	throws IOException
+	{
+		out.append(word).append('\t');
+		writeColumns(out, r.DICT_EXACT.data.keySet());
+		out.append('\t');
+		writeColumns(out, r.DICT_EXACT_GUESS.data.keySet());
+		out.append('\t');
+		writeColumns(out, r.DICT_FUZZY.data.keySet());
+		out.append('\t');
+		writeColumns(out, r.DICT_FUZZY_GUESS.data.keySet());
+		out.append('\t');
+		writeColumns(out, r.NO_DICT_EXACT);
+		out.append('\t');
+		writeColumns(out, r.NO_DICT_FUZZY);
+	}
+	
+	/**
+	 * Write two columns: space separated variants, ordered if possible, and
+	 * count of variants.
+	 */
+	private void writeColumns(Appendable out, Collection<Variant> variants)
+	throws IOException
+	{
+		ArrayList<Variant> sorted = new ArrayList<Variant>(variants);
+		if (t.comparator != null) Collections.sort(sorted, t.comparator);
+		for (int i = 0; i < sorted.size(); i++)
 		{
-			// Parse input.
-			String word = line;
-			word = word.trim();
-			
-			// Nothing to process in this line.
-			if (word == null || word.equals(""))
-			{
-				out.newLine();
-				line = in.readLine();
-				continue;
-			}
-			
-			// Process word.
-			ResultData r = t.processWord(word.trim(), group, fuzzy);
-			
-			if (counter % 100 == 0)
-				System.out.println("Processing token No." + counter);
-
-			// Do output.
-			out.write(word + "\t");
-			StringBuilder tmp = new StringBuilder(" ");
-			ArrayList<Variant> sorted = new ArrayList<Variant>(
-				r.DICT_EXACT.data.keySet());
-			if (t.comparator != null) Collections.sort(sorted, t.comparator);
-			for (Variant v : sorted)
-			{
-				tmp.append(v.token + " ");
-			}
-			out.write(
-				tmp.toString().trim() + "\t" + r.DICT_EXACT.data.size() + "\t");
-				
-			tmp = new StringBuilder(" ");
-			sorted = new ArrayList<Variant>(r.DICT_EXACT_GUESS.data.keySet());
-			if (t.comparator != null) Collections.sort(sorted, t.comparator);
-			for (Variant v : sorted)
-			{
-				tmp.append(v.token + " ");
-			}
-			out.write(
-				tmp.toString().trim() + "\t"
-				+ r.DICT_EXACT_GUESS.data.size() + "\t");
-				
-			tmp = new StringBuilder(" ");
-			sorted = new ArrayList<Variant>(r.DICT_FUZZY.data.keySet());
-			if (t.comparator != null) Collections.sort(sorted, t.comparator);
-			for (Variant v : sorted)
-			{
-				tmp.append(v.token + " ");
-			}
-			out.write(
-				tmp.toString().trim() + "\t" + r.DICT_FUZZY.data.size() +"\t");
-				
-			tmp = new StringBuilder(" ");
-			sorted = new ArrayList<Variant>(r.DICT_FUZZY_GUESS.data.keySet());
-			if (t.comparator != null) Collections.sort(sorted, t.comparator);
-			for (Variant v : sorted)
-			{
-				tmp.append(v.token + " ");
-			}
-			out.write(
-				tmp.toString().trim() + "\t"
-				+ r.DICT_FUZZY_GUESS.data.size() +"\t");
-			
-			tmp = new StringBuilder(" ");
-			sorted = new ArrayList<Variant>(r.NO_DICT_EXACT);
-			if (t.comparator != null) Collections.sort(sorted, t.comparator);
-			for (Variant v : sorted)
-			{
-				tmp.append(v.token + " ");
-			}
-			out.write(
-				tmp.toString().trim() + "\t" + r.NO_DICT_EXACT.size() + "\t");
-				
-			tmp = new StringBuilder(" ");
-			sorted = new ArrayList<Variant>(r.NO_DICT_FUZZY);
-			if (t.comparator != null) Collections.sort(sorted, t.comparator);
-			for (Variant v : sorted)
-			{
-				tmp.append(v.token + " ");
-			}
-			out.write(tmp.toString().trim() + "\t" + r.NO_DICT_FUZZY.size());
-			
-			out.newLine();
-			out.flush();
-			line = in.readLine();
-			counter++;
+			if (i > 0) out.append(' ');
+			out.append(sorted.get(i).token);
 		}
-		
+		out.append('\t').append(String.valueOf(sorted.size()));
 	}
 
 	/**
@@ -390,63 +363,39 @@ public class TransliteratorCLI
 		BufferedReader in, BufferedWriter out, String firstLine, String group)
 	throws IOException
 	{
-		String line = (firstLine == null) ? in.readLine() : firstLine;
-		int counter = 1;
-		
 		// Print table header.
 		out.write("Token\tVariants");
 		out.newLine();
-		// Process each line.
-		while (line != null)
+		processLines(in, out, firstLine, group, Format.ORDER);
+	}
+	
+	/**
+	 * Write output row for <code>processFileOrder()</code>.
+	 */
+	private void writeRowOrder(Appendable out, String word, ResultData r)
+	throws IOException
+	{
+		out.append(word).append('\t');
+		ArrayList<Variant> all = r.getAllVariants();
+		if (t.comparator != null) Collections.sort(all, t.comparator);
+		for (Variant v : all)
 		{
-			// Parse input.
-			String word = line;
-			word = word.trim();
-			
-			// Nothing to process in this line.
-			if (word == null || word.equals(""))
-			{
-				out.newLine();
-				line = in.readLine();
-				continue;
-			}
-			
-			// Process word.
-			ResultData r = t.processWord(word.trim(), group, fuzzy);
-			
-			if (counter % 100 == 0)
-				System.out.println("Processing token No." + counter);
-
-			// Do output.
-			StringBuilder tmp = new StringBuilder(word);
-			tmp.append("\t");
-			ArrayList<Variant> all = r.getAllVariants();
-			if (t.comparator != null) Collections.sort(all, t.comparator);
-			for (Variant v : all)
-			{
-				tmp.append(v.token).append(" (");
-				tmp.append(v.estimate(t.nGrams)).append(", ");
-				if (r.DICT_EXACT.data.containsKey(v))
-					tmp.append("DICT_EXACT");
-				else if (r.DICT_EXACT_GUESS.data.containsKey(v))
-					tmp.append("DICT_EXACT_GUESS");
-				else if (r.DICT_FUZZY.data.containsKey(v))
-					tmp.append("DICT_FUZZY");
-				else if (r.DICT_FUZZY_GUESS.data.containsKey(v))
-					tmp.append("DICT_FUZZY_GUESS");
-				else if (r.NO_DICT_EXACT.contains(v))
-					tmp.append("NO_DICT_EXACT");
-				else if (r.NO_DICT_FUZZY.contains(v))
-					tmp.append("NO_DICT_FUZZY");
-				else tmp.append("ERROR");
-				tmp.append(")\t");
-			}
-			out.write(tmp.toString());
-
-			out.newLine();
-			out.flush();
-			line = in.readLine();
-			counter++;
+			out.append(v.token).append(" (");
+			out.append(String.valueOf(v.estimate(t.nGrams))).append(", ");
+			if (r.DICT_EXACT.data.containsKey(v))
+				out.append("DICT_EXACT");
+			else if (r.DICT_EXACT_GUESS.data.containsKey(v))
+				out.append("DICT_EXACT_GUESS");
+			else if (r.DICT_FUZZY.data.containsKey(v))
+				out.append("DICT_FUZZY");
+			else if (r.DICT_FUZZY_GUESS.data.containsKey(v))
+				out.append("DICT_FUZZY_GUESS");
+			else if (r.NO_DICT_EXACT.contains(v))
+				out.append("NO_DICT_EXACT");
+			else if (r.NO_DICT_FUZZY.contains(v))
+				out.append("NO_DICT_FUZZY");
+			else out.append("ERROR");
+			out.append(")\t");
 		}
 	}
 		
@@ -492,29 +441,155 @@ public class TransliteratorCLI
 		BufferedReader in, BufferedWriter out, String firstLine, String group)
 	throws IOException
 	{
-		String line = (firstLine == null) ? in.readLine() : firstLine;
-		int counter = 1;
-		
 		// Print table header.
 		out.write(
 			"Token\tWhere\tNo.\tNo. in set\t\"Correct\" answer\tExact dict"
 			+ "\tExact dict guess\tFuzzy dict\tFuzzy dict guess\tExact no-dict"
 			+ "\tFuzzy no-dict");
 		out.newLine();
+		processLines(in, out, firstLine, group, Format.WITH_ANS);
+	}
+	
+	/**
+	 * Write output row for <code>processFileWithAns()</code>.
+	 */
+	private void writeRowWithAns(
+		Appendable out, String word, String answer, ResultData r)
+	throws IOException
+	{
+		out.append(word).append('\t');
+		if (answer == null || answer.equals(""))
+			out.append("ANS_NOT_GIVEN\t\t");
+		else
+		{
+			boolean found = false;
+			Variant foundItem = null;
+			ArrayList<Variant> foundSet = new ArrayList<Variant>();
+			for (Variant v : r.DICT_EXACT.data.keySet())
+			{
+				if (v.token.equalsIgnoreCase(answer))
+				{
+					out.append("DICT_EXACT");
+					found = true;
+					foundItem = v;
+					foundSet.addAll(r.DICT_EXACT.data.keySet());
+					break;
+				}
+			}
+			if (!found) for (Variant v : r.DICT_EXACT_GUESS.data.keySet())
+			{
+				if (v.token.equalsIgnoreCase(answer))
+				{
+					out.append("DICT_EXACT_GUESS");
+					found = true;
+					foundItem = v;
+					foundSet.addAll(r.DICT_EXACT_GUESS.data.keySet());
+					break;
+				}
+			}
+			if (!found) for (Variant v : r.DICT_FUZZY.data.keySet())
+			{
+				if (v.token.equalsIgnoreCase(answer))
+				{
+					out.append("DICT_FUZZY");
+					found = true;
+					foundItem = v;
+					foundSet.addAll(r.DICT_FUZZY.data.keySet());
+					break;
+				}
+			}
+			if (!found) for (Variant v : r.DICT_FUZZY_GUESS.data.keySet())
+			{
+				if (v.token.equalsIgnoreCase(answer))
+				{
+					out.append("DICT_FUZZY_GUESS");
+					found = true;
+					foundItem = v;
+					foundSet.addAll(r.DICT_FUZZY_GUESS.data.keySet());
+					break;
+				}
+			}
+			
+			if (!found) for (Variant v : r.NO_DICT_EXACT)
+			{
+				if (v.token.equalsIgnoreCase(answer))
+				{
+					out.append("NO_DICT_EXACT");
+					found = true;
+					foundItem = v;
+					foundSet.addAll(r.NO_DICT_EXACT);
+					break;
+				}
+			}
+			if (!found) for (Variant v : r.NO_DICT_FUZZY)
+			{
+				if (v.token.equalsIgnoreCase(answer))
+				{
+					out.append("NO_DICT_FUZZY");
+					found = true;
+					foundItem = v;
+					foundSet.addAll(r.NO_DICT_FUZZY);
+					break;
+				}
+			}
+			if (!found) out.append("ANS_NOT_PRODUCED\t\t");
+			else if (t.comparator == null) out.append("\t\t");
+			else
+			{
+				ArrayList<Variant> all = r.getAllVariants();
+				if (t.comparator != null) Collections.sort(all, t.comparator);
+				int pos = all.indexOf(foundItem) + 1;
+				out.append("\t").append(String.valueOf(pos));
 				
+				if (t.comparator != null) Collections.sort(foundSet, t.comparator);
+				pos = foundSet.indexOf(foundItem) + 1;
+				out.append("\t").append(String.valueOf(pos));
+			}
+		}
+		
+		out.append('\t').append(answer);
+		int[] counts = {r.DICT_EXACT.data.size(), r.DICT_EXACT_GUESS.data.size(),
+			r.DICT_FUZZY.data.size(), r.DICT_FUZZY_GUESS.data.size(),
+			r.NO_DICT_EXACT.size(), r.NO_DICT_FUZZY.size()};
+		for (int count : counts) out.append('\t').append(String.valueOf(count));
+	}
+	
+	/**
+	 * Process all lines of the input stream one by one and write output rows
+	 * in given format. Empty lines are kept as empty lines. If deduplication
+	 * is set, <code>processLinesDedup()</code> is used instead, else if
+	 * parallel processing is set, <code>processLinesParallel()</code> is used
+	 * instead.
+	 *
+	 * @param firstLine	first line of the input stream, if it has been read
+	 *					previously.
+	 */
+	private void processLines(BufferedReader in, BufferedWriter out,
+		String firstLine, String group, Format format)
+	throws IOException
+	{
+		if (dedup)
+		{
+			processLinesDedup(in, out, firstLine, group, format);
+			return;
+		}
+		if (parallel)
+		{
+			processLinesParallel(in, out, firstLine, group, format);
+			return;
+		}
+		
+		String line = (firstLine == null) ? in.readLine() : firstLine;
+		int counter = 1;
+		
 		// Process each line.
 		while (line != null)
 		{
 			// Parse input.
-			String word = line;
-			String answer = "";
-			String[] tmp = word.split("\t");
-			word = tmp[0];
-			if (tmp.length > 1) answer = tmp[1].trim();
-			word = word.trim();
+			String word = word(line, format);
 			
 			// Nothing to process in this line.
-			if (word == null || word.equals(""))
+			if (word.equals(""))
 			{
 				out.newLine();
 				line = in.readLine();
@@ -522,114 +597,213 @@ public class TransliteratorCLI
 			}
 			
 			// Process word.
-			ResultData r = t.processWord(word.trim(), group, fuzzy);
+			ResultData r = t.processWord(word, group, fuzzy);
 			
 			if (counter % 100 == 0)
 				System.out.println("Processing token No." + counter);
 
 			// Do output.
-			out.write(word + "\t");
-			if (answer == null || answer.equals(""))
-				out.write("ANS_NOT_GIVEN\t\t");
-			else
+			writeRow(out, line, word, r, format);
+			out.newLine();
+			line = in.readLine();
+			counter++;
+		}
+	}
+	
+	/**
+	 * Process lines of the input stream in chunks of
+	 * <code>PARALLEL_CHUNK</code>: tokens of each chunk are processed in
+	 * parallel, output rows are formed in parallel and written in the original
+	 * order. Output is the same as sequential processing gives.
+	 *
+	 * @param firstLine	first line of the input stream, if it has been read
+	 *					previously.
+	 */
+	private void processLinesParallel(BufferedReader in, BufferedWriter out,
+		String firstLine, final String group, final Format format)
+	throws IOException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			String line = (firstLine == null) ? in.readLine() : firstLine;
+			int counter = 0;
+			while (line != null)
 			{
-				boolean found = false;
-				Variant foundItem = null;
-				ArrayList<Variant> foundSet = new ArrayList<Variant>();
-				for (Variant v : r.DICT_EXACT.data.keySet())
-				{
-					if (v.token.equalsIgnoreCase(answer))
-					{
-						out.write("DICT_EXACT");
-						found = true;
-						foundItem = v;
-						foundSet.addAll(r.DICT_EXACT.data.keySet());
-						break;
-					}
-				}
-				if (!found) for (Variant v : r.DICT_EXACT_GUESS.data.keySet())
-				{
-					if (v.token.equalsIgnoreCase(answer))
-					{
-						out.write("DICT_EXACT_GUESS");
-						found = true;
-						foundItem = v;
-						foundSet.addAll(r.DICT_EXACT_GUESS.data.keySet());
-						break;
-					}
-				}
-				if (!found) for (Variant v : r.DICT_FUZZY.data.keySet())
+				// Read next chunk.
+				final ArrayList<String> lines = new ArrayList<String>();
+				while (line != null && lines.size() < PARALLEL_CHUNK)
 				{
-					if (v.token.equalsIgnoreCase(answer))
-					{
-						out.write("DICT_FUZZY");
-						found = true;
-						foundItem = v;
-						foundSet.addAll(r.DICT_FUZZY.data.keySet());
-						break;
-					}
-				}
-				if (!found) for (Variant v : r.DICT_FUZZY_GUESS.data.keySet())
-				{
-					if (v.token.equalsIgnoreCase(answer))
-					{
-						out.write("DICT_FUZZY_GUESS");
-						found = true;
-						foundItem = v;
-						foundSet.addAll(r.DICT_FUZZY_GUESS.data.keySet());
-						break;
-					}
+					lines.add(line);
+					line = in.readLine();
 				}
 				
-				if (!found) for (Variant v : r.NO_DICT_EXACT)
-				{
-					if (v.token.equalsIgnoreCase(answer))
-					{
-						out.write("NO_DICT_EXACT");
-						found = true;
-						foundItem = v;
-						foundSet.addAll(r.NO_DICT_EXACT);
-						break;
-					}
-				}
-				if (!found) for (Variant v : r.NO_DICT_FUZZY)
+				// Several tasks per thread, so that threads which get easy
+				// tokens do not stay idle.
+				final String[] rows = new String[lines.size()];
+				int taskSize = Math.max(1, lines.size() / (threads * 4));
+				ArrayList<Future<?>> tasks = new ArrayList<Future<?>>();
+				for (int start = 0; start < lines.size(); start += taskSize)
 				{
-					if (v.token.equalsIgnoreCase(answer))
+					final int from = start;
+					final int to = Math.min(start + taskSize, lines.size());
+					tasks.add(executor.submit(new Runnable()
 					{
-						out.write("NO_DICT_FUZZY");
-						found = true;
-						foundItem = v;
-						foundSet.addAll(r.NO_DICT_FUZZY);
-						break;
-					}
+						public void run()
+						{
+							for (int i = from; i < to; i++)
+							{
+								String word = word(lines.get(i), format);
+								if (word.equals("")) rows[i] = "";
+								else rows[i] = row(lines.get(i), word,
+									t.processWord(word, group, fuzzy), format);
+							}
+						}
+					}));
 				}
-				if (!found) out.write("ANS_NOT_PRODUCED\t\t");
-				else if (t.comparator == null) out.write("\t\t");
-				else
+				for (Future<?> task : tasks) task.get();
+				
+				// Do output.
+				for (String row : rows)
 				{
-					ArrayList<Variant> all = r.getAllVariants();
-					if (t.comparator != null) Collections.sort(all, t.comparator);
-					int pos = all.indexOf(foundItem) + 1;
-					out.write("\t" + pos);
-					
-					if (t.comparator != null) Collections.sort(foundSet, t.comparator);
-					pos = foundSet.indexOf(foundItem) + 1;
-					out.write("\t" + pos);
+					if (!row.equals("")) counter++;
+					out.write(row);
+					out.newLine();
 				}
+				System.out.println("Processing token No." + counter);
 			}
-			
-			out.write("\t" + answer + "\t" + r.DICT_EXACT.data.size() + "\t"
-				+ r.DICT_EXACT_GUESS.data.size() + "\t"
-				+ r.DICT_FUZZY.data.size() +"\t"
-				+ r.DICT_FUZZY_GUESS.data.size() +"\t"
-				+ r.NO_DICT_EXACT.size() + "\t" + r.NO_DICT_FUZZY.size());
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("File processing interrupted.");
+		} catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error) throw (Error) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Read the whole input stream, transliterate each distinct token once
+	 * (see <code>Transliterator.processDocument()</code>), in parallel, if
+	 * parallel processing is set, and write output rows in the original
+	 * order. Output is the same as sequential processing gives.
+	 *
+	 * @param firstLine	first line of the input stream, if it has been read
+	 *					previously.
+	 */
+	private void processLinesDedup(BufferedReader in, BufferedWriter out,
+		String firstLine, String group, Format format)
+	throws IOException
+	{
+		// Collect tokens.
+		ArrayList<String> lines = new ArrayList<String>();
+		ArrayList<String> words = new ArrayList<String>();
+		String line = (firstLine == null) ? in.readLine() : firstLine;
+		while (line != null)
+		{
+			lines.add(line);
+			words.add(word(line, format));
+			line = in.readLine();
+		}
+		int unique = Transliterator.tokenFrequencies(words).size();
+		System.out.println("Processing " + unique + " distinct tokens.");
+		
+		// Transliterate.
+		ArrayList<ResultData> results;
+		ExecutorService executor =
+			parallel ? Executors.newFixedThreadPool(threads) : null;
+		try
+		{
+			results = t.processDocument(words, group, fuzzy, executor, threads);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("File processing interrupted.");
+		} finally
+		{
+			if (executor != null) executor.shutdownNow();
+		}
 		
+		// Do output.
+		int counter = 0;
+		for (int i = 0; i < lines.size(); i++)
+		{
+			if (!words.get(i).equals(""))
+			{
+				writeRow(out, lines.get(i), words.get(i), results.get(i),
+					format);
+				counter++;
+			}
 			out.newLine();
-			out.flush();
-			line = in.readLine();
-			counter++;
 		}
-	}	
+		System.out.println(
+			"Processed " + counter + " tokens, " + unique + " distinct.");
+	}
+	
+	/**
+	 * Token to process from the given input line, empty string, if there is
+	 * none.
+	 */
+	private String word(String line, Format format)
+	{
+		if (format == Format.WITH_ANS) return line.split("\t")[0].trim();
+		return line.trim();
+	}
+	
+	/**
+	 * Write output row for the given input line in the given format.
+	 */
+	private void writeRow(Appendable out, String line, String word,
+		ResultData r, Format format)
+	throws IOException
+	{
+		if (t.comparator != null) r.estimateAll(t.nGrams);
+		switch (format)
+		{
+			case ORDER:
+				writeRowOrder(out, word, r);
+				break;
+			case WITH_ANS:
+				String[] tmp = line.split("\t");
+				String answer = tmp.length > 1 ? tmp[1].trim() : "";
+				writeRowWithAns(out, word, answer, r);
+				break;
+			default:
+				writeRowBasic(out, word, r);
+		}
+	}
+	
+	/**
+	 * Output row for the given input line in the given format, as string.
+	 */
+	private String row(String line, String word, ResultData r, Format format)
+	{
+		StringBuilder res = new StringBuilder();
+		try
+		{
+			writeRow(res, line, word, r, format);
+		} catch (IOException e)
+		{
+			// StringBuilder does not throw IOException.
+			throw new IllegalStateException(e);
+		}
+		return res.toString();
+	}
+	
+	/**
+	 * Output file formats.
+	 */
+	private static enum Format
+	{
+		BASIC, ORDER, WITH_ANS
+	}
+	
 	//=== Supporting functions for more convenient CLI work. ==================
 	
 	/**
@@ -641,6 +815,9 @@ public class TransliteratorCLI
 		group = "core";
 		isFile = false;
 		doOrder = false;
+		parallel = false;
+		threads = t.parallelism();
+		dedup = false;
 	}
 	
 	/**
@@ -674,6 +851,36 @@ public class TransliteratorCLI
 			doOrder = true;
 			flags.remove("order");
 		}
+		
+		// Parse deduplication flag.
+		if (flags.contains("dedup"))
+		{
+			dedup = true;
+			flags.remove("dedup");
+		}
+		
+		// Parse parallel flag.
+		for (String f : new ArrayList<String>(flags))
+		{
+			if (f.equals("parallel") || f.startsWith("parallel="))
+			{
+				parallel = true;
+				flags.remove(f);
+				if (f.startsWith("parallel=")) try
+				{
+					threads = Integer.parseInt(f.substring(9));
+				} catch (NumberFormatException e)
+				{
+					threads = 0;
+				}
+				if (threads < 1)
+				{
+					System.out.println("Invalid thread count:" + f);
+					setDefaultSettings();
+					return false;
+				}
+			}
+		}
 	
 		// Parse group.
 		if (flags.size() > 1)
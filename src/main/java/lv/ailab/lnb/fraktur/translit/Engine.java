@@ -3,11 +3,15 @@
  */
 package lv.ailab.lnb.fraktur.translit;
 
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.ailab.lnb.fraktur.util.PrefixIndex;
 import lv.ailab.lnb.fraktur.util.Tuple;
 
-import java.io.File;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
 
 /**
@@ -15,6 +19,10 @@ import java.util.HashSet;
  */
 public class Engine
 {
+	/**
+	 * Default count of partial variants kept by <code>bestVariants()</code>.
+	 */
+	public static final int DEFAULT_BEAM_WIDTH = 1000;
 	
 	/**
 	 * Transliterate token.
@@ -39,86 +47,529 @@ public class Engine
 	 */
 	public static HashMap<String, Boolean> transform(
 		String token, Rules rules, boolean fuzzy)
+	{
+		return lattice(token, rules, fuzzy).transliterations();
+	}
+	
+	/**
+	 * Transliterate token lazily, using exact rules or exact rules altogether
+	 * with fuzzy rules. Variants are built one at a time, when asked for, so
+	 * the caller can stop early, e.g., at the first dictionary word, and
+	 * memory use does not grow with the count of variants. Each distinct
+	 * variant is returned once, in alphabetical order.
+	 *
+	 * @return	iterator over variants; Boolean values denote, whether fuzzy
+	 *			rules are needed to obtain such variant.
+	 */
+	public static Iterator<Tuple<String, Boolean>> variants(
+		String token, Rules rules, boolean fuzzy)
+	{
+		return variants(token, rules, fuzzy, null, 0);
+	}
+	
+	/**
+	 * Transliterate token lazily and return only variants that can be
+	 * dictionary words.
+	 *
+	 * @param prefixes			prefix trie of dictionary words; if
+	 *							<code>null</code>, nothing is pruned.
+	 * @param suffixTolerance	how many characters at the end of a variant
+	 *							may differ from any dictionary word.
+	 * @see #variants(String, Rules, boolean)
+	 * @see ProcessingData#transliterations(PrefixIndex, int)
+	 */
+	public static Iterator<Tuple<String, Boolean>> variants(String token,
+		Rules rules, boolean fuzzy, PrefixIndex prefixes, int suffixTolerance)
+	{
+		return variants(token, rules, fuzzy, prefixes, suffixTolerance, null);
+	}
+	
+	/**
+	 * Transliterate token lazily within the given budget: iteration ends,
+	 * when time limit is reached.
+	 *
+	 * @see #variants(String, Rules, boolean, PrefixIndex, int)
+	 */
+	public static Iterator<Tuple<String, Boolean>> variants(String token,
+		Rules rules, boolean fuzzy, PrefixIndex prefixes, int suffixTolerance,
+		TokenBudget budget)
+	{
+		return lattice(token, rules, fuzzy, budget).variants(
+			prefixes, suffixTolerance, budget);
+	}
+	
+	/**
+	 * Transliterate token lazily, the most probable variants first. This is
+	 * the same best-first search as in <code>bestVariants()</code>, but
+	 * variants are found one at a time, when asked for, so nothing is
+	 * evaluated beyond the variants the caller actually takes. As in
+	 * <code>transform()</code>, the search is narrowed by beam only if there
+	 * are more variants than the budget allows.
+	 *
+	 * @param ev				N-gram evaluator for ordering variants.
+	 * @param prefixes			prefix trie of dictionary words; if
+	 *							<code>null</code>, nothing is pruned.
+	 * @param suffixTolerance	how many characters at the end of a variant
+	 *							may differ from any dictionary word.
+	 * @param budget			if given, iteration ends, when time limit is
+	 *							reached, and budget is marked as truncated, if
+	 *							beam has dropped any variants.
+	 * @return	iterator over variants in the order of decreasing estimate;
+	 *			Boolean values denote, whether fuzzy rules are needed to
+	 *			obtain such variant.
+	 * @see #bestVariants(String, Rules, boolean, VariantEvaluator, int, int)
+	 */
+	public static Iterator<Tuple<String, Boolean>> rankedVariants(
+		String token, Rules rules, boolean fuzzy, VariantEvaluator ev,
+		PrefixIndex prefixes, int suffixTolerance, TokenBudget budget)
+	{
+		ProcessingData lattice = lattice(token, rules, fuzzy, budget);
+		int beamWidth = Integer.MAX_VALUE;
+		if (budget != null && budget.maxVariants > 0
+			&& lattice.translitCount(budget.maxVariants) > budget.maxVariants)
+			beamWidth = budget.maxLatticeWidth > 0
+				? budget.maxLatticeWidth : DEFAULT_BEAM_WIDTH;
+		return new RankedIterator(lattice.automaton(), ev, beamWidth, prefixes,
+			suffixTolerance, budget);
+	}
+	
+	/**
+	 * Count transliteration variants that can be dictionary words, as in
+	 * <code>transform(String, Rules, boolean, PrefixIndex, int)</code>,
+	 * without keeping them.
+	 *
+	 * @param limit	counting stops, when this many variants are found.
+	 * @return	count of variants or some number greater than
+	 *			<code>limit</code>, if there are more.
+	 */
+	public static long variantCount(String token, Rules rules, boolean fuzzy,
+		PrefixIndex prefixes, int suffixTolerance, long limit)
+	{
+		return lattice(token, rules, fuzzy).translitCount(
+			prefixes, suffixTolerance, limit);
+	}
+	
+	/**
+	 * Transliterate token, using exact rules or exact rules altogether with
+	 * fuzzy rules, and keep only variants that can be dictionary words.
+	 *
+	 * @param prefixes			prefix trie of dictionary words; if
+	 *							<code>null</code>, nothing is pruned.
+	 * @param suffixTolerance	how many characters at the end of a variant
+	 *							may differ from any dictionary word.
+	 * @see ProcessingData#transliterations(PrefixIndex, int)
+	 */
+	public static HashMap<String, Boolean> transform(String token, Rules rules,
+		boolean fuzzy, PrefixIndex prefixes, int suffixTolerance)
+	{
+		if (prefixes == null) return transform(token, rules, fuzzy);
+		return lattice(token, rules, fuzzy).transliterations(
+			prefixes, suffixTolerance);
+	}
+	
+	/**
+	 * Find the most probable transliteration variants without generating all
+	 * of them. Default beam width is used.
+	 *
+	 * @see #bestVariants(String, Rules, boolean, VariantEvaluator, int, int)
+	 */
+	public static LinkedHashMap<String, Boolean> bestVariants(
+		String token, Rules rules, boolean fuzzy, VariantEvaluator ev, int k)
+	{
+		return bestVariants(token, rules, fuzzy, ev, k, DEFAULT_BEAM_WIDTH);
+	}
+	
+	/**
+	 * Find the most probable transliteration variants without generating all
+	 * of them. Best-first search is done over the transliteration lattice,
+	 * variants are evaluated character by character and partial evaluations
+	 * are shared among variants with common prefix. As N-gram estimates can
+	 * only decrease when characters are added, variants are found in the
+	 * order of decreasing estimate.
+	 *
+	 * @param token		token to transliterate.
+	 * @param rules		transliteration rules.
+	 * @param fuzzy		whether fuzzy rules should be used.
+	 * @param ev		N-gram evaluator for ordering variants.
+	 * @param k			maximum count of variants to return.
+	 * @param beamWidth	maximum count of partial variants kept at once; less
+	 *					probable ones are dropped. If this limit is never
+	 *					reached, result is exact.
+	 * @return	at most <code>k</code> variants, the most probable first.
+	 *			Boolean values denote, whether fuzzy rules are needed to
+	 *			obtain such variant.
+	 */
+	public static LinkedHashMap<String, Boolean> bestVariants(
+		String token, Rules rules, boolean fuzzy, VariantEvaluator ev, int k,
+		int beamWidth)
+	{
+		return bestVariants(
+			token, rules, fuzzy, ev, k, beamWidth, null, 0, null);
+	}
+	
+	/**
+	 * Find the most probable transliteration variants that can be dictionary
+	 * words without generating all of them. Partial variants are dropped as
+	 * soon as they go too far off the prefix trie, as in
+	 * <code>transform(String, Rules, boolean, PrefixIndex, int)</code>.
+	 *
+	 * @param prefixes			prefix trie of dictionary words; if
+	 *							<code>null</code>, nothing is pruned.
+	 * @param suffixTolerance	how many characters at the end of a variant
+	 *							may differ from any dictionary word.
+	 * @param budget			if given, search stops, when time limit is
+	 *							reached, and budget is marked as truncated, if
+	 *							any variants may have been left out.
+	 * @see #bestVariants(String, Rules, boolean, VariantEvaluator, int, int)
+	 */
+	public static LinkedHashMap<String, Boolean> bestVariants(
+		String token, Rules rules, boolean fuzzy, VariantEvaluator ev, int k,
+		int beamWidth, PrefixIndex prefixes, int suffixTolerance,
+		TokenBudget budget)
+	{
+		if (token.length() < 1 || k < 1)
+			return new LinkedHashMap<String, Boolean>();
+		ProcessingData lattice = lattice(token, rules, fuzzy, budget);
+		return bestVariants(lattice.automaton(), ev, k, beamWidth, prefixes,
+			suffixTolerance, budget);
+	}
+	
+	/**
+	 * Transliterate token within the given budget. If there are more variants
+	 * than allowed, only the most probable ones are found, if N-gram
+	 * evaluator is given, or the first ones found, if not. Partial results are
+	 * returned, if time limit is reached. Budget is marked as truncated, if
+	 * any variants may have been left out.
+	 *
+	 * @param ev				N-gram evaluator for choosing variants to
+	 *							keep, may be <code>null</code>.
+	 * @param prefixes			prefix trie of dictionary words; if
+	 *							<code>null</code>, nothing is pruned.
+	 * @param suffixTolerance	how many characters at the end of a variant
+	 *							may differ from any dictionary word.
+	 * @param budget			limits for processing this token.
+	 * @return	variants; the most probable first, if they were chosen by
+	 *			N-gram estimate. Boolean values denote, whether fuzzy rules
+	 *			are needed to obtain such variant.
+	 */
+	public static HashMap<String, Boolean> transform(String token, Rules rules,
+		boolean fuzzy, VariantEvaluator ev, PrefixIndex prefixes,
+		int suffixTolerance, TokenBudget budget)
+	{
+		ProcessingData lattice = lattice(token, rules, fuzzy, budget);
+		// Count is capped, so automaton for a token with very many variants
+		// is not built completely just to find out that there are too many.
+		if (budget.maxVariants > 0 && ev != null
+			&& lattice.translitCount(budget.maxVariants) > budget.maxVariants)
+		{
+			// Too many variants: keep the most probable ones.
+			int beamWidth = budget.maxLatticeWidth > 0
+				? budget.maxLatticeWidth : DEFAULT_BEAM_WIDTH;
+			return bestVariants(lattice.automaton(), ev, budget.maxVariants,
+				beamWidth, prefixes, suffixTolerance, budget);
+		}
+		return lattice.transliterations(prefixes, suffixTolerance, budget);
+	}
+	
+	/**
+	 * Best-first search over the variant automaton for
+	 * <code>bestVariants()</code>.
+	 *
+	 * @param budget	limits for processing, or <code>null</code>.
+	 */
+	private static LinkedHashMap<String, Boolean> bestVariants(
+		VariantAutomaton automaton, VariantEvaluator ev, int k, int beamWidth,
+		PrefixIndex prefixes, int suffixTolerance, TokenBudget budget)
+	{
+		LinkedHashMap<String, Boolean> res = new LinkedHashMap<String, Boolean>();
+		RankedIterator it = new RankedIterator(
+			automaton, ev, beamWidth, prefixes, suffixTolerance, budget);
+		while (res.size() < k && it.hasNext())
+		{
+			Tuple<String, Boolean> variant = it.next();
+			res.put(variant.first, variant.second);
+		}
+		if (budget != null && it.searching()) budget.truncate();
+		return res;
+	}
+	
+	/**
+	 * Best-first search over the variant automaton, paused after each
+	 * finished variant.
+	 */
+	private static class RankedIterator
+		implements Iterator<Tuple<String, Boolean>>
+	{
+		/**
+		 * N-gram evaluator for ordering variants.
+		 */
+		private final VariantEvaluator ev;
+		/**
+		 * Maximum count of partial variants kept at once.
+		 */
+		private final int beamWidth;
+		/**
+		 * Prefix trie for pruning or <code>null</code>.
+		 */
+		private final PrefixIndex prefixes;
+		/**
+		 * How many characters at the end of a variant may be off the trie.
+		 */
+		private final int suffixTolerance;
+		/**
+		 * Limits for processing or <code>null</code>.
+		 */
+		private final TokenBudget budget;
+		/**
+		 * Partial and finished variants not yet processed.
+		 */
+		private PriorityQueue<Hypothesis> queue =
+			new PriorityQueue<Hypothesis>();
+		/**
+		 * Variant to be returned by <code>next()</code> or <code>null</code>,
+		 * if it is not found yet.
+		 */
+		private Tuple<String, Boolean> found;
+		
+		/**
+		 * Constructor.
+		 */
+		RankedIterator(VariantAutomaton automaton, VariantEvaluator ev,
+			int beamWidth, PrefixIndex prefixes, int suffixTolerance,
+			TokenBudget budget)
+		{
+			this.ev = ev;
+			this.beamWidth = beamWidth;
+			this.prefixes = prefixes;
+			this.suffixTolerance = suffixTolerance;
+			this.budget = budget;
+			queue.add(new Hypothesis(null, '\0', automaton.start, ev.begin(),
+				prefixes == null ? PrefixIndex.NONE : prefixes.root(), 0));
+		}
+		
+		/**
+		 * Returns <code>true</code>, if there are more variants.
+		 */
+		public boolean hasNext()
+		{
+			if (found == null) advance();
+			return found != null;
+		}
+		
+		/**
+		 * Returns next variant and whether fuzzy rules are needed for it.
+		 */
+		public Tuple<String, Boolean> next()
+		{
+			if (!hasNext()) throw new NoSuchElementException();
+			Tuple<String, Boolean> res = found;
+			found = null;
+			return res;
+		}
+		
+		/**
+		 * Not supported.
+		 */
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+		
+		/**
+		 * Returns <code>true</code>, if search was paused with partial
+		 * variants left unprocessed.
+		 */
+		boolean searching()
+		{
+			return !queue.isEmpty();
+		}
+		
+		/**
+		 * Continue the search until next variant is finished or the search
+		 * ends.
+		 */
+		private void advance()
+		{
+			while (found == null && !queue.isEmpty())
+			{
+				if (budget != null && budget.expired())
+				{
+					queue.clear();
+					return;
+				}
+				Hypothesis h = queue.poll();
+				if (h.state == null)
+				{
+					// Finished variant: nothing more probable is left in queue.
+					found = new Tuple<String, Boolean>(h.prefix.variant(),
+						!h.prefix.state.exactAccepting);
+					continue;
+				}
+				
+				if (h.state.accepting)
+					queue.add(new Hypothesis(h, ev.finish(h.partial)));
+				char[] labels = h.state.labels();
+				for (int i = 0; i < labels.length; i++)
+				{
+					long node = h.node;
+					int offTrie = h.offTrie + 1;
+					if (prefixes != null && h.offTrie == 0)
+					{
+						node = prefixes.next(
+							h.node, h.length, Character.toLowerCase(labels[i]));
+						if (node != PrefixIndex.NONE) offTrie = 0;
+						else node = h.node;
+					}
+					if (prefixes != null && offTrie > suffixTolerance) continue;
+					queue.add(new Hypothesis(h, labels[i], h.state.target(i),
+						ev.extend(h.partial, labels[i]), node, offTrie));
+				}
+				
+				// Keep the beam narrow.
+				if (queue.size() > beamWidth)
+				{
+					PriorityQueue<Hypothesis> pruned =
+						new PriorityQueue<Hypothesis>();
+					for (int i = 0; i < beamWidth; i++) pruned.add(queue.poll());
+					queue = pruned;
+					if (budget != null) budget.truncate();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Build transliteration lattice for the token, using exact rules or exact
+	 * rules altogether with fuzzy rules. Variants are not built.
+	 */
+	static ProcessingData lattice(String token, Rules rules, boolean fuzzy)
+	{
+		return lattice(token, rules, fuzzy, null);
+	}
+	
+	/**
+	 * Build transliteration lattice for the token within the given budget.
+	 * If time limit is reached, building stops and the lattice is left
+	 * without variants, as the token end can not be reached.
+	 *
+	 * @param budget	limits for processing, or <code>null</code>.
+	 */
+	static ProcessingData lattice(
+		String token, Rules rules, boolean fuzzy, TokenBudget budget)
 	{
 		int len = token.length();
 		ProcessingData lookUpTable = new ProcessingData(len);
-		String tokenLC = token.toLowerCase();
+		// Letter case is classified once, so matched fragments need not be
+		// lower-cased or cut out for capitalizing replacements.
+		TokenCase tokenCase = new TokenCase(token);
+		boolean lowerCase = tokenCase.token() == TokenCase.LOWER;
 		
 		for (int pos = 0; pos < len; pos++)
 		{
-			//String prev = token.substring(0, pos+1);
-			//String prevLC = tokenLC.substring(0, pos+1);
+			if (budget != null && budget.expired()) break;
 			
 			boolean addUnaltered = true;
 			
-			// NOTE
-			// In case of bad performance this part can be optimized by using
-			// suffix trees instead of full search.
+			// Position classes of rules that can match some fragment ending
+			// at the current position: BEGIN rules need only the walk to
+			// reach the token beginning, END and EXACT rules need the last
+			// position.
+			int reachable = Rules.Pos.ALL.mask() | Rules.Pos.BEGIN.mask();
+			if (pos == len - 1)
+				reachable |= Rules.Pos.END.mask() | Rules.Pos.EXACT.mask();
 			
-			// Go through all suffixes of token current substring.
+			// Go through all suffixes of token current substring by walking
+			// rule tries backwards from the current position. Walk stops as
+			// soon as no longer applicable rule target can match.
+			RuleTrie trieLC = rules.insensitive;
+			RuleTrie trie = rules.sensitive;
+			int nodeLC = RuleTrie.ROOT;
+			int node = RuleTrie.ROOT;
 			for (int begin = pos; begin >= 0; begin--)
 			{
-				// Currently analyzed token fragment.
-				String suffix = token.substring(begin, pos + 1);
-				// Currently analyzed token fragment lower-cased.
-				String suffixLC = tokenLC.substring(begin, pos + 1);
+				if (nodeLC != RuleTrie.NONE)
+				{
+					nodeLC = trieLC.next(
+						nodeLC, Character.toLowerCase(token.charAt(begin)));
+					if (nodeLC != RuleTrie.NONE
+							&& (trieLC.reach(nodeLC) & reachable) == 0)
+						nodeLC = RuleTrie.NONE;
+				}
+				if (node != RuleTrie.NONE)
+				{
+					node = trie.next(node, token.charAt(begin));
+					if (node != RuleTrie.NONE
+							&& (trie.reach(node) & reachable) == 0)
+						node = RuleTrie.NONE;
+				}
+				if (nodeLC == RuleTrie.NONE && node == RuleTrie.NONE) break;
+				
+				// Position classes of rules applicable to currently analyzed
+				// token fragment.
+				int allowed = Rules.Pos.ALL.mask();
+				if (begin == 0) allowed |= Rules.Pos.BEGIN.mask();
+				if (pos == len - 1) allowed |= Rules.Pos.END.mask();
+				if (begin == 0 && pos == len - 1)
+					allowed |= Rules.Pos.EXACT.mask();
+				int allowedLC = nodeLC == RuleTrie.NONE
+					? 0 : trieLC.rules(nodeLC) & allowed;
+				int allowedSense = node == RuleTrie.NONE
+					? 0 : trie.rules(node) & allowed;
+				if (allowedLC == 0 && allowedSense == 0) continue;
+				
+				// Case insensitive rules preserve capitalization, if the
+				// fragment is ALL CAPS or First cap.
+				int fragmentCase = lowerCase || allowedLC == 0
+					? TokenCase.LOWER : tokenCase.fragment(begin, pos + 1);
 				
 				// Apply exact case insensitive rules.
-				if (rules.exact.containsKey(suffixLC))
+				int repl = allowedLC == 0
+					? RuleTrie.NONE : trieLC.exact(nodeLC);
+				if (repl != RuleTrie.NONE
+						&& (trieLC.position(repl).mask() & allowed) != 0)
 				{
-					Tuple<String, Rules.Pos> repl = rules.exact.get(suffixLC);
-					
-					// Preserve capitalization, if target is ALL CAPS or First cap.
-					String capitRepl = capitalize(repl.first, suffix);
-					
-					// Update memorization table.
-					if (isAllowed(repl.second, pos, suffixLC.length(), len))
-					{
-						lookUpTable.add(
-							pos, pos - suffixLC.length(), capitRepl, false);
-						addUnaltered = false;
-					}
+					lookUpTable.add(pos, begin - 1,
+						trieLC.replacement(repl, fragmentCase), false);
+					addUnaltered = false;
 				}
 				
 				// Apply exact case sensitive rules.
-				if (rules.exactSense.containsKey(suffix))
+				repl = allowedSense == 0 ? RuleTrie.NONE : trie.exact(node);
+				if (repl != RuleTrie.NONE
+						&& (trie.position(repl).mask() & allowed) != 0)
 				{
-					Tuple<String, Rules.Pos> repl = rules.exact.get(suffix);
-
-					// Update memorization table.
-					if (isAllowed(repl.second, pos, suffix.length(), len))
-					{
-						lookUpTable.add(
-							pos, pos - suffix.length(), repl.first, false);
-						addUnaltered = false;
-					}
+					lookUpTable.add(
+						pos, begin - 1, trie.replacement(repl), false);
+					addUnaltered = false;
 				}
 				
 				// Apply fuzzy case insensitive rules.
-				if (fuzzy && rules.fuzzy.containsKey(suffixLC))
+				if (fuzzy && allowedLC != 0)
 				{
-					for (Tuple<String, Rules.Pos> repl : rules.fuzzy.get(suffixLC))
+					for (int posClass = 0; posClass < RuleTrie.CLASSES;
+							posClass++)
 					{
-						// Preserve capitalization, if target is ALL CAPS or
-						// First cap.
-						String capitRepl = capitalize(repl.first, suffix);
-						
-						// Update memorization table.
-						if (isAllowed(repl.second, pos, suffixLC.length(), len))
-							lookUpTable.add(
-								pos, pos - suffixLC.length(), capitRepl, true);
+						if ((allowedLC & 1 << posClass) == 0) continue;
+						int end = trieLC.fuzzyEnd(nodeLC, posClass);
+						for (int i = trieLC.fuzzyStart(nodeLC, posClass);
+								i < end; i++)
+							lookUpTable.add(pos, begin - 1, trieLC.replacement(
+								trieLC.fuzzy(i), fragmentCase), true);
 					}
 				}
 				
 				// Apply fuzzy case sensitive rules.
-				if(fuzzy && rules.fuzzySense.containsKey(suffix))
+				if (fuzzy && allowedSense != 0)
 				{
-					for (Tuple<String, Rules.Pos> repl : rules.fuzzySense.get(suffix))
+					for (int posClass = 0; posClass < RuleTrie.CLASSES;
+							posClass++)
 					{
-						// Update memorization table.
-						if (isAllowed(repl.second, pos, suffix.length(), len))
-							lookUpTable.add(
-								pos, pos - suffix.length(), repl.first, true);
+						if ((allowedSense & 1 << posClass) == 0) continue;
+						int end = trie.fuzzyEnd(node, posClass);
+						for (int i = trie.fuzzyStart(node, posClass);
+								i < end; i++)
+							lookUpTable.add(pos, begin - 1,
+								trie.replacement(trie.fuzzy(i)), true);
 					}
 				}
 			}
@@ -128,58 +579,101 @@ public class Engine
 				lookUpTable.add(
 					pos, pos - 1, token.substring(pos, pos + 1), false);
 		}
-		return lookUpTable.transliterations();
+		return lookUpTable;
 	}
 	
 	/**
-	 * Is this replacement allowed in this position of source string?
-	 * @param restriction		BEGIN/END/EXACT/ALL
-	 * @param sourcePos			current position in source string
-	 * @param targetLength		length of string fragment to be replaced
-	 * @param sourceTotalLangth	total length of source string
+	 * Partial or finished variant for <code>bestVariants()</code> search.
+	 * Variant characters are stored as a chain of hypotheses, so strings are
+	 * built only for returned variants.
 	 */
-	private static boolean isAllowed(
-		Rules.Pos restriction, int sourcePos, int targetLength, int sourceTotalLength)
+	private static class Hypothesis implements Comparable<Hypothesis>
 	{
-		boolean res = true;
-		switch (restriction)
+		/**
+		 * Hypothesis this one extends, <code>null</code> for the empty one.
+		 */
+		final Hypothesis prefix;
+		/**
+		 * Last character of this hypothesis.
+		 */
+		final char last;
+		/**
+		 * Automaton state after reading this hypothesis, <code>null</code>
+		 * for finished variants.
+		 */
+		final VariantAutomaton.State state;
+		/**
+		 * Partial N-gram evaluation, <code>null</code> for finished variants.
+		 */
+		final VariantEvaluator.Partial partial;
+		/**
+		 * N-gram estimate used for ordering.
+		 */
+		final double score;
+		/**
+		 * Count of characters in this hypothesis.
+		 */
+		final int length;
+		/**
+		 * Prefix trie node for the longest prefix of this hypothesis found in
+		 * the trie, if pruning is done.
+		 */
+		final long node;
+		/**
+		 * Count of characters after the prefix given by <code>node</code>.
+		 */
+		final int offTrie;
+		
+		/**
+		 * Constructor for partial variant.
+		 */
+		Hypothesis(Hypothesis prefix, char last, VariantAutomaton.State state,
+			VariantEvaluator.Partial partial, long node, int offTrie)
 		{
-			case BEGIN:
-				if (sourcePos != targetLength - 1) res = false;
-				break;					
-			case END:
-				if (sourcePos != sourceTotalLength - 1) res = false;
-				break;
-			case EXACT:
-				if (sourcePos != targetLength - 1 
-					|| sourcePos != sourceTotalLength - 1)
-					res = false;
+			this.prefix = prefix;
+			this.last = last;
+			this.state = state;
+			this.partial = partial;
+			score = partial.score;
+			length = prefix == null ? 0 : prefix.length + 1;
+			this.node = node;
+			this.offTrie = offTrie;
 		}
-		return res;
-	}
-	
-	/**
-	 * Capitalize target similarly as pattern is capitalized. Options ALL CAPS
-	 * or First cap considered only.
-	 */
-	private static String capitalize(String target, String pattern)
-	{
-		// Small caps or punctuation.
-		if (pattern.equals(pattern.toLowerCase()))
-			return target; // Do nothing
-					
-		// All caps.
-		if (pattern.equals(pattern.toUpperCase()))
-			return target.toUpperCase();
-					
-		// First cap.
-		if (Character.isLetter(pattern.charAt(0)) && pattern.equals(
-				pattern.substring(0, 1).toUpperCase()
-				+ pattern.substring(1).toLowerCase()))
-			return target.substring(0, 1).toUpperCase()
-				+ target.substring(1).toLowerCase();
-		return target;
 		
+		/**
+		 * Constructor for finished variant.
+		 */
+		Hypothesis(Hypothesis variant, double score)
+		{
+			prefix = variant;
+			last = '\0';
+			state = null;
+			partial = null;
+			this.score = score;
+			length = variant.length;
+			node = variant.node;
+			offTrie = variant.offTrie;
+		}
+		
+		/**
+		 * Build variant string from the chain of hypotheses.
+		 */
+		String variant()
+		{
+			StringBuilder res = new StringBuilder();
+			for (Hypothesis h = this; h.prefix != null; h = h.prefix)
+				res.append(h.last);
+			return res.reverse().toString();
+		}
+		
+		/**
+		 * More probable hypotheses go first.
+		 */
+		@Override
+		public int compareTo(Hypothesis o)
+		{
+			return Double.compare(o.score, score);
+		}
 	}
 
 }
\ No newline at end of file
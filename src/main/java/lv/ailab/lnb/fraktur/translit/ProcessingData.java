@@ -1,25 +1,83 @@
 package lv.ailab.lnb.fraktur.translit;
 
+import lv.ailab.lnb.fraktur.util.PrefixIndex;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-//import java.util.HashSet;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Data structure used by transliterator. Contains information about the token
  * currently being processed.
+ *
+ * Transliteration variants are not stored as strings, instead they are kept
+ * as a lattice: for each position of the source token all rule applications
+ * ending in this position are stored as edges. Whole variants are built only
+ * when asked for.
  */
 class ProcessingData
 {
 	/**
-	 * Look-up table for dynamic program. lookUpTable[i] contains
-	 * transliteration variants when word is transliterated from beginning to
-	 * i-th character.
-	 * Boolean variables denote, whether fuzzy rules are needed to accomplish
-	 * such transformation. 
+	 * One lattice edge: a source token fragment (from, to] transliterated as
+	 * given replacement.
+	 */
+	static class Edge
+	{
+		/**
+		 * Last source position before the transliterated fragment, -1 if the
+		 * fragment starts at the beginning of the token.
+		 */
+		final int from;
+		/**
+		 * Last source position of the transliterated fragment.
+		 */
+		final int to;
+		/**
+		 * Replacement for the fragment.
+		 */
+		final String replacement;
+		/**
+		 * Whether fuzzy rule is needed for this replacement.
+		 */
+		boolean fuzzy;
+
+		/**
+		 * Constructor.
+		 */
+		Edge (int from, int to, String replacement, boolean fuzzy)
+		{
+			this.from = from;
+			this.to = to;
+			this.replacement = replacement;
+			this.fuzzy = fuzzy;
+		}
+
+		/**
+		 * String representation for debugging purposes.
+		 */
+		@Override
+		public String toString()
+		{
+			return "(" + from + ", " + to + "] -> " + replacement
+				+ (fuzzy ? " (fuzzy)" : "");
+		}
+	}
+
+	/**
+	 * Lattice. edges[i] contains all replacements for token fragments ending
+	 * at the i-th character.
 	 */
-	private HashMap<String, Boolean>[] lookUpTable;
-	
+	private ArrayList<Edge>[] edges;
+
+	/**
+	 * Deterministic automaton over variant characters, built on demand.
+	 */
+	private VariantAutomaton automaton;
+
 	/**
 	 * Constructor.
 	 *
@@ -27,42 +85,32 @@ class ProcessingData
 	 */
 	protected ProcessingData (int length)
 	{
-		lookUpTable = new HashMap[length];
+		edges = new ArrayList[length];
 		for (int i = 0; i < length; i++)
 		{
-			lookUpTable[i] = new HashMap<String, Boolean>();
+			edges[i] = new ArrayList<Edge>();
 		}
 	}
-	
+
 	/**
-	 * Copies all strings from position "from" to position "where". Each "new"
-	 * string is concatenated with the given postfix.
+	 * Adds transliteration variants formed by concatenating each variant
+	 * at position "from" with the given postfix to position "where".
 	 */
 	protected void add (int where, int from, String postfix, boolean fuzzy)
 	{
-		if (from < 0)
-		{
-			// If we can transliterate without fuzzy rules, that is better.
-			if (lookUpTable[where].containsKey(postfix))
-				lookUpTable[where].put(
-					postfix, lookUpTable[where].get(postfix) && fuzzy);
-			else lookUpTable[where].put(postfix, fuzzy);
-		} else
+		automaton = null;
+		for (Edge e : edges[where])
 		{
-			for (Map.Entry<String, Boolean> var : lookUpTable[from].entrySet())
+			if (e.from == from && e.replacement.equals(postfix))
 			{
-				String k = var.getKey() + postfix;
-					
 				// If we can transliterate without fuzzy rules, that is better.
-				if (lookUpTable[where].containsKey(k))
-					lookUpTable[where].put(k, lookUpTable[where].get(k) && fuzzy);
-				// If previous transliteration was "unfuzzy", but last step is
-				// fuzzy, altogether we get an fuzzy transliteration.
-				else lookUpTable[where].put(k, var.getValue() || fuzzy);
+				e.fuzzy = e.fuzzy && fuzzy;
+				return;
 			}
 		}
+		edges[where].add(new Edge(from, where, postfix, fuzzy));
 	}
-	
+
 	/**
 	 * Does <code>add (int where, int from, String postfix)</code> for each
 	 * postfix in the given collection.
@@ -75,36 +123,350 @@ class ProcessingData
 			add(where, from, s, fuzzy);
 		}
 	}
-	
+
 	/**
-	 * Returns all elements corresponding to the i-th position.
+	 * Length of the source token.
 	 */
-	protected HashMap<String, Boolean> elementsByPos(int position)
+	protected int length()
 	{
-		return lookUpTable[position];
+		return edges.length;
 	}
-	
+
 	/**
-	 * Returns count of the elements corresponding to the i-th position.
+	 * Returns all edges ending in the i-th position.
 	 */
-	protected int countByPos (int position)
+	protected ArrayList<Edge> edgesByPos(int position)
 	{
-		return lookUpTable[position].size();
+		return edges[position];
 	}
-	
+
 	/**
-	 * Returns all transliteration variants.
+	 * Returns all transliteration variants. Boolean values denote, whether
+	 * fuzzy rules are needed to obtain such variant.
 	 */
 	protected HashMap<String, Boolean> transliterations()
 	{
-		return lookUpTable[lookUpTable.length - 1];
+		return transliterations(null, 0, null);
+	}
+
+	/**
+	 * Returns transliteration variants that can still be words from the given
+	 * prefix trie: variant (lowercase) must share with some word a prefix no
+	 * more than <code>suffixTolerance</code> characters shorter than the
+	 * variant itself. This leaves room for inflection, as the trie contains
+	 * lemmas. Variants are built character by character walking the automaton
+	 * and the trie at once, and a partial variant is dropped as soon as it
+	 * goes too far off the trie, so hopeless variants are never built.
+	 * Boolean values denote, whether fuzzy rules are needed to obtain such
+	 * variant.
+	 */
+	protected HashMap<String, Boolean> transliterations(
+		PrefixIndex prefixes, int suffixTolerance)
+	{
+		return transliterations(prefixes, suffixTolerance, null);
 	}
-	
+
+	/**
+	 * Returns transliteration variants within the given budget: walk stops,
+	 * when variant count or time limit is reached, and variants found so far
+	 * are returned. Boolean values denote, whether fuzzy rules are needed to
+	 * obtain such variant.
+	 *
+	 * @param prefixes			prefix trie for pruning, as in
+	 *							<code>transliterations(PrefixIndex, int)</code>,
+	 *							or <code>null</code>.
+	 * @param suffixTolerance	how many characters at the end of a variant may
+	 *							differ from any word in the trie.
+	 * @param budget			limits for processing, or <code>null</code>.
+	 */
+	protected HashMap<String, Boolean> transliterations(
+		PrefixIndex prefixes, int suffixTolerance, TokenBudget budget)
+	{
+		HashMap<String, Boolean> res = new HashMap<String, Boolean>();
+		Iterator<Tuple<String, Boolean>> it =
+			variants(prefixes, suffixTolerance, budget);
+		while (it.hasNext())
+		{
+			if (budget != null && budget.maxVariants > 0
+				&& res.size() >= budget.maxVariants)
+			{
+				budget.truncate();
+				break;
+			}
+			Tuple<String, Boolean> variant = it.next();
+			res.put(variant.first, variant.second);
+		}
+		return res;
+	}
+
 	/**
-	 * Returns count of transliteration variants.
+	 * Returns transliteration variants one at a time, so the caller can stop
+	 * early and only the current variant is kept in memory. Each distinct
+	 * variant is returned once together with a flag telling whether fuzzy
+	 * rules are needed to obtain it. Variants are found by depth-first walk
+	 * through the automaton, so they come in alphabetical order.
+	 *
+	 * @param prefixes			prefix trie for pruning, as in
+	 *							<code>transliterations(PrefixIndex, int)</code>,
+	 *							or <code>null</code>.
+	 * @param suffixTolerance	how many characters at the end of a variant may
+	 *							differ from any word in the trie.
+	 * @param budget			if given, iteration ends, when time limit is
+	 *							reached.
 	 */
-	protected int translitCount()
+	protected Iterator<Tuple<String, Boolean>> variants(
+		PrefixIndex prefixes, int suffixTolerance, TokenBudget budget)
 	{
-		return lookUpTable[lookUpTable.length - 1].size();
+		return new VariantIterator(prefixes, suffixTolerance, budget);
 	}
+
+	/**
+	 * Returns count of distinct transliteration variants. Variants are not
+	 * built for this.
+	 */
+	protected long translitCount()
+	{
+		return automaton().count();
+	}
+
+	/**
+	 * Returns count of distinct transliteration variants, if it does not
+	 * exceed the given limit, or some number greater than the limit
+	 * otherwise. Only as much of the automaton is built as needed to tell
+	 * this.
+	 */
+	protected long translitCount(long limit)
+	{
+		return automaton().count(limit);
+	}
+
+	/**
+	 * Returns count of transliteration variants left after pruning, as in
+	 * <code>transliterations(PrefixIndex, int)</code>, if it does not exceed
+	 * the given limit, or some number greater than the limit otherwise.
+	 * Without prefix trie, variants are counted without building them.
+	 */
+	protected long translitCount(
+		PrefixIndex prefixes, int suffixTolerance, long limit)
+	{
+		if (prefixes == null) return translitCount(limit);
+		long res = 0;
+		Iterator<Tuple<String, Boolean>> it =
+			variants(prefixes, suffixTolerance, null);
+		while (res <= limit && it.hasNext())
+		{
+			it.next();
+			res++;
+		}
+		return res;
+	}
+
+	/**
+	 * Returns count of distinct transliteration variants obtainable without
+	 * fuzzy rules. Variants are not built for this.
+	 */
+	protected long exactCount()
+	{
+		return automaton().exactCount();
+	}
+
+	/**
+	 * Returns count of paths through the lattice, i.e., count of variants
+	 * before deduplication.
+	 */
+	protected long pathCount()
+	{
+		long[] paths = new long[edges.length];
+		for (int i = 0; i < edges.length; i++)
+		{
+			for (Edge e : edges[i])
+				paths[i] += e.from < 0 ? 1 : paths[e.from];
+		}
+		return edges.length < 1 ? 0 : paths[edges.length - 1];
+	}
+
+	/**
+	 * Checks if given variant can be obtained from this token and whether it
+	 * needs fuzzy rules.
+	 *
+	 * @return	<code>null</code>, if variant can not be obtained,
+	 *			<code>true</code>, if fuzzy rules are needed,
+	 *			<code>false</code> otherwise.
+	 */
+	protected Boolean isFuzzy(String variant)
+	{
+		return automaton().isFuzzy(variant);
+	}
+
+	/**
+	 * Returns automaton for this lattice, builds one if necessary.
+	 */
+	protected VariantAutomaton automaton()
+	{
+		if (automaton == null) automaton = new VariantAutomaton(edges);
+		return automaton;
+	}
+
+	/**
+	 * Depth-first walk through the automaton, following the prefix trie
+	 * alongside, if given. Walk state is kept in explicit stack, one entry per
+	 * variant character, so the walk can be paused after each variant.
+	 */
+	private class VariantIterator implements Iterator<Tuple<String, Boolean>>
+	{
+		/**
+		 * Prefix trie for pruning or <code>null</code>.
+		 */
+		private final PrefixIndex prefixes;
+		/**
+		 * How many characters at the end of a variant may be off the trie.
+		 */
+		private final int suffixTolerance;
+		/**
+		 * Limits for processing or <code>null</code>.
+		 */
+		private final TokenBudget budget;
+		/**
+		 * Current partial variant.
+		 */
+		private final StringBuilder variant = new StringBuilder();
+		/**
+		 * Automaton state after reading each prefix of the current variant.
+		 */
+		private VariantAutomaton.State[] states =
+			new VariantAutomaton.State[16];
+		/**
+		 * Next outgoing transition to try from each state on the stack.
+		 */
+		private int[] nextLabel = new int[16];
+		/**
+		 * Trie node for the longest prefix found in the trie, for each state
+		 * on the stack.
+		 */
+		private long[] nodes = new long[16];
+		/**
+		 * Count of characters after that prefix, for each state on the stack.
+		 */
+		private int[] offTrie = new int[16];
+		/**
+		 * Count of states on the stack, i.e., current variant length + 1.
+		 */
+		private int depth;
+		/**
+		 * Variant to be returned by <code>next()</code> or <code>null</code>,
+		 * if it is not found yet.
+		 */
+		private Tuple<String, Boolean> found;
+
+		/**
+		 * Constructor.
+		 */
+		VariantIterator(
+			PrefixIndex prefixes, int suffixTolerance, TokenBudget budget)
+		{
+			this.prefixes = prefixes;
+			this.suffixTolerance = suffixTolerance;
+			this.budget = budget;
+			depth = 0;
+			if (edges.length > 0)
+				push(automaton().start,
+					prefixes == null ? PrefixIndex.NONE : prefixes.root(), 0);
+		}
+
+		/**
+		 * Returns <code>true</code>, if there are more variants.
+		 */
+		public boolean hasNext()
+		{
+			if (found == null) advance();
+			return found != null;
+		}
+
+		/**
+		 * Returns next variant and whether fuzzy rules are needed for it.
+		 */
+		public Tuple<String, Boolean> next()
+		{
+			if (!hasNext()) throw new NoSuchElementException();
+			Tuple<String, Boolean> res = found;
+			found = null;
+			return res;
+		}
+
+		/**
+		 * Not supported.
+		 */
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Continue the walk until next variant is found or the walk ends.
+		 */
+		private void advance()
+		{
+			while (found == null && depth > 0)
+			{
+				if (budget != null && budget.expired())
+				{
+					depth = 0;
+					return;
+				}
+				
+				int top = depth - 1;
+				char[] labels = states[top].labels();
+				int i = nextLabel[top]++;
+				if (i >= labels.length)
+				{
+					// All continuations tried, step back.
+					depth--;
+					if (depth > 0) variant.setLength(depth - 1);
+					continue;
+				}
+				
+				long nextNode = nodes[top];
+				int nextOffTrie = offTrie[top];
+				if (prefixes != null)
+				{
+					nextOffTrie++;
+					if (offTrie[top] == 0)
+					{
+						nextNode = prefixes.next(nodes[top], variant.length(),
+							Character.toLowerCase(labels[i]));
+						if (nextNode != PrefixIndex.NONE) nextOffTrie = 0;
+						else nextNode = nodes[top];
+					}
+					if (nextOffTrie > suffixTolerance) continue;
+				}
+				
+				variant.append(labels[i]);
+				push(states[top].target(i), nextNode, nextOffTrie);
+			}
+		}
+
+		/**
+		 * Put the state reached after reading current variant on the stack.
+		 * Variant is found, if the state is accepting.
+		 */
+		private void push(VariantAutomaton.State state, long node, int off)
+		{
+			if (depth == states.length)
+			{
+				states = Arrays.copyOf(states, depth * 2);
+				nextLabel = Arrays.copyOf(nextLabel, depth * 2);
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				offTrie = Arrays.copyOf(offTrie, depth * 2);
+			}
+			states[depth] = state;
+			nextLabel[depth] = 0;
+			nodes[depth] = node;
+			offTrie[depth] = off;
+			depth++;
+			if (state.accepting)
+				found = new Tuple<String, Boolean>(
+					variant.toString(), !state.exactAccepting);
+		}
+	}
+
 }
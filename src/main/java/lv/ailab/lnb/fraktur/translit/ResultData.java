@@ -1,8 +1,11 @@
 package lv.ailab.lnb.fraktur.translit;
 
 import lv.ailab.lnb.fraktur.ngram.VariantComparator;
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
 import lv.ailab.lnb.fraktur.util.Tuple;
+import lv.ailab.lnb.fraktur.util.XMLUtils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -49,6 +52,22 @@ public class ResultData
 	 */
 	public HashSet<Variant> NO_DICT_FUZZY;
 	
+	/**
+	 * Whether processing was stopped early because of limits for one token,
+	 * so some variants may be missing.
+	 */
+	public boolean truncated;
+	
+	/**
+	 * Count of variants left unprocessed, because the best answer was found
+	 * before them (see <code>Transliterator.processWordBest()</code>). It is
+	 * counted against the candidates <code>processWord()</code> would
+	 * process, not all variants: those left after pruning by the prefix trie
+	 * (or all variants, if pruning leaves none), no more than the variant
+	 * limit. Zero, if no answer was found.
+	 */
+	public int skipped;
+	
 	/**
 	 * Constructor for empty data structure.
 	 */
@@ -60,6 +79,28 @@ public class ResultData
 		DICT_FUZZY_GUESS = new ResultDataWithDic();
 		NO_DICT_EXACT = new HashSet<Variant>();
 		NO_DICT_FUZZY = new HashSet<Variant>();
+		truncated = false;
+		skipped = 0;
+	}
+
+	/**
+	 * Copy of this data structure: result categories and lemma lists are new,
+	 * so the copy can be modified without affecting the original. Variants
+	 * and dictionary properties are shared, as they are not modified after
+	 * creation (variant estimates are deterministic).
+	 */
+	public ResultData copy()
+	{
+		ResultData res = new ResultData();
+		res.DICT_EXACT = DICT_EXACT.copy();
+		res.DICT_EXACT_GUESS = DICT_EXACT_GUESS.copy();
+		res.DICT_FUZZY = DICT_FUZZY.copy();
+		res.DICT_FUZZY_GUESS = DICT_FUZZY_GUESS.copy();
+		res.NO_DICT_EXACT.addAll(NO_DICT_EXACT);
+		res.NO_DICT_FUZZY.addAll(NO_DICT_FUZZY);
+		res.truncated = truncated;
+		res.skipped = skipped;
+		return res;
 	}
 
 	/**
@@ -92,7 +133,30 @@ public class ResultData
 	}
 	
 	/**
-	 * Convert to XML.
+	 * Calculate N-gram estimates for all variants not estimated yet. All
+	 * variants are evaluated together, so common prefixes are evaluated only
+	 * once.
+	 */
+	public void estimateAll(VariantEvaluator ev)
+	{
+		if (ev == null) return;
+		ArrayList<Variant> all = getAllVariants();
+		HashSet<String> todo = new HashSet<String>();
+		for (Variant v : all)
+		{
+			if (!v.isEstimated(ev)) todo.add(v.token);
+		}
+		if (todo.isEmpty()) return;
+		HashMap<String, Double> estimates = ev.evaluateAll(todo);
+		for (Variant v : all)
+		{
+			if (todo.contains(v.token)) v.setEstimate(ev, estimates.get(v.token));
+		}
+	}
+	
+	/**
+	 * Convert to XML (<code>transliterations</code> element, see
+	 * <code>dtd/results.dtd</code>).
 	 *
 	 * @param dictIdKey		key linking to dictionary ID.
 	 * @param entryUrlKey	key linking to URL of entry. Placeholder 
@@ -103,70 +167,145 @@ public class ResultData
 		String dictIdKey, String entryUrlKey, VariantComparator comp)
 	{
 		StringBuilder res = new StringBuilder();
-		res.append("<transliterations>\n");
+		try
+		{
+			writeXML(res, dictIdKey, entryUrlKey, "", comp);
+		} catch (IOException e)
+		{
+			// StringBuilder does not throw IOException.
+			throw new IllegalStateException(e);
+		}
+		return res.toString();
+	}
+	
+	/**
+	 * Write XML (<code>transliterations</code> element, see
+	 * <code>dtd/results.dtd</code>) directly to the given output.
+	 *
+	 * @param dictIdKey		key linking to dictionary ID.
+	 * @param entryUrlKey	key linking to URL of entry. Placeholder 
+	 *						<code>{word}</code> will be replaced with lemma.
+	 * @param indent		indentation string to be appended in front of
+	 *						each line, e.g. "\t" or "\t\t\t".
+	 * @param comp			comparator for ordering tokens.
+	 */
+	public void writeXML(Appendable out, String dictIdKey, String entryUrlKey,
+		String indent, VariantComparator comp)
+	throws IOException
+	{
+		if (comp != null) estimateAll(comp.evaluator);
+		String newInd1 = indent + "\t";
+		String newInd2 = indent + "\t\t";
+		out.append(indent).append("<transliterations");
+		if (truncated) out.append(" truncated=\"true\"");
+		if (skipped > 0)
+			out.append(" skipped=\"").append(String.valueOf(skipped))
+				.append('"');
+		out.append(">\n");
 		
 		// Process variants with dictionaries.
 		
-		res.append("\t<group opt_rules=\"no\" dict=\"yes\" guess=\"no\">\n");
-		res.append(DICT_EXACT.toXML(dictIdKey, entryUrlKey, "\t\t", comp));
-		res.append("\t</group>\n");		
+		out.append(newInd1)
+			.append("<group opt_rules=\"no\" dict=\"yes\" guess=\"no\">\n");
+		DICT_EXACT.writeXML(out, dictIdKey, entryUrlKey, newInd2, comp);
+		out.append(newInd1).append("</group>\n");
 
-		res.append("\t<group opt_rules=\"no\" dict=\"yes\" guess=\"yes\">\n");
-		res.append(DICT_EXACT_GUESS.toXML(dictIdKey, entryUrlKey, "\t\t", comp));
-		res.append("\t</group>\n");		
+		out.append(newInd1)
+			.append("<group opt_rules=\"no\" dict=\"yes\" guess=\"yes\">\n");
+		DICT_EXACT_GUESS.writeXML(out, dictIdKey, entryUrlKey, newInd2, comp);
+		out.append(newInd1).append("</group>\n");
 
-		res.append("\t<group opt_rules=\"yes\" dict=\"yes\" guess=\"no\">\n");
-		res.append(DICT_FUZZY.toXML(dictIdKey, entryUrlKey, "\t\t", comp));
-		res.append("\t</group>\n");		
+		out.append(newInd1)
+			.append("<group opt_rules=\"yes\" dict=\"yes\" guess=\"no\">\n");
+		DICT_FUZZY.writeXML(out, dictIdKey, entryUrlKey, newInd2, comp);
+		out.append(newInd1).append("</group>\n");
 
-		res.append("\t<group opt_rules=\"yes\" dict=\"yes\" guess=\"yes\">\n");
-		res.append(DICT_FUZZY_GUESS.toXML(dictIdKey, entryUrlKey, "\t\t", comp));
-		res.append("\t</group>\n");		
+		out.append(newInd1)
+			.append("<group opt_rules=\"yes\" dict=\"yes\" guess=\"yes\">\n");
+		DICT_FUZZY_GUESS.writeXML(out, dictIdKey, entryUrlKey, newInd2, comp);
+		out.append(newInd1).append("</group>\n");
 
 		// Process variants with no dictionaries.
 		
-		res.append("\t<group opt_rules=\"no\" dict=\"no\" guess=\"yes\">\n");
-		ArrayList<Variant> sorted = new ArrayList<Variant>(NO_DICT_EXACT);
+		out.append(newInd1)
+			.append("<group opt_rules=\"no\" dict=\"no\" guess=\"yes\">\n");
+		writeVariantsXML(out, NO_DICT_EXACT, newInd2, comp);
+		out.append(newInd1).append("</group>\n");
+
+		out.append(newInd1)
+			.append("<group opt_rules=\"yes\" dict=\"no\" guess=\"yes\">\n");
+		writeVariantsXML(out, NO_DICT_FUZZY, newInd2, comp);
+		out.append(newInd1).append("</group>\n");
+		
+		out.append(indent).append("</transliterations>\n");
+	}
+	
+	/**
+	 * Write XML document for one token (<code>normalization</code> element,
+	 * see <code>dtd/normalization.dtd</code>) directly to the given output.
+	 *
+	 * @param group			name of the transliteration rule group used, e.g.,
+	 *						"Fraktur_Double".
+	 * @param useFuzzy		whether fuzzy rules were used.
+	 * @param dictIdKey		key linking to dictionary ID.
+	 * @param entryUrlKey	key linking to URL of entry. Placeholder 
+	 *						<code>{word}</code> will be replaced with lemma.
+	 * @param comp			comparator for ordering tokens.
+	 */
+	public void writeNormalizationXML(Appendable out, String group,
+		boolean useFuzzy, String dictIdKey, String entryUrlKey,
+		VariantComparator comp)
+	throws IOException
+	{
+		out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.append("<normalization rule_set=\"");
+		XMLUtils.escape(out, ruleSetName(group));
+		out.append("\" apply_opt_rules=\"").append(String.valueOf(useFuzzy))
+			.append("\">\n");
+		writeXML(out, dictIdKey, entryUrlKey, "\t", comp);
+		out.append("</normalization>\n");
+	}
+	
+	/**
+	 * Write variants with no dictionary information as XML elements.
+	 */
+	private static void writeVariantsXML(Appendable out,
+		HashSet<Variant> variants, String indent, VariantComparator comp)
+	throws IOException
+	{
+		ArrayList<Variant> sorted = new ArrayList<Variant>(variants);
 		if (comp != null) Collections.sort(sorted, comp);
 		for (Variant v : sorted)
 		{
 			Double eval = null;
 			if (comp != null) eval = v.estimate(comp.evaluator);
+			out.append(indent).append("<variant wordform=\"");
+			XMLUtils.escape(out, v.token);
 			if (eval != null)
 			{
-				res.append("\t\t<variant wordform=\"").append(v.token)
-					.append("\">\n");
-				res.append("\t\t\t<estimate>").append(eval)
-					.append("</estimate>\n");
-				res.append("\t\t</variant>\n");
-			} else
-				res.append("\t\t<variant wordform=\"").append(v.token)
-					.append("\">\n");
+				out.append("\">\n");
+				out.append(indent).append("\t<estimate>")
+					.append(String.valueOf(eval)).append("</estimate>\n");
+				out.append(indent).append("</variant>\n");
+			} else out.append("\"/>\n");
 		}
-		res.append("\t</group>\n");		
-
-		sorted = new ArrayList<Variant>(NO_DICT_FUZZY);
-		if (comp != null) Collections.sort(sorted, comp);
-		res.append("\t<group opt_rules=\"yes\" dict=\"no\" guess=\"yes\">\n");
-		for (Variant v : sorted)
+	}
+	
+	/**
+	 * Rule set name used in <code>dtd/normalization.dtd</code> for the given
+	 * rule group name: first letter in lowercase, underscores removed, e.g.,
+	 * "Fraktur_Double" becomes "frakturDouble".
+	 */
+	static String ruleSetName(String group)
+	{
+		if (group == null || group.length() < 1) return group;
+		StringBuilder res = new StringBuilder();
+		res.append(Character.toLowerCase(group.charAt(0)));
+		for (int i = 1; i < group.length(); i++)
 		{
-			Double eval = null;
-			if (comp != null) eval = v.estimate(comp.evaluator);
-			if (eval != null)
-			{
-				res.append("\t\t<variant wordform=\"").append(v.token)
-					.append("\">\n");
-				res.append("\t\t\t<estimate>").append(eval)
-					.append("</estimate>\n");
-				res.append("\t\t</variant>\n");
-			} else
-				res.append("\t\t<variant wordform=\"").append(v.token)
-					.append("\">\n");
+			if (group.charAt(i) != '_') res.append(group.charAt(i));
 		}
-		res.append("\t</group>\n");		
-		
-		res.append("</transliterations>\n");
-		return res.toString();	
+		return res.toString();
 	}
 
 	/**
@@ -184,6 +323,8 @@ public class ResultData
 	 */
 	public String toString (Comparator<Variant> comp)
 	{
+		if (comp instanceof VariantComparator)
+			estimateAll(((VariantComparator) comp).evaluator);
 		StringBuilder res = new StringBuilder();
 		res.append("DICT_EXACT => ").append(DICT_EXACT.toString(comp));
 		res.append("\r\nDICT_EXACT_GUESS => ");
@@ -209,6 +350,8 @@ public class ResultData
 		}
 		
 		res.append("\r\n}");
+		if (truncated) res.append("\r\nTRUNCATED");
+		if (skipped > 0) res.append("\r\nSKIPPED ").append(skipped);
 		return res.toString();		
 	}
 	
@@ -232,6 +375,19 @@ public class ResultData
 			data = new HashMap<Variant, ArrayList<Tuple<String, Properties[]>>>();
 		}
 		
+		/**
+		 * Copy with new lemma lists, see <code>ResultData.copy()</code>.
+		 */
+		public ResultDataWithDic copy()
+		{
+			ResultDataWithDic res = new ResultDataWithDic();
+			for (Map.Entry<Variant, ArrayList<Tuple<String, Properties[]>>> e
+				: data.entrySet())
+				for (Tuple<String, Properties[]> lemma : e.getValue())
+					res.add(e.getKey(), lemma.first, lemma.second);
+			return res;
+		}
+
 		/**
 		 * Add new result.
 		 */
@@ -288,7 +444,31 @@ public class ResultData
 			VariantComparator comp)
 		{
 			StringBuilder res = new StringBuilder();
-			
+			try
+			{
+				writeXML(res, dictIdKey, entryUrlKey, indent, comp);
+			} catch (IOException e)
+			{
+				// StringBuilder does not throw IOException.
+				throw new IllegalStateException(e);
+			}
+			return res.toString();
+		}
+		
+		/**
+		 * Write list of XML elements directly to the given output.
+		 *
+		 * @param dictIdKey		key linking to dictionary ID.
+		 * @param entryUrlKey	key linking to URL of entry. Placeholder 
+		 *						<code>{word}</code> will be replaced with lemma.
+		 * @param indent		indentation string to be appended in front of
+		 *						each line, e.g. "\t" or "\t\t\t".
+		 * @param comp			comparator for ordering tokens.
+		 */
+		public void writeXML(Appendable out, String dictIdKey,
+			String entryUrlKey, String indent, VariantComparator comp)
+		throws IOException
+		{
 			String newInd1 = indent + "\t";
 			String newInd2 = indent + "\t\t";
 			String newInd3 = indent + "\t\t\t";
@@ -298,56 +478,44 @@ public class ResultData
 			if (comp != null) Collections.sort(sorted, comp);
 			for (Variant trans : sorted)
 			{
-				res.append(indent).append("<variant wordform=\"")
-					.append(trans.token).append("\">\n");
+				out.append(indent).append("<variant wordform=\"");
+				XMLUtils.escape(out, trans.token).append("\">\n");
 				
 				// Print N-gram estimate, if available.
 				Double eval = null;
 				if (comp != null) eval = trans.estimate(comp.evaluator);
 				if (eval != null)
-					res.append(newInd1).append("<estimate>").append(eval)
-						.append("</estimate>\n");
+					out.append(newInd1).append("<estimate>")
+						.append(String.valueOf(eval)).append("</estimate>\n");
 				
 				// Process each lemma.
 				for (Tuple <String, Properties[]> t : data.get(trans))
 				{
-					res.append(newInd1).append("<lemma word=\"")
-						.append(t.first).append("\">\n");
+					out.append(newInd1).append("<lemma form=\"");
+					XMLUtils.escape(out, t.first).append("\">\n");
 					
 					// Process each dictionary.
 					for (Properties p : t.second)
 					{
-						res.append(newInd2).append("<dict>\n");
+						out.append(newInd2).append("<dict>\n");
 						
-						res.append(newInd3).append("<desc attr=\"dictID\">")
-							.append(p.get(dictIdKey)).append("</desc>\n");
+						out.append(newInd3).append("<desc attr=\"dictID\">");
+						XMLUtils.escape(out, String.valueOf(p.get(dictIdKey)))
+							.append("</desc>\n");
 						if (p.containsKey(entryUrlKey))
-							res.append(newInd3)
-								.append("<desc attr=\"entryURL\">")
-								.append(p.get(entryUrlKey).toString()
+						{
+							out.append(newInd3).append("<desc attr=\"entryURL\">");
+							XMLUtils.escape(out, p.get(entryUrlKey).toString()
 									.replace("{word}", t.first))
 								.append("</desc>\n");
-						
-						/*for (Object k : p.keySet())
-						{
-							res.append(newInd3).append("<desc item=\"")
-								.append(k).append("\">").append(p.get(k));
-							
-							if ("entryURL".equalsIgnoreCase(k.toString()))
-								res.append(t.first);
-								
-							res.append("</desc>\n");
-								
-						}//*/
-						res.append(newInd2).append("</dict>\n");
+						}
+						out.append(newInd2).append("</dict>\n");
 					}
 					
-					res.append(newInd1).append("</lemma>\n");
+					out.append(newInd1).append("</lemma>\n");
 				}
-				res.append(indent).append("</variant>\n");				
+				out.append(indent).append("</variant>\n");
 			}
-			
-			return res.toString();
 		}
 		
 		/**
@@ -0,0 +1,330 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Compact binary encoding of <code>ResultData</code>, for caching results and
+ * passing them between processes without XML.
+ *
+ * Each record is self-contained and prefixed with its length, so records can
+ * be stored one after another and skipped without decoding. Dictionaries are
+ * encoded by their IDs: each record starts with the table of dictionary IDs it
+ * uses, and lemmas refer to dictionaries by index in this table. When decoded,
+ * IDs are mapped back to the dictionary descriptions given in constructor.
+ *
+ * Record format (numbers are unsigned variable-length integers, 7 bits per
+ * byte, strings are in modified UTF-8 as written by
+ * <code>DataOutput.writeUTF()</code>):
+ *	byte	flags: 1, if result is truncated, plus 2, if some variants were
+ *			skipped;
+ *	number	count of skipped variants, only if flag 2 is set;
+ *	number	count of dictionary IDs, followed by IDs;
+ *	4 times, for DICT_EXACT, DICT_EXACT_GUESS, DICT_FUZZY, DICT_FUZZY_GUESS:
+ *		number	count of variants, for each variant:
+ *			variant (see below);
+ *			number	count of lemmas, for each lemma:
+ *				string	lemma;
+ *				number	count of dictionaries, followed by indices in ID table;
+ *	2 times, for NO_DICT_EXACT, NO_DICT_FUZZY:
+ *		number	count of variants, followed by variants.
+ * Variant is a string followed by a byte 1 and a double, if its N-gram
+ * estimate is known, or byte 0, if not.
+ *
+ * Instances are not modified after construction, so can be used from several
+ * threads at once.
+ */
+public class ResultDataCodec
+{
+	/**
+	 * Key in dictionary descriptions that contains the dictionary ID.
+	 */
+	public final String dictIdKey;
+	/**
+	 * Evaluator decoded estimates are attributed to, may be <code>null</code>.
+	 */
+	public final VariantEvaluator evaluator;
+	/**
+	 * Known dictionary descriptions by ID.
+	 */
+	private final HashMap<String, Properties> dictionaries;
+	
+	/**
+	 * Constructor.
+	 *
+	 * @param dictIdKey		key in dictionary descriptions that contains the
+	 *						dictionary ID.
+	 * @param dictionaries	all dictionary descriptions that can be referred to,
+	 *						e.g., <code>WordList.allDictionaries()</code>. IDs
+	 *						not found here are decoded as descriptions
+	 *						containing only the ID.
+	 * @param evaluator		evaluator used for estimates in encoded results,
+	 *						decoded estimates are remembered as calculated by
+	 *						this evaluator; may be <code>null</code>.
+	 */
+	public ResultDataCodec(String dictIdKey, Collection<Properties> dictionaries,
+		VariantEvaluator evaluator)
+	{
+		this.dictIdKey = dictIdKey;
+		this.evaluator = evaluator;
+		this.dictionaries = new HashMap<String, Properties>();
+		for (Properties p : dictionaries)
+			this.dictionaries.put(String.valueOf(p.get(dictIdKey)), p);
+	}
+	
+	/**
+	 * Encode one result as length-prefixed record.
+	 */
+	public byte[] encode(ResultData data)
+	{
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		try
+		{
+			write(new DataOutputStream(res), data);
+		} catch (IOException e)
+		{
+			// ByteArrayOutputStream does not throw IOException.
+			throw new IllegalStateException(e);
+		}
+		return res.toByteArray();
+	}
+	
+	/**
+	 * Decode one result from the record made by <code>encode()</code>.
+	 */
+	public ResultData decode(byte[] record)
+	{
+		try
+		{
+			return read(new DataInputStream(new ByteArrayInputStream(record)));
+		} catch (IOException e)
+		{
+			throw new IllegalArgumentException("Invalid result record.", e);
+		}
+	}
+	
+	/**
+	 * Write one result as length-prefixed record.
+	 */
+	public void write(DataOutput out, ResultData data)
+	throws IOException
+	{
+		// Collect dictionary IDs.
+		HashMap<String, Integer> dictIndex = new HashMap<String, Integer>();
+		ArrayList<String> dictIds = new ArrayList<String>();
+		for (ResultData.ResultDataWithDic category : dictCategories(data))
+		{
+			for (ArrayList<Tuple<String, Properties[]>> lemmas
+				: category.data.values())
+			{
+				for (Tuple<String, Properties[]> lemma : lemmas)
+				{
+					for (Properties p : lemma.second)
+					{
+						String id = String.valueOf(p.get(dictIdKey));
+						if (!dictIndex.containsKey(id))
+						{
+							dictIndex.put(id, dictIds.size());
+							dictIds.add(id);
+						}
+					}
+				}
+			}
+		}
+		
+		// Make the record.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(bytes);
+		record.writeByte((data.truncated ? 1 : 0) | (data.skipped > 0 ? 2 : 0));
+		if (data.skipped > 0) writeNumber(record, data.skipped);
+		writeNumber(record, dictIds.size());
+		for (String id : dictIds) record.writeUTF(id);
+		for (ResultData.ResultDataWithDic category : dictCategories(data))
+		{
+			writeNumber(record, category.data.size());
+			for (Map.Entry<Variant, ArrayList<Tuple<String, Properties[]>>> e
+				: category.data.entrySet())
+			{
+				writeVariant(record, e.getKey());
+				writeNumber(record, e.getValue().size());
+				for (Tuple<String, Properties[]> lemma : e.getValue())
+				{
+					record.writeUTF(lemma.first);
+					writeNumber(record, lemma.second.length);
+					for (Properties p : lemma.second)
+						writeNumber(record,
+							dictIndex.get(String.valueOf(p.get(dictIdKey))));
+				}
+			}
+		}
+		for (HashSet<Variant> category : noDictCategories(data))
+		{
+			writeNumber(record, category.size());
+			for (Variant v : category) writeVariant(record, v);
+		}
+		record.flush();
+		
+		writeNumber(out, bytes.size());
+		out.write(bytes.toByteArray());
+	}
+	
+	/**
+	 * Read one result written by <code>write()</code>. Returns
+	 * <code>null</code>, if there are no more records.
+	 */
+	public ResultData read(DataInput in)
+	throws IOException
+	{
+		int length;
+		try
+		{
+			length = readNumber(in);
+		} catch (EOFException e)
+		{
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		DataInputStream record =
+			new DataInputStream(new ByteArrayInputStream(bytes));
+		byte flags = record.readByte();
+		boolean truncated = (flags & 1) != 0;
+		int skipped = (flags & 2) != 0 ? readNumber(record) : 0;
+		
+		Properties[] dicts = new Properties[readNumber(record)];
+		for (int i = 0; i < dicts.length; i++)
+		{
+			String id = record.readUTF();
+			dicts[i] = dictionaries.get(id);
+			if (dicts[i] == null)
+			{
+				dicts[i] = new Properties();
+				dicts[i].setProperty(dictIdKey, id);
+			}
+		}
+		
+		// The same variant object is used in all categories.
+		HashMap<String, Variant> variants = new HashMap<String, Variant>();
+		ResultData res = new ResultData();
+		for (ResultData.ResultDataWithDic category : dictCategories(res))
+		{
+			int variantCount = readNumber(record);
+			for (int i = 0; i < variantCount; i++)
+			{
+				Variant v = readVariant(record, variants);
+				int lemmaCount = readNumber(record);
+				for (int j = 0; j < lemmaCount; j++)
+				{
+					String lemma = record.readUTF();
+					Properties[] found = new Properties[readNumber(record)];
+					for (int k = 0; k < found.length; k++)
+						found[k] = dicts[readNumber(record)];
+					category.add(v, lemma, found);
+				}
+			}
+		}
+		for (HashSet<Variant> category : noDictCategories(res))
+		{
+			int variantCount = readNumber(record);
+			for (int i = 0; i < variantCount; i++)
+				category.add(readVariant(record, variants));
+		}
+		res.truncated = truncated;
+		res.skipped = skipped;
+		return res;
+	}
+	
+	/**
+	 * Write variant token and estimate, if known.
+	 */
+	private static void writeVariant(DataOutput out, Variant v)
+	throws IOException
+	{
+		out.writeUTF(v.token);
+		Double estimate = v.knownEstimate();
+		if (estimate == null) out.writeByte(0);
+		else
+		{
+			out.writeByte(1);
+			out.writeDouble(estimate);
+		}
+	}
+	
+	/**
+	 * Read variant written by <code>writeVariant()</code>. Variants already
+	 * read for the same result are reused.
+	 */
+	private Variant readVariant(DataInput in, HashMap<String, Variant> known)
+	throws IOException
+	{
+		String token = in.readUTF();
+		boolean hasEstimate = in.readByte() != 0;
+		double estimate = hasEstimate ? in.readDouble() : 0;
+		Variant res = known.get(token);
+		if (res == null)
+		{
+			res = new Variant(token, evaluator);
+			if (hasEstimate && evaluator != null)
+				res.setEstimate(evaluator, estimate);
+			known.put(token, res);
+		}
+		return res;
+	}
+	
+	/**
+	 * Write unsigned variable-length integer.
+	 */
+	private static void writeNumber(DataOutput out, int value)
+	throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+	
+	/**
+	 * Read unsigned variable-length integer.
+	 */
+	private static int readNumber(DataInput in)
+	throws IOException
+	{
+		int res = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			byte b = in.readByte();
+			res |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return res;
+		}
+		throw new IOException("Malformed number in result record.");
+	}
+	
+	/**
+	 * Result categories with dictionary information, in order of trust.
+	 */
+	static ResultData.ResultDataWithDic[] dictCategories(ResultData data)
+	{
+		return new ResultData.ResultDataWithDic[] {data.DICT_EXACT,
+			data.DICT_EXACT_GUESS, data.DICT_FUZZY, data.DICT_FUZZY_GUESS};
+	}
+	
+	/**
+	 * Result categories without dictionary information, in order of trust.
+	 */
+	static List<HashSet<Variant>> noDictCategories(ResultData data)
+	{
+		return Arrays.asList(data.NO_DICT_EXACT, data.NO_DICT_FUZZY);
+	}
+}
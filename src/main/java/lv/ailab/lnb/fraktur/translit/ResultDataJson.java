@@ -0,0 +1,513 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * JSON-lines encoding of <code>ResultData</code>: one JSON object per line,
+ * e.g.,
+ * <pre>
+ * {"token":"ſchis","dictExact":[{"variant":"šis","estimate":-4.1,
+ *  "lemmas":[{"lemma":"šis","dicts":["LLVV"]}]}],"dictExactGuess":[],
+ *  "dictFuzzy":[],"dictFuzzyGuess":[],"noDictExact":[],"noDictFuzzy":[]}
+ * </pre>
+ * (written in one line). Dictionaries are given by their IDs, "estimate" is
+ * omitted, if it has not been calculated, "token" is omitted, if not given.
+ * <code>"truncated":true</code> is added at the end for truncated results,
+ * <code>"skipped":</code> and count of skipped variants, if there are such.
+ * Categories are in order of trust, variants in each category are unordered.
+ *
+ * Instances are not modified after construction, so can be used from several
+ * threads at once.
+ */
+public class ResultDataJson
+{
+	/**
+	 * Names of categories with dictionary information, in the same order as
+	 * <code>ResultDataCodec.dictCategories()</code>.
+	 */
+	private static final String[] DICT_NAMES = {
+		"dictExact", "dictExactGuess", "dictFuzzy", "dictFuzzyGuess"};
+	/**
+	 * Names of categories without dictionary information, in the same order as
+	 * <code>ResultDataCodec.noDictCategories()</code>.
+	 */
+	private static final String[] NO_DICT_NAMES = {
+		"noDictExact", "noDictFuzzy"};
+	
+	/**
+	 * Key in dictionary descriptions that contains the dictionary ID.
+	 */
+	public final String dictIdKey;
+	/**
+	 * Evaluator read estimates are attributed to, may be <code>null</code>.
+	 */
+	public final VariantEvaluator evaluator;
+	/**
+	 * Known dictionary descriptions by ID.
+	 */
+	private final HashMap<String, Properties> dictionaries;
+	
+	/**
+	 * Constructor.
+	 *
+	 * @param dictIdKey		key in dictionary descriptions that contains the
+	 *						dictionary ID.
+	 * @param dictionaries	all dictionary descriptions that can be referred to,
+	 *						e.g., <code>WordList.allDictionaries()</code>. IDs
+	 *						not found here are read as descriptions containing
+	 *						only the ID.
+	 * @param evaluator		evaluator used for estimates in written results,
+	 *						read estimates are remembered as calculated by this
+	 *						evaluator; may be <code>null</code>.
+	 */
+	public ResultDataJson(String dictIdKey, Collection<Properties> dictionaries,
+		VariantEvaluator evaluator)
+	{
+		this.dictIdKey = dictIdKey;
+		this.evaluator = evaluator;
+		this.dictionaries = new HashMap<String, Properties>();
+		for (Properties p : dictionaries)
+			this.dictionaries.put(String.valueOf(p.get(dictIdKey)), p);
+	}
+	
+	/**
+	 * Write one result as a line of JSON, including the line break.
+	 *
+	 * @param token	original token, may be <code>null</code>.
+	 */
+	public void write(Appendable out, String token, ResultData data)
+	throws IOException
+	{
+		out.append('{');
+		if (token != null)
+		{
+			out.append("\"token\":");
+			writeString(out, token);
+			out.append(',');
+		}
+		ResultData.ResultDataWithDic[] dictCategories =
+			ResultDataCodec.dictCategories(data);
+		for (int i = 0; i < dictCategories.length; i++)
+		{
+			out.append('"').append(DICT_NAMES[i]).append("\":[");
+			boolean first = true;
+			for (Map.Entry<Variant, ArrayList<Tuple<String, Properties[]>>> e
+				: dictCategories[i].data.entrySet())
+			{
+				if (!first) out.append(',');
+				first = false;
+				writeVariant(out, e.getKey());
+				out.append(",\"lemmas\":[");
+				for (int j = 0; j < e.getValue().size(); j++)
+				{
+					Tuple<String, Properties[]> lemma = e.getValue().get(j);
+					if (j > 0) out.append(',');
+					out.append("{\"lemma\":");
+					writeString(out, lemma.first);
+					out.append(",\"dicts\":[");
+					for (int k = 0; k < lemma.second.length; k++)
+					{
+						if (k > 0) out.append(',');
+						writeString(out,
+							String.valueOf(lemma.second[k].get(dictIdKey)));
+					}
+					out.append("]}");
+				}
+				out.append("]}");
+			}
+			out.append("],");
+		}
+		List<HashSet<Variant>> noDictCategories =
+			ResultDataCodec.noDictCategories(data);
+		for (int i = 0; i < noDictCategories.size(); i++)
+		{
+			if (i > 0) out.append(',');
+			out.append('"').append(NO_DICT_NAMES[i]).append("\":[");
+			boolean first = true;
+			for (Variant v : noDictCategories.get(i))
+			{
+				if (!first) out.append(',');
+				first = false;
+				writeVariant(out, v);
+				out.append('}');
+			}
+			out.append(']');
+		}
+		if (data.truncated) out.append(",\"truncated\":true");
+		if (data.skipped > 0)
+			out.append(",\"skipped\":").append(String.valueOf(data.skipped));
+		out.append("}\n");
+	}
+	
+	/**
+	 * Write one result as a line of JSON, without the line break.
+	 *
+	 * @param token	original token, may be <code>null</code>.
+	 */
+	public String toJson(String token, ResultData data)
+	{
+		StringBuilder res = new StringBuilder();
+		try
+		{
+			write(res, token, data);
+		} catch (IOException e)
+		{
+			// StringBuilder does not throw IOException.
+			throw new IllegalStateException(e);
+		}
+		res.setLength(res.length() - 1);
+		return res.toString();
+	}
+	
+	/**
+	 * Read one line written by <code>write()</code>.
+	 *
+	 * @return	original token (<code>null</code>, if not given) and result.
+	 */
+	public Tuple<String, ResultData> read(String line)
+	{
+		Object parsed = new Parser(line).parseDocument();
+		if (!(parsed instanceof HashMap))
+			throw new IllegalArgumentException(
+				"Result line must contain JSON object.");
+		HashMap<?, ?> object = (HashMap<?, ?>) parsed;
+		
+		// The same variant object is used in all categories.
+		HashMap<String, Variant> variants = new HashMap<String, Variant>();
+		ResultData res = new ResultData();
+		ResultData.ResultDataWithDic[] dictCategories =
+			ResultDataCodec.dictCategories(res);
+		for (int i = 0; i < dictCategories.length; i++)
+		{
+			for (Object o : array(object, DICT_NAMES[i]))
+			{
+				HashMap<?, ?> variantObj = object(o);
+				Variant v = readVariant(variantObj, variants);
+				for (Object l : array(variantObj, "lemmas"))
+				{
+					HashMap<?, ?> lemmaObj = object(l);
+					ArrayList<?> ids = array(lemmaObj, "dicts");
+					Properties[] found = new Properties[ids.size()];
+					for (int k = 0; k < found.length; k++)
+						found[k] = dictionary(string(ids.get(k)));
+					dictCategories[i].add(
+						v, string(lemmaObj.get("lemma")), found);
+				}
+			}
+		}
+		List<HashSet<Variant>> noDictCategories =
+			ResultDataCodec.noDictCategories(res);
+		for (int i = 0; i < noDictCategories.size(); i++)
+		{
+			for (Object o : array(object, NO_DICT_NAMES[i]))
+				noDictCategories.get(i).add(readVariant(object(o), variants));
+		}
+		res.truncated = Boolean.TRUE.equals(object.get("truncated"));
+		Object skipped = object.get("skipped");
+		if (skipped != null)
+		{
+			if (!(skipped instanceof Double))
+				throw new IllegalArgumentException(
+					"Skipped variant count must be a number.");
+			res.skipped = ((Double) skipped).intValue();
+		}
+		Object token = object.get("token");
+		return new Tuple<String, ResultData>(
+			token == null ? null : string(token), res);
+	}
+	
+	//=== Supporting functions. ================================================
+	
+	/**
+	 * Write opening brace, variant token and estimate, if known. Closing brace
+	 * is not written.
+	 */
+	private static void writeVariant(Appendable out, Variant v)
+	throws IOException
+	{
+		out.append("{\"variant\":");
+		writeString(out, v.token);
+		Double estimate = v.knownEstimate();
+		// JSON has no infinities.
+		if (estimate != null && !estimate.isInfinite() && !estimate.isNaN())
+			out.append(",\"estimate\":").append(estimate.toString());
+	}
+	
+	/**
+	 * Write JSON string literal.
+	 */
+	private static void writeString(Appendable out, String text)
+	throws IOException
+	{
+		out.append('"');
+		int start = 0;
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') continue;
+			out.append(text, start, i);
+			switch (c)
+			{
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default: out.append(String.format("\\u%04x", (int) c));
+			}
+			start = i + 1;
+		}
+		out.append(text, start, text.length()).append('"');
+	}
+	
+	/**
+	 * Make variant from parsed JSON object. Variants already read for the same
+	 * result are reused.
+	 */
+	private Variant readVariant(
+		HashMap<?, ?> object, HashMap<String, Variant> known)
+	{
+		String token = string(object.get("variant"));
+		Variant res = known.get(token);
+		if (res == null)
+		{
+			res = new Variant(token, evaluator);
+			Object estimate = object.get("estimate");
+			if (estimate != null && evaluator != null)
+			{
+				if (!(estimate instanceof Double))
+					throw new IllegalArgumentException(
+						"Estimate must be a number.");
+				res.setEstimate(evaluator, (Double) estimate);
+			}
+			known.put(token, res);
+		}
+		return res;
+	}
+	
+	/**
+	 * Dictionary description for the given ID.
+	 */
+	private Properties dictionary(String id)
+	{
+		Properties res = dictionaries.get(id);
+		if (res == null)
+		{
+			res = new Properties();
+			res.setProperty(dictIdKey, id);
+		}
+		return res;
+	}
+	
+	/**
+	 * Array value of the given key, empty, if there is no such key.
+	 */
+	private static ArrayList<?> array(HashMap<?, ?> object, String key)
+	{
+		Object res = object.get(key);
+		if (res == null) return new ArrayList<Object>();
+		if (!(res instanceof ArrayList))
+			throw new IllegalArgumentException(
+				"\"" + key + "\" must be an array.");
+		return (ArrayList<?>) res;
+	}
+	
+	/**
+	 * Check that parsed value is JSON object.
+	 */
+	private static HashMap<?, ?> object(Object o)
+	{
+		if (!(o instanceof HashMap))
+			throw new IllegalArgumentException("JSON object expected.");
+		return (HashMap<?, ?>) o;
+	}
+	
+	/**
+	 * Check that parsed value is string.
+	 */
+	private static String string(Object o)
+	{
+		if (!(o instanceof String))
+			throw new IllegalArgumentException("JSON string expected.");
+		return (String) o;
+	}
+	
+	/**
+	 * Minimal JSON parser. Objects are parsed as <code>HashMap</code>, arrays
+	 * as <code>ArrayList</code>, numbers as <code>Double</code>.
+	 */
+	private static class Parser
+	{
+		private final String text;
+		private int pos;
+		
+		Parser(String text)
+		{
+			this.text = text;
+			pos = 0;
+		}
+		
+		/**
+		 * Parse the whole text as one value.
+		 */
+		Object parseDocument()
+		{
+			Object res = parseValue();
+			skipSpace();
+			if (pos < text.length()) throw error("end of line");
+			return res;
+		}
+		
+		private Object parseValue()
+		{
+			skipSpace();
+			if (pos >= text.length()) throw error("value");
+			char c = text.charAt(pos);
+			if (c == '{') return parseObject();
+			if (c == '[') return parseArray();
+			if (c == '"') return parseString();
+			if (text.startsWith("null", pos))
+			{
+				pos += 4;
+				return null;
+			}
+			if (text.startsWith("true", pos))
+			{
+				pos += 4;
+				return Boolean.TRUE;
+			}
+			if (text.startsWith("false", pos))
+			{
+				pos += 5;
+				return Boolean.FALSE;
+			}
+			return parseNumber();
+		}
+		
+		private HashMap<String, Object> parseObject()
+		{
+			HashMap<String, Object> res = new HashMap<String, Object>();
+			pos++;
+			skipSpace();
+			if (consume('}')) return res;
+			do
+			{
+				skipSpace();
+				if (pos >= text.length() || text.charAt(pos) != '"')
+					throw error("key");
+				String key = parseString();
+				skipSpace();
+				if (!consume(':')) throw error("':'");
+				res.put(key, parseValue());
+				skipSpace();
+			} while (consume(','));
+			if (!consume('}')) throw error("'}'");
+			return res;
+		}
+		
+		private ArrayList<Object> parseArray()
+		{
+			ArrayList<Object> res = new ArrayList<Object>();
+			pos++;
+			skipSpace();
+			if (consume(']')) return res;
+			do
+			{
+				res.add(parseValue());
+				skipSpace();
+			} while (consume(','));
+			if (!consume(']')) throw error("']'");
+			return res;
+		}
+		
+		private String parseString()
+		{
+			StringBuilder res = new StringBuilder();
+			pos++;
+			while (pos < text.length())
+			{
+				char c = text.charAt(pos++);
+				if (c == '"') return res.toString();
+				if (c != '\\')
+				{
+					res.append(c);
+					continue;
+				}
+				if (pos >= text.length()) break;
+				c = text.charAt(pos++);
+				switch (c)
+				{
+					case '"': case '\\': case '/': res.append(c); break;
+					case 'b': res.append('\b'); break;
+					case 'f': res.append('\f'); break;
+					case 'n': res.append('\n'); break;
+					case 'r': res.append('\r'); break;
+					case 't': res.append('\t'); break;
+					case 'u':
+						if (pos + 4 > text.length()) throw error("hex digits");
+						try
+						{
+							res.append((char) Integer.parseInt(
+								text.substring(pos, pos + 4), 16));
+						} catch (NumberFormatException e)
+						{
+							throw error("hex digits");
+						}
+						pos += 4;
+						break;
+					default: throw error("escape sequence");
+				}
+			}
+			throw error("'\"'");
+		}
+		
+		private Double parseNumber()
+		{
+			int start = pos;
+			while (pos < text.length()
+				&& "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+				pos++;
+			try
+			{
+				return Double.valueOf(text.substring(start, pos));
+			} catch (NumberFormatException e)
+			{
+				pos = start;
+				throw error("value");
+			}
+		}
+		
+		private boolean consume(char c)
+		{
+			if (pos < text.length() && text.charAt(pos) == c)
+			{
+				pos++;
+				return true;
+			}
+			return false;
+		}
+		
+		private void skipSpace()
+		{
+			while (pos < text.length()
+				&& Character.isWhitespace(text.charAt(pos)))
+				pos++;
+		}
+		
+		private IllegalArgumentException error(String expected)
+		{
+			return new IllegalArgumentException("Invalid JSON: " + expected
+				+ " expected at position " + pos + ".");
+		}
+	}
+}
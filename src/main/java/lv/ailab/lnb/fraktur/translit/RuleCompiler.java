@@ -0,0 +1,51 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import java.io.File;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+/**
+ * Offline tool for compiling XML transliteration rules to binary rule file
+ * that <code>Rules</code> memory-maps instead of parsing. Rule file is
+ * validated against XML schema before compiling. Binary rule file can be used
+ * in path configuration instead of XML file.
+ *
+ * Usage: RuleCompiler ruleFile binaryFile [schemaFile]
+ * Default schema file is dtd/rules.xsd.
+ */
+public class RuleCompiler
+{
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length != 2 && args.length != 3)
+		{
+			System.out.println(
+				"Usage: RuleCompiler ruleFile binaryFile [schemaFile]");
+			return;
+		}
+		File ruleFile = new File(args[0]);
+		File binaryFile = new File(args[1]);
+		File schemaFile = new File(args.length == 3 ? args[2] : "dtd/rules.xsd");
+
+		SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+			.newSchema(schemaFile).newValidator()
+			.validate(new StreamSource(ruleFile));
+		System.out.println("\"" + args[0] + "\" is valid against \""
+			+ schemaFile.getPath() + "\".");
+
+		long start = System.currentTimeMillis();
+		Rules rules = new Rules(ruleFile);
+		System.out.println("XML rules loaded in "
+			+ (System.currentTimeMillis() - start) + " ms.");
+
+		rules.write(binaryFile);
+		start = System.currentTimeMillis();
+		new Rules(binaryFile);
+		System.out.println("Binary rules written to \"" + args[1] + "\" ("
+			+ binaryFile.length() + " bytes), loaded in "
+			+ (System.currentTimeMillis() - start) + " ms.");
+	}
+}
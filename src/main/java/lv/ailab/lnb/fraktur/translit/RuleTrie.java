@@ -0,0 +1,550 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.util.HashMultiMap;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Character trie compiled from transliteration rule targets. Targets are
+ * inserted reversed, so all rules applicable to the token fragments ending at
+ * some position can be found by walking the trie backwards from that
+ * position, one character per step, without creating substrings.
+ *
+ * Trie is stored in flat tables, so it can be written to binary rule file and
+ * used directly from the memory-mapped file. Nodes are numbered breadth
+ * first, root is node 0 and edge number e leads to node e + 1. Replacements
+ * (string and position pairs) are numbered separately; nodes refer to them by
+ * these numbers.
+ *
+ * Ambiguous rules of each node are grouped by position class (ordinal of
+ * <code>Rules.Pos</code>), so rules that can't be applied at the given
+ * position are not looked at. Each node also knows which position classes
+ * occur in its own rules and in its subtree, so nodes without applicable
+ * rules are passed by and the walk can be stopped early. Replacements are
+ * kept also capitalized for each token case class (see <code>TokenCase</code>),
+ * so capitalizing them like the matched fragment creates no strings.
+ *
+ * Binary format (big-endian, starts at position that is multiple of 4):
+ *	int		count of nodes;
+ *	int		count of ambiguous rule references;
+ *	int		count of replacements, followed by position (byte), length
+ *			(int) and characters of each replacement;
+ *			padding to multiple of 4 bytes;
+ *	int[]	first outgoing edge for each node, plus edge count at the end;
+ *	int[]	unambiguous replacement for each node, -1 if none;
+ *	int[]	first ambiguous rule reference for each node and position class,
+ *			plus reference count at the end;
+ *	int[]	ambiguous rule references (replacement numbers);
+ *	char[]	edge labels, ascending within each node;
+ *	byte[]	position class masks for each node: rules of the node in lower 4
+ *			bits, rules in the subtree of the node in upper 4 bits;
+ *			padding to multiple of 4 bytes.
+ */
+class RuleTrie
+{
+	/**
+	 * Root node, corresponds to the empty target.
+	 */
+	static final int ROOT = 0;
+	/**
+	 * Returned by <code>next()</code> and <code>exact()</code>, if there is no
+	 * such edge or rule.
+	 */
+	static final int NONE = -1;
+	/**
+	 * Count of position classes.
+	 */
+	static final int CLASSES = Rules.Pos.values().length;
+
+	/**
+	 * Replacement strings.
+	 */
+	private final String[] replacements;
+	/**
+	 * Replacement strings for each token case class, capitalized
+	 * accordingly.
+	 */
+	private final String[][] replacementsByCase;
+	/**
+	 * Positions where replacements can be applied, parallel to
+	 * <code>replacements</code>.
+	 */
+	private final Rules.Pos[] positions;
+	/**
+	 * First outgoing edge for each node, followed by total edge count.
+	 */
+	private final IntBuffer firstEdge;
+	/**
+	 * Unambiguous replacement for each node or <code>NONE</code>.
+	 */
+	private final IntBuffer exact;
+	/**
+	 * First ambiguous rule reference for each node and position class,
+	 * followed by total count of references.
+	 */
+	private final IntBuffer fuzzyStart;
+	/**
+	 * Ambiguous rule references, grouped by node.
+	 */
+	private final IntBuffer fuzzy;
+	/**
+	 * Edge labels, grouped by node and sorted within each group.
+	 */
+	private final CharBuffer labels;
+	/**
+	 * Position class masks for each node: rules of the node in lower 4 bits,
+	 * rules in the subtree of the node in upper 4 bits.
+	 */
+	private final ByteBuffer masks;
+
+	/**
+	 * Constructor from prepared tables.
+	 */
+	private RuleTrie(String[] replacements, Rules.Pos[] positions,
+		IntBuffer firstEdge, IntBuffer exact, IntBuffer fuzzyStart,
+		IntBuffer fuzzy, CharBuffer labels, ByteBuffer masks)
+	{
+		this.replacements = replacements;
+		String[] allCaps = new String[replacements.length];
+		String[] firstCap = new String[replacements.length];
+		for (int i = 0; i < replacements.length; i++)
+		{
+			String r = replacements[i];
+			allCaps[i] = r.toUpperCase();
+			firstCap[i] = r.length() < 1 ? r
+				: r.substring(0, 1).toUpperCase() + r.substring(1).toLowerCase();
+		}
+		replacementsByCase = new String[TokenCase.CLASSES][];
+		replacementsByCase[TokenCase.LOWER] = replacements;
+		replacementsByCase[TokenCase.ALL_CAPS] = allCaps;
+		replacementsByCase[TokenCase.FIRST_CAP] = firstCap;
+		replacementsByCase[TokenCase.MIXED] = replacements;
+		this.positions = positions;
+		this.firstEdge = firstEdge;
+		this.exact = exact;
+		this.fuzzyStart = fuzzyStart;
+		this.fuzzy = fuzzy;
+		this.labels = labels;
+		this.masks = masks;
+	}
+
+	/**
+	 * Follow the edge labeled with given character. Returns <code>NONE</code>
+	 * if there is no such edge.
+	 */
+	int next(int node, char c)
+	{
+		int low = firstEdge.get(node);
+		int high = firstEdge.get(node + 1) - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			char label = labels.get(mid);
+			if (label < c) low = mid + 1;
+			else if (label > c) high = mid - 1;
+			else return mid + 1;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Unambiguous replacement whose target ends in this node or
+	 * <code>NONE</code>.
+	 */
+	int exact(int node)
+	{
+		return exact.get(node);
+	}
+
+	/**
+	 * First ambiguous rule reference of the given node and position class.
+	 */
+	int fuzzyStart(int node, int posClass)
+	{
+		return fuzzyStart.get(node * CLASSES + posClass);
+	}
+
+	/**
+	 * End of ambiguous rule references of the given node and position class.
+	 */
+	int fuzzyEnd(int node, int posClass)
+	{
+		return fuzzyStart.get(node * CLASSES + posClass + 1);
+	}
+
+	/**
+	 * Position class mask of rules whose targets end in this node.
+	 */
+	int rules(int node)
+	{
+		return masks.get(node) & 0xF;
+	}
+
+	/**
+	 * Position class mask of rules whose targets end in this node or its
+	 * descendants.
+	 */
+	int reach(int node)
+	{
+		return (masks.get(node) >> 4) & 0xF;
+	}
+
+	/**
+	 * Replacement number for the given ambiguous rule reference.
+	 */
+	int fuzzy(int ref)
+	{
+		return fuzzy.get(ref);
+	}
+
+	/**
+	 * Replacement string.
+	 */
+	String replacement(int repl)
+	{
+		return replacements[repl];
+	}
+
+	/**
+	 * Replacement string capitalized for the token fragment of the given case
+	 * class: ALL CAPS and First cap are preserved, others are left as is.
+	 */
+	String replacement(int repl, int fragmentCase)
+	{
+		return replacementsByCase[fragmentCase][repl];
+	}
+
+	/**
+	 * Position where the replacement can be applied.
+	 */
+	Rules.Pos position(int repl)
+	{
+		return positions[repl];
+	}
+
+	/**
+	 * Count of nodes in the trie.
+	 */
+	int size()
+	{
+		return exact.limit();
+	}
+
+	/**
+	 * Put all rules of this trie in maps from target to replacements:
+	 * unambiguous rules in <code>exactRules</code>, ambiguous rules in
+	 * <code>fuzzyRules</code>. Ambiguous replacements of each target are
+	 * grouped by position.
+	 */
+	void collect(HashMap<String, Tuple<String, Rules.Pos>> exactRules,
+		HashMultiMap<String, Tuple<String, Rules.Pos>> fuzzyRules)
+	{
+		// Targets are inserted reversed, so child target is edge label
+		// followed by parent target. Parents are numbered before children.
+		int nodes = size();
+		String[] targets = new String[nodes];
+		targets[ROOT] = "";
+		for (int i = 0; i < nodes; i++)
+		{
+			for (int e = firstEdge.get(i); e < firstEdge.get(i + 1); e++)
+				targets[e + 1] = labels.get(e) + targets[i];
+			int repl = exact(i);
+			if (repl != NONE)
+				exactRules.put(targets[i], new Tuple<String, Rules.Pos>(
+					replacements[repl], positions[repl]));
+			for (int ref = fuzzyStart(i, 0); ref < fuzzyEnd(i, CLASSES - 1);
+					ref++)
+				fuzzyRules.putOne(targets[i], new Tuple<String, Rules.Pos>(
+					replacements[fuzzy(ref)], positions[fuzzy(ref)]));
+		}
+	}
+
+	/**
+	 * Write trie in binary format. Output stream must have been started at
+	 * the beginning of the file, as its size is used for alignment.
+	 */
+	void write(DataOutputStream out)
+	throws IOException
+	{
+		pad(out);
+		int nodes = size();
+		out.writeInt(nodes);
+		out.writeInt(fuzzy.limit());
+		out.writeInt(replacements.length);
+		for (int i = 0; i < replacements.length; i++)
+		{
+			out.writeByte(positions[i].ordinal());
+			out.writeInt(replacements[i].length());
+			out.writeChars(replacements[i]);
+		}
+		pad(out);
+		for (int i = 0; i <= nodes; i++) out.writeInt(firstEdge.get(i));
+		for (int i = 0; i < nodes; i++) out.writeInt(exact.get(i));
+		for (int i = 0; i < fuzzyStart.limit(); i++)
+			out.writeInt(fuzzyStart.get(i));
+		for (int i = 0; i < fuzzy.limit(); i++) out.writeInt(fuzzy.get(i));
+		for (int i = 0; i < labels.limit(); i++) out.writeChar(labels.get(i));
+		for (int i = 0; i < nodes; i++) out.writeByte(masks.get(i));
+		pad(out);
+	}
+
+	/**
+	 * Read trie from binary data, starting at the current buffer position.
+	 * Tables are not copied, trie uses the given buffer directly.
+	 */
+	static RuleTrie read(ByteBuffer data)
+	{
+		align(data);
+		int nodes = data.getInt();
+		int fuzzyCount = data.getInt();
+		int replCount = data.getInt();
+		Rules.Pos[] allPos = Rules.Pos.values();
+		String[] replacements = new String[replCount];
+		Rules.Pos[] positions = new Rules.Pos[replCount];
+		for (int i = 0; i < replCount; i++)
+		{
+			positions[i] = allPos[data.get()];
+			char[] chars = new char[data.getInt()];
+			for (int j = 0; j < chars.length; j++) chars[j] = data.getChar();
+			replacements[i] = new String(chars);
+		}
+		align(data);
+		IntBuffer firstEdge = slice(data, (nodes + 1) * 4).asIntBuffer();
+		IntBuffer exact = slice(data, nodes * 4).asIntBuffer();
+		IntBuffer fuzzyStart =
+			slice(data, (nodes * CLASSES + 1) * 4).asIntBuffer();
+		IntBuffer fuzzy = slice(data, fuzzyCount * 4).asIntBuffer();
+		CharBuffer labels = slice(data, (nodes - 1) * 2).asCharBuffer();
+		ByteBuffer masks = slice(data, nodes);
+		align(data);
+		return new RuleTrie(replacements, positions,
+			firstEdge, exact, fuzzyStart, fuzzy, labels, masks);
+	}
+
+	/**
+	 * Pad output to the multiple of 4 bytes.
+	 */
+	private static void pad(DataOutputStream out)
+	throws IOException
+	{
+		while ((out.size() & 3) != 0) out.writeByte(0);
+	}
+
+	/**
+	 * Move buffer position to the next multiple of 4.
+	 */
+	private static void align(ByteBuffer data)
+	{
+		((Buffer) data).position((data.position() + 3) & ~3);
+	}
+
+	/**
+	 * Cut next <code>length</code> bytes from the buffer.
+	 */
+	private static ByteBuffer slice(ByteBuffer data, int length)
+	{
+		ByteBuffer res = data.slice();
+		((Buffer) res).limit(length);
+		((Buffer) data).position(data.position() + length);
+		return res;
+	}
+
+	/**
+	 * Collects rules in a pointer-based trie and then converts it to flat
+	 * tables.
+	 */
+	static class Builder
+	{
+		/**
+		 * Root node of the trie being built.
+		 */
+		private final Node root = new Node();
+		/**
+		 * Numbers of distinct replacements.
+		 */
+		private final HashMap<Tuple<String, Rules.Pos>, Integer> replIds =
+			new HashMap<Tuple<String, Rules.Pos>, Integer>();
+		/**
+		 * Distinct replacements in order of their numbers.
+		 */
+		private final ArrayList<Tuple<String, Rules.Pos>> repls =
+			new ArrayList<Tuple<String, Rules.Pos>>();
+
+		/**
+		 * Add unambiguous rule. Replaces previous unambiguous rule with the
+		 * same target, if such exists.
+		 */
+		void addExact(String target, Tuple<String, Rules.Pos> replacement)
+		{
+			nodeFor(target).exact = idOf(replacement);
+		}
+
+		/**
+		 * Add one replacement for ambiguous rule. Repeated replacements are
+		 * ignored.
+		 */
+		void addFuzzy(String target, Tuple<String, Rules.Pos> replacement)
+		{
+			Node n = nodeFor(target);
+			if (n.fuzzy == null) n.fuzzy = new LinkedHashSet<Integer>();
+			n.fuzzy.add(idOf(replacement));
+		}
+
+		/**
+		 * Convert collected rules to flat tables.
+		 */
+		RuleTrie build()
+		{
+			// Number nodes breadth first.
+			ArrayList<Node> nodes = new ArrayList<Node>();
+			nodes.add(root);
+			for (int i = 0; i < nodes.size(); i++)
+			{
+				for (Node child : nodes.get(i).children)
+					nodes.add(child);
+			}
+
+			int[] firstEdge = new int[nodes.size() + 1];
+			int[] exact = new int[nodes.size()];
+			int[] fuzzyStart = new int[nodes.size() * CLASSES + 1];
+			ArrayList<Integer> fuzzy = new ArrayList<Integer>();
+			char[] labels = new char[nodes.size() - 1];
+			int[] own = new int[nodes.size()];
+			int edge = 0;
+			for (int i = 0; i < nodes.size(); i++)
+			{
+				Node n = nodes.get(i);
+				firstEdge[i] = edge;
+				System.arraycopy(n.labels, 0, labels, edge, n.labels.length);
+				edge += n.labels.length;
+				exact[i] = n.exact;
+				if (n.exact != NONE) own[i] |= repls.get(n.exact).second.mask();
+				for (int posClass = 0; posClass < CLASSES; posClass++)
+				{
+					fuzzyStart[i * CLASSES + posClass] = fuzzy.size();
+					if (n.fuzzy == null) continue;
+					for (int repl : n.fuzzy)
+					{
+						Rules.Pos position = repls.get(repl).second;
+						if (position.ordinal() != posClass) continue;
+						fuzzy.add(repl);
+						own[i] |= position.mask();
+					}
+				}
+			}
+			firstEdge[nodes.size()] = edge;
+			fuzzyStart[nodes.size() * CLASSES] = fuzzy.size();
+			
+			// Children are numbered after their parents, so going backwards
+			// visits whole subtree before its root.
+			int[] reach = new int[nodes.size()];
+			byte[] masks = new byte[nodes.size()];
+			for (int i = nodes.size() - 1; i >= 0; i--)
+			{
+				reach[i] = own[i];
+				for (int e = firstEdge[i]; e < firstEdge[i + 1]; e++)
+					reach[i] |= reach[e + 1];
+				masks[i] = (byte) (reach[i] << 4 | own[i]);
+			}
+
+			int[] fuzzyRefs = new int[fuzzy.size()];
+			for (int i = 0; i < fuzzyRefs.length; i++)
+				fuzzyRefs[i] = fuzzy.get(i);
+			String[] replacements = new String[repls.size()];
+			Rules.Pos[] positions = new Rules.Pos[repls.size()];
+			for (int i = 0; i < replacements.length; i++)
+			{
+				replacements[i] = repls.get(i).first;
+				positions[i] = repls.get(i).second;
+			}
+			return new RuleTrie(replacements, positions,
+				IntBuffer.wrap(firstEdge), IntBuffer.wrap(exact),
+				IntBuffer.wrap(fuzzyStart), IntBuffer.wrap(fuzzyRefs),
+				CharBuffer.wrap(labels), ByteBuffer.wrap(masks));
+		}
+
+		/**
+		 * Number of the given replacement, assigned if necessary.
+		 */
+		private int idOf(Tuple<String, Rules.Pos> replacement)
+		{
+			Integer id = replIds.get(replacement);
+			if (id == null)
+			{
+				id = repls.size();
+				replIds.put(replacement, id);
+				repls.add(replacement);
+			}
+			return id;
+		}
+
+		/**
+		 * Find or create node corresponding to the given target.
+		 */
+		private Node nodeFor(String target)
+		{
+			Node n = root;
+			for (int i = target.length() - 1; i >= 0; i--)
+				n = n.getOrAdd(target.charAt(i));
+			return n;
+		}
+	}
+
+	/**
+	 * Single node of the trie being built. Child nodes are kept in arrays
+	 * sorted by character.
+	 */
+	private static class Node
+	{
+		/**
+		 * Outgoing edge characters in ascending order.
+		 */
+		private char[] labels = new char[0];
+		/**
+		 * Child nodes, parallel to <code>labels</code>.
+		 */
+		private Node[] children = new Node[0];
+		/**
+		 * Unambiguous replacement or <code>NONE</code>.
+		 */
+		private int exact = NONE;
+		/**
+		 * Ambiguous replacements or <code>null</code>.
+		 */
+		private LinkedHashSet<Integer> fuzzy;
+
+		/**
+		 * Follow the edge labeled with given character, create one if
+		 * necessary.
+		 */
+		private Node getOrAdd(char c)
+		{
+			int i = Arrays.binarySearch(labels, c);
+			if (i >= 0) return children[i];
+
+			int at = -i - 1;
+			char[] newLabels = new char[labels.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, at);
+			System.arraycopy(children, 0, newChildren, 0, at);
+			System.arraycopy(labels, at, newLabels, at + 1, labels.length - at);
+			System.arraycopy(
+				children, at, newChildren, at + 1, children.length - at);
+			newLabels[at] = c;
+			newChildren[at] = new Node();
+			labels = newLabels;
+			children = newChildren;
+			return newChildren[at];
+		}
+	}
+}
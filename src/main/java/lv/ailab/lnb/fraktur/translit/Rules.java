@@ -2,16 +2,21 @@ package lv.ailab.lnb.fraktur.translit;
 
 import lv.ailab.lnb.fraktur.util.*;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.xml.sax.SAXException;
 
 /**
@@ -54,166 +59,293 @@ public class Rules
 			 return ALL;
 			 
 		}
+		
+		/**
+		 * Single bit representing this value in position class masks.
+		 */
+		int mask()
+		{
+			return 1 << ordinal();
+		}
 	}
 	/**
-	 * Unambiguous case insensitive transliteration rules.
+	 * First 4 bytes of binary rule file: "LNBR".
 	 */
-	public HashMap<String, Tuple<String, Pos>> exact;
+	static final int MAGIC = 0x4C4E4252;
+	/**
+	 * Current binary rule file format version.
+	 */
+	static final int VERSION = 2;
 	
 	/**
-	 * Unambiguous case sensitive transliteration rules.
+	 * Case insensitive rules (both unambiguous and ambiguous) compiled for
+	 * matching.
 	 */
-	public HashMap<String, Tuple<String, Pos>> exactSense;
+	RuleTrie insensitive;
 	
+	/**
+	 * Case sensitive rules (both unambiguous and ambiguous) compiled for
+	 * matching.
+	 */
+	RuleTrie sensitive;
 	
 	/**
-	 * Ambiguous case insensitive transliteration rules.
+	 * Unambiguous case insensitive transliteration rules. Read-only, made
+	 * from the compiled rules once, when they are read.
 	 */
-	public HashMultiMap<String, Tuple<String, Pos>> fuzzy;
+	public final Map<String, Tuple<String, Pos>> exact;
+	
+	/**
+	 * Unambiguous case sensitive transliteration rules. Read-only, made from
+	 * the compiled rules once, when they are read.
+	 */
+	public final Map<String, Tuple<String, Pos>> exactSense;
+	
 	/**
-	 * Ambiguous case sensitive transliteration rules.
+	 * Ambiguous case insensitive transliteration rules. Read-only, made from
+	 * the compiled rules once, when they are read.
 	 */
-	public HashMultiMap<String, Tuple<String, Pos>> fuzzySense;
+	public final Map<String, Set<Tuple<String, Pos>>> fuzzy;
 	
 	/**
-	 * Reads translation rules from given XML file. DOM used.
+	 * Ambiguous case sensitive transliteration rules. Read-only, made from
+	 * the compiled rules once, when they are read.
+	 */
+	public final Map<String, Set<Tuple<String, Pos>>> fuzzySense;
+	
+	/**
+	 * Reads translation rules from given XML file or from binary rule file
+	 * made by <code>RuleCompiler</code>. XML is read with StAX, binary file is
+	 * memory-mapped and used without copying. Malformed XML is reported as
+	 * <code>SAXException</code> wrapping the StAX exception.
+	 * <code>ParserConfigurationException</code> is no longer thrown, it is
+	 * declared for compatibility with the DOM-based reader.
 	 */
 	public Rules (File ruleFile)
 	throws SAXException,IOException, ParserConfigurationException
 	{
-		// Create DOM from XML file.
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		dbf.setIgnoringComments(true);
-		dbf.setIgnoringElementContentWhitespace(true);
-		Document doc = dbf.newDocumentBuilder().parse(ruleFile);
-			
-		// "exact" and "fuzzy".
-		NodeList nl = doc.getDocumentElement().getChildNodes();
-		
-		exact = new HashMap<String, Tuple<String, Pos>>();
-		exactSense = new HashMap<String, Tuple<String, Pos>>();
-		fuzzy = new HashMultiMap<String, Tuple<String, Pos>>();
-		fuzzySense = new HashMultiMap<String, Tuple<String, Pos>>();
-		
-		// Process all "exact" and "fuzzy" elements.
-		for (int i = 0; i <  nl.getLength(); i++)
+		if (isBinary(ruleFile)) readBinary(ruleFile);
+		else
 		{
-			if (nl.item(i).getNodeName().equals("exact"))
-				processExact(nl.item(i));
-			if (nl.item(i).getNodeName().equals("fuzzy"))
-				processFuzzy(nl.item(i));
+			try
+			{
+				readXml(ruleFile);
+			} catch (XMLStreamException e)
+			{
+				throw new SAXException(e);
+			}
 		}
 		
-		// An exception is thrown if no rules are found.
-		if (exact.size() < 1 && fuzzy.size() < 1)
-		{
-			throw new IllegalArgumentException(
-				"Rule file \"" + ruleFile.getName() + "\" contains no rules.");
-		}
+		HashMap<String, Tuple<String, Pos>> exactRules =
+			new HashMap<String, Tuple<String, Pos>>();
+		HashMultiMap<String, Tuple<String, Pos>> fuzzyRules =
+			new HashMultiMap<String, Tuple<String, Pos>>();
+		insensitive.collect(exactRules, fuzzyRules);
+		exact = Collections.unmodifiableMap(exactRules);
+		fuzzy = readOnly(fuzzyRules);
 		
+		exactRules = new HashMap<String, Tuple<String, Pos>>();
+		fuzzyRules = new HashMultiMap<String, Tuple<String, Pos>>();
+		sensitive.collect(exactRules, fuzzyRules);
+		exactSense = Collections.unmodifiableMap(exactRules);
+		fuzzySense = readOnly(fuzzyRules);
 	}
 	
-	
-	/*
-	 * Returns unambiguous transliteration rules associated with given string.
+	/**
+	 * Write rules in binary format.
+	 *
+	 * Binary rule file format (big-endian):
+	 *	int		magic number;
+	 *	int		format version;
+	 *			case insensitive rule trie;
+	 *			case sensitive rule trie.
+	 * See <code>RuleTrie</code> for trie format.
 	 */
-	/*public String getExactReplacement (String what)
+	public void write(File file)
+	throws IOException
 	{
-		return exact.get(what);
-	}//*/
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new FileOutputStream(file), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			insensitive.write(out);
+			sensitive.write(out);
+		} finally
+		{
+			out.close();
+		}
+	}
 	
-	/*
-	 * Returns ambiguous transliteration rules associated with given string.
+	/**
+	 * Check if the given file starts like binary rule file.
 	 */
-	/*public ArrayList<String> getFuzzyReplacement (String what)
+	public static boolean isBinary(File file)
+	throws IOException
 	{
-		return fuzzy.get(what);
-	}//*/
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			return in.readInt() == MAGIC;
+		} catch (EOFException e)
+		{
+			return false;
+		} finally
+		{
+			in.close();
+		}
+	}
+	
 	
-	/*
-	 * Returns all transliteration rules associated with given string.
+	//=== Supporting functions. ================================================
+
+	/**
+	 * Read-only view of the given multimap, value sets included.
 	 */
-	/*public ArrayList<String> getAllReplacement (String what)
+	private static Map<String, Set<Tuple<String, Pos>>> readOnly(
+		HashMultiMap<String, Tuple<String, Pos>> rules)
 	{
-		if (!exact.containsKey(what) && fuzzy.containsKey(what)) return null;
-		
-		ArrayList<String> res = new ArrayList<String>();
-		if (exact.containsKey(what)) res.add(exact.get(what));
-		if (fuzzy.containsKey(what)) res.addAll(fuzzy.get(what));
+		HashMap<String, Set<Tuple<String, Pos>>> res =
+			new HashMap<String, Set<Tuple<String, Pos>>>();
+		for (Map.Entry<String, LinkedHashSet<Tuple<String, Pos>>> e
+				: rules.entrySet())
+			res.put(e.getKey(), Collections.unmodifiableSet(e.getValue()));
+		return Collections.unmodifiableMap(res);
+	}
+
+	/**
+	 * Map binary rule file.
+	 */
+	private void readBinary(File ruleFile)
+	throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(ruleFile, "r");
+		MappedByteBuffer data;
+		try
+		{
+			data = raf.getChannel().map(
+				FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally
+		{
+			// Mapping stays valid after the file is closed.
+			raf.close();
+		}
 		
-		return res;
-	}//*/
-	
-	
+		data.getInt(); // Magic number, already checked.
+		int version = data.getInt();
+		if (version != VERSION)
+			throw new IllegalArgumentException("Binary rule file \""
+				+ ruleFile.getName() + "\" has unsupported format version "
+				+ version + ".");
+		insensitive = RuleTrie.read(data);
+		sensitive = RuleTrie.read(data);
+	}
 	
-	//=== Supporting functions. ================================================
-
 	/**
-	 * Processing rules enlisted in "exact" node.
+	 * Read rules from XML file. StAX used.
 	 */
-	private void processExact(Node n)
+	private void readXml(File ruleFile)
+	throws IOException, XMLStreamException
 	{
-		NodeList nl = n.getChildNodes();
-		for (int i = 0; i < nl.getLength(); i++)
+		RuleTrie.Builder insensitiveRules = new RuleTrie.Builder();
+		RuleTrie.Builder sensitiveRules = new RuleTrie.Builder();
+		int ruleCount = 0;
+		
+		XMLInputFactory xif = XMLInputFactory.newInstance();
+		xif.setProperty(XMLInputFactory.IS_COALESCING, true);
+		InputStream in = new BufferedInputStream(new FileInputStream(ruleFile));
+		try
 		{
-			Tuple<String,ArrayList<Triplet<String, Pos, Boolean>>> tmpRes =
-				processRule(nl.item(i));
-			if (tmpRes == null) continue; // Comments and other unrelated stuff.
-			if (tmpRes.second.size() != 1)
+			XMLStreamReader xml = xif.createXMLStreamReader(in);
+			try
 			{
-				throw new IllegalArgumentException(
-					"Invalid XML provided: rule \"" + tmpRes.first
-					+ "\" has invalid replacement.");
-
+				while (xml.next() != XMLStreamConstants.START_ELEMENT);
+				
+				// Process all "exact" and "fuzzy" elements.
+				while (xml.next() != XMLStreamConstants.END_ELEMENT)
+				{
+					if (!xml.isStartElement()) continue;
+					String name = xml.getLocalName();
+					if (name.equals("exact"))
+						ruleCount += processSet(
+							xml, false, insensitiveRules, sensitiveRules);
+					else if (name.equals("fuzzy"))
+						ruleCount += processSet(
+							xml, true, insensitiveRules, sensitiveRules);
+					else skipElement(xml);
+				}
+			} finally
+			{
+				xml.close();
 			}
-			Triplet<String, Pos, Boolean> tmpRepl = tmpRes.second.get(0);
-			if (tmpRepl.third)
-				exactSense.put(tmpRes.first, firstTwo(tmpRepl));
-			else exact.put(tmpRes.first.toLowerCase(),
-				new Tuple<String, Pos>(tmpRepl.first.toLowerCase(), tmpRepl.second));
+		} finally
+		{
+			in.close();
+		}
+		
+		// An exception is thrown if no rules are found.
+		if (ruleCount < 1)
+		{
+			throw new IllegalArgumentException(
+				"Rule file \"" + ruleFile.getName() + "\" contains no rules.");
 		}
+		
+		insensitive = insensitiveRules.build();
+		sensitive = sensitiveRules.build();
 	}
-	
+
 	/**
-	 * Processing rules enlisted in "fuzzy" node.
+	 * Processing rules enlisted in "exact" or "fuzzy" element. Reader must be
+	 * positioned at the start of the element, it is left at its end. Returns
+	 * the count of rules found.
 	 */
-	private void processFuzzy(Node n)
+	private static int processSet(XMLStreamReader xml, boolean isFuzzy,
+		RuleTrie.Builder insensitiveRules, RuleTrie.Builder sensitiveRules)
+	throws XMLStreamException
 	{
-		NodeList nl = n.getChildNodes();
-		for (int i = 0; i < nl.getLength(); i++)
+		int ruleCount = 0;
+		while (xml.next() != XMLStreamConstants.END_ELEMENT)
 		{
-			//if (nl.item(i).getNodeName().equals("#text"))
-			//	continue;
+			if (!xml.isStartElement()) continue; // Comments and whitespace.
+			if (!xml.getLocalName().equals("r"))
+			{
+				skipElement(xml); // Unrelated stuff.
+				continue;
+			}
 			Tuple<String,ArrayList<Triplet<String, Pos, Boolean>>> tmpRes =
-				processRule(nl.item(i));
-			if (tmpRes == null) continue; // Comments and other unrelated stuff.
-			if (tmpRes.second.size() < 1)
+				processRule(xml);
+			if (!isFuzzy && tmpRes.second.size() != 1)
+			{
+				throw new IllegalArgumentException(
+					"Invalid XML provided: rule \"" + tmpRes.first
+					+ "\" has invalid replacement.");
+			}
+			if (isFuzzy && tmpRes.second.size() < 1)
 			{
 				throw new IllegalArgumentException(
 					"Invalid XML provided: rule \"" + tmpRes.first
 					+ "\" has no replacement.");
-
 			}
+			
 			for (Triplet<String, Pos, Boolean> tmpRepl : tmpRes.second)
 			{
-				if (tmpRepl.third)
-				{
-					String key = tmpRes.first;
-					Tuple<String, Pos> value = firstTwo(tmpRepl);
-					fuzzySense.putOne(key, value);
-				}
-				else
+				RuleTrie.Builder rules = sensitiveRules;
+				String key = tmpRes.first;
+				Tuple<String, Pos> value = firstTwo(tmpRepl);
+				if (!tmpRepl.third)
 				{
-					String key = tmpRes.first.toLowerCase();
-					Tuple<String, Pos> value = new Tuple<String, Pos>(
-							tmpRepl.first.toLowerCase(), tmpRepl.second);
-					fuzzy.putOne(key, value);
+					rules = insensitiveRules;
+					key = key.toLowerCase();
+					value = new Tuple<String, Pos>(
+						tmpRepl.first.toLowerCase(), tmpRepl.second);
 				}
-				
+				if (isFuzzy) rules.addFuzzy(key, value);
+				else rules.addExact(key, value);
 			}
-			//fuzzy.putOne(tmpRes.first, tmpRes.second);
+			ruleCount++;
 		}
-
+		return ruleCount;
 	}
 	
 	/**
@@ -225,15 +357,18 @@ public class Rules
 	 * <code><r target="w"><replace>v</replace><replace>m</replace></r></code>.
 	 * Position attribute is optional. Position can take values
 	 * <code>all</code> (default), <code>begin</code>, <code>end</code>,
-	 * <code>exact</code> (acts as begin + end).
+	 * <code>exact</code> (acts as begin + end). Reader must be positioned at
+	 * the start of the element, it is left at its end.
 	 */
-	private Tuple<String,ArrayList<Triplet<String, Pos, Boolean>>> processRule(Node n)
+	private static Tuple<String,ArrayList<Triplet<String, Pos, Boolean>>> processRule(
+		XMLStreamReader xml)
+	throws XMLStreamException
 	{
-		// Check the correctness of the XML.
-		if (!n.getNodeName().equals("r")) return null;
-		
 		// Retrieving target.
-		String target = n.getAttributes().getNamedItem("target").getTextContent();
+		String target = xml.getAttributeValue(null, "target");
+		if (target == null)
+			throw new IllegalArgumentException(
+				"Invalid XML provided: rule without target found.");
 			
 		// Retrieving replacements.
 		ArrayList<Triplet<String, Pos, Boolean>> replacements =
@@ -241,103 +376,70 @@ public class Rules
 		
 		// Get sensitivity argument.
 		Boolean globalSens = false;
-		Boolean tmpSens = getSensitivity(n);
+		Boolean tmpSens = getSensitivity(xml);
 		if (tmpSens != null) globalSens = tmpSens;
 			
 		// Get position argument.
 		Pos globalPos = Pos.ALL;
-		Pos tmpPos = getPosition(n);
+		Pos tmpPos = getPosition(xml);
 		if (tmpPos != null) globalPos = tmpPos;
 
 		// Replacement given as attribute.	
-		Node replNode = n.getAttributes().getNamedItem("replace");
-		if (replNode != null)
+		String replAttr = xml.getAttributeValue(null, "replace");
+		if (replAttr != null)
 		{
 			replacements.add(
-				new Triplet<String, Pos, Boolean>(
-					replNode.getTextContent(), globalPos, globalSens));
+				new Triplet<String, Pos, Boolean>(replAttr, globalPos, globalSens));
 		}
 		
-		NodeList nl = n.getChildNodes();
-		
-		// If there is no children...
-		if (nl == null || nl.getLength() < 1) {/* Do nothing. */}
-		
-		// If there is only one child, this could be text element.
-		else if (nl.getLength() == 1)
+		// Replacements given as "replace" elements or as text.
+		StringBuilder text = new StringBuilder();
+		int replElements = 0;
+		while (xml.next() != XMLStreamConstants.END_ELEMENT)
 		{
+			if (isText(xml)) text.append(xml.getText());
+			if (!xml.isStartElement()) continue;
+			
+			// Check the correctness of the XML.
+			if (!xml.getLocalName().equals("replace"))
+				throw new IllegalArgumentException(
+					"Invalid XML provided: element \"replace\" expected, \""
+					 + xml.getLocalName() + "\" found.");
+			
+			// Get position if it is given.
 			Pos position = globalPos;
+			tmpPos = getPosition(xml);
+			if (tmpPos != null) position = tmpPos;
+			
+			// Get sensitivity if it is given.
 			Boolean sensitive = globalSens;
-			replNode = nl.item(0);
+			tmpSens = getSensitivity(xml);
+			if (tmpSens != null) sensitive = tmpSens;
 			
-			// If replacement is enclosed in some tags.
-			if(replNode.getNodeType() != Node.TEXT_NODE)
+			StringBuilder value = new StringBuilder();
+			while (xml.next() != XMLStreamConstants.END_ELEMENT)
 			{
 				// Check the correctness of the XML.
-				if (!replNode.getNodeName().equals("replace"))
-					throw new IllegalArgumentException(
-						"Invalid XML provided: element \"replace\" expected, \""
-						 + replNode.getNodeName() + "\" found.");
-						 
-				// Get position if it is given.
-				tmpPos = getPosition(replNode);
-				if (tmpPos != null) position = tmpPos;
-				
-				// Get sensitivity if it is given.
-				tmpSens = getSensitivity(replNode);
-				if (tmpSens != null) sensitive = tmpSens;
-				
-				replNode = replNode.getChildNodes().item(0);
-				// Check the correctness of the XML.
-				if(replNode.getNodeType() != Node.TEXT_NODE)
-				{
+				if (xml.isStartElement())
 					throw new IllegalArgumentException(
-						"Invalid XML provided: unexpected emptyness in element \""
-						+ replNode.getNodeName() + "\" found.");
-				}				
+						"Invalid XML provided: unexpected content found in element \"replace\".");
+				if (isText(xml)) value.append(xml.getText());
 			}
+			if (value.length() < 1)
+				throw new IllegalArgumentException(
+					"Invalid XML provided: unexpected emptyness in element \"replace\" found.");
 			
-			replacements.add(
-				new Triplet<String, Pos, Boolean>(
-					replNode.getTextContent(), position, sensitive));
+			replacements.add(new Triplet<String, Pos, Boolean>(
+				value.toString(), position, sensitive));
+			replElements++;
 		}
 		
-		// Multiple children - multiple replacements.
-		else
+		// Text is the replacement only if there is no "replace" elements,
+		// otherwise it is indentation from source file.
+		if (replElements == 0 && text.length() > 0)
 		{
-			for (int i = 0; i < nl.getLength(); i++)
-			{
-				Pos position = globalPos;
-				Boolean sensitive = globalSens;
-				Node tmp = nl.item(i);
-				
-				// Skip the nodes, containing indentation from source file.
-				if (tmp.getNodeType() == Node.TEXT_NODE) continue;
-				
-				// Check the correctness of the XML.
-				if (!tmp.getNodeName().equals("replace")
-					&& !tmp.getNodeName().equals("#text"))
-					throw new IllegalArgumentException(
-						"Invalid XML provided: element \"replace\" expected, \""
-						 + tmp.getNodeName() + "\" found.");
-					 
-				if (tmp.getChildNodes().getLength() > 1
-					|| tmp.getChildNodes().item(0).getNodeType() != Node.TEXT_NODE)
-					throw new IllegalArgumentException(
-						"Invalid XML provided: unexpected content found in element \""
-						 + tmp.getNodeName() + "\".");
-				
-				// Get position if it is given.
-				tmpPos = getPosition(tmp);
-				if (tmpPos != null) position = tmpPos;
-				
-				// Get sensitivity if it is given.
-				tmpSens = getSensitivity(tmp);
-				if (tmpSens != null) sensitive = tmpSens;
-
-				replacements.add(new Triplet<String, Pos, Boolean>(
-					tmp.getChildNodes().item(0).getTextContent(), position, sensitive));	 
-			}
+			replacements.add(new Triplet<String, Pos, Boolean>(
+				text.toString(), globalPos, globalSens));
 		}
 		
 		// Happy ending, everything is collected.
@@ -346,24 +448,49 @@ public class Rules
 	}
 	
 	/**
-	 * Get node's position attribute converted to Pos enumeration values.
+	 * Skip the element the reader is positioned at, with all its content.
+	 */
+	private static void skipElement(XMLStreamReader xml)
+	throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = xml.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+	
+	/**
+	 * Check if the reader is positioned at character data.
+	 */
+	private static boolean isText(XMLStreamReader xml)
+	{
+		int event = xml.getEventType();
+		return event == XMLStreamConstants.CHARACTERS
+			|| event == XMLStreamConstants.CDATA
+			|| event == XMLStreamConstants.SPACE;
+	}
+	
+	/**
+	 * Get element's position attribute converted to Pos enumeration values.
 	 */
-	private static Pos getPosition (Node n)
+	private static Pos getPosition (XMLStreamReader xml)
 	{
-		Node posNode = n.getAttributes().getNamedItem("position");
-		if (posNode == null) return null;
-		String posString = posNode.getTextContent();
+		String posString = xml.getAttributeValue(null, "position");
+		if (posString == null) return null;
 		return Pos.fromString(posString);
 	}
 	
 	/**
-	 * Get node's sensitivity attribute converted to Boolean.
+	 * Get element's sensitivity attribute converted to Boolean.
 	 */
-	private static Boolean getSensitivity (Node n)
+	private static Boolean getSensitivity (XMLStreamReader xml)
 	{
-		Node sensNode = n.getAttributes().getNamedItem("sensitive");
-		if (sensNode == null) return null;
-		return sensNode.getTextContent().trim().equals("1");
+		String sensString = xml.getAttributeValue(null, "sensitive");
+		if (sensString == null) return null;
+		return sensString.trim().equals("1");
 	}
 	
 	/**
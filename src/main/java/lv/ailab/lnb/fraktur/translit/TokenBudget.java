@@ -0,0 +1,78 @@
+package lv.ailab.lnb.fraktur.translit;
+
+/**
+ * Limits for processing one token. When a limit is hit, processing stops
+ * early and results found so far are kept; <code>truncated()</code> tells, if
+ * this has happened. Each token needs its own instance.
+ */
+public class TokenBudget
+{
+	/**
+	 * Maximum count of variants processed, 0 if not limited. If N-gram
+	 * statistics are available, the most probable variants are kept.
+	 */
+	public final int maxVariants;
+	/**
+	 * Maximum count of partial variants kept at once while searching for the
+	 * most probable variants, 0 if default is used.
+	 */
+	public final int maxLatticeWidth;
+	/**
+	 * Whether processing time is limited.
+	 */
+	private final boolean hasDeadline;
+	/**
+	 * When processing must stop, in terms of <code>System.nanoTime()</code>.
+	 */
+	private final long deadline;
+	/**
+	 * Whether some limit has been hit.
+	 */
+	private boolean truncated;
+	
+	/**
+	 * Constructor. Time limit starts counting now.
+	 *
+	 * @param maxVariants		maximum count of variants processed, 0 if not
+	 *							limited.
+	 * @param maxLatticeWidth	maximum count of partial variants kept at
+	 *							once, 0 if default is used.
+	 * @param timeoutMillis		processing time limit in milliseconds, 0 if not
+	 *							limited.
+	 */
+	public TokenBudget(int maxVariants, int maxLatticeWidth, long timeoutMillis)
+	{
+		this.maxVariants = maxVariants;
+		this.maxLatticeWidth = maxLatticeWidth;
+		hasDeadline = timeoutMillis > 0;
+		deadline = hasDeadline ? System.nanoTime() + timeoutMillis * 1000000 : 0;
+		truncated = false;
+	}
+	
+	/**
+	 * Check if time limit has been reached. If so, results are marked as
+	 * truncated.
+	 */
+	public boolean expired()
+	{
+		if (!hasDeadline || System.nanoTime() - deadline < 0) return false;
+		truncated = true;
+		return true;
+	}
+	
+	/**
+	 * Mark results as truncated.
+	 */
+	public void truncate()
+	{
+		truncated = true;
+	}
+	
+	/**
+	 * Whether some limit has been hit.
+	 */
+	public boolean truncated()
+	{
+		return truncated;
+	}
+}
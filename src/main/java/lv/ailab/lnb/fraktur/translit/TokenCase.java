@@ -0,0 +1,110 @@
+package lv.ailab.lnb.fraktur.translit;
+
+/**
+ * Letter case of a token and its fragments. Token is classified once, then
+ * case of any fragment is found in constant time without creating substrings,
+ * so rule replacements can be capitalized like the matched fragment.
+ */
+class TokenCase
+{
+	/**
+	 * No upper case letters (also fragments without letters at all).
+	 */
+	static final int LOWER = 0;
+	/**
+	 * No lower case letters.
+	 */
+	static final int ALL_CAPS = 1;
+	/**
+	 * Upper case letter followed by no upper case letters.
+	 */
+	static final int FIRST_CAP = 2;
+	/**
+	 * Any other combination.
+	 */
+	static final int MIXED = 3;
+	/**
+	 * Count of case classes.
+	 */
+	static final int CLASSES = 4;
+
+	/**
+	 * Token classified.
+	 */
+	private final String token;
+	/**
+	 * Count of characters changed by lower-casing in each token prefix, i.e.,
+	 * prefix sums of per-character case mask.
+	 */
+	private final int[] notLower;
+	/**
+	 * Count of characters changed by upper-casing in each token prefix.
+	 */
+	private final int[] notUpper;
+
+	/**
+	 * Classify characters of the given token.
+	 */
+	TokenCase(String token)
+	{
+		this.token = token;
+		int len = token.length();
+		notLower = new int[len + 1];
+		notUpper = new int[len + 1];
+		for (int i = 0; i < len; i++)
+		{
+			char c = token.charAt(i);
+			notLower[i + 1] = notLower[i];
+			notUpper[i + 1] = notUpper[i];
+			if (changedByLowerCase(c)) notLower[i + 1]++;
+			if (changedByUpperCase(c)) notUpper[i + 1]++;
+		}
+	}
+
+	/**
+	 * Case class of the whole token.
+	 */
+	int token()
+	{
+		return fragment(0, token.length());
+	}
+
+	/**
+	 * Case class of the token fragment from <code>begin</code> (inclusive) to
+	 * <code>end</code> (exclusive). Fragment must not be empty.
+	 */
+	int fragment(int begin, int end)
+	{
+		if (notLower[end] == notLower[begin]) return LOWER;
+		if (notUpper[end] == notUpper[begin]) return ALL_CAPS;
+		if (Character.isLetter(token.charAt(begin))
+				&& notUpper[begin + 1] == notUpper[begin]
+				&& notLower[end] == notLower[begin + 1])
+			return FIRST_CAP;
+		return MIXED;
+	}
+
+	/**
+	 * Whether <code>String.toLowerCase()</code> changes the given character.
+	 * Only upper case characters without single character lower case form
+	 * need the string to be made.
+	 */
+	private static boolean changedByLowerCase(char c)
+	{
+		if (Character.toLowerCase(c) != c) return true;
+		return Character.isUpperCase(c)
+			&& !String.valueOf(c).toLowerCase().equals(String.valueOf(c));
+	}
+
+	/**
+	 * Whether <code>String.toUpperCase()</code> changes the given character,
+	 * e.g., 'ß' is upper-cased as "SS". Only lower case characters without
+	 * single character upper case form need the string to be made.
+	 */
+	private static boolean changedByUpperCase(char c)
+	{
+		if (Character.toUpperCase(c) != c) return true;
+		return Character.isLowerCase(c)
+			&& !String.valueOf(c).toUpperCase().equals(String.valueOf(c));
+	}
+}
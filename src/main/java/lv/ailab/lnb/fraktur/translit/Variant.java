@@ -5,7 +5,8 @@ import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
 
 /**
  * This class stores one token / transliteration variant and remembers N-gram
- * estimation once it is calculated.
+ * estimation once it is calculated. Estimate is not calculated until it is
+ * asked for.
  */
 public class Variant
 {
@@ -14,7 +15,11 @@ public class Variant
 	 */
 	public final String token;
 	/**
-	 * Logarithmic N-gram estimate.
+	 * Evaluator used by <code>estimate()</code> with no arguments.
+	 */
+	private final VariantEvaluator defaultEvaluator;
+	/**
+	 * Logarithmic N-gram estimate, <code>null</code> until calculated.
 	 */
 	private Double estimate;
 	/**
@@ -25,30 +30,35 @@ public class Variant
 	/**
 	 * Constructor.
 	 * @param token	Token or transliteration variant.
-	 * @param ev	N-gram evaluator to calculate the estimate for this token or
-	 *				null.
+	 * @param ev	N-gram evaluator to calculate the estimate for this token,
+	 *				when needed, or null.
 	 */
 	public Variant (String token, VariantEvaluator ev)
 	{
 		this.token = token;
-		evaluatedBy = ev;
-		if (ev == null)
-			estimate = null;
-		else estimate = ev.evaluateToken(token);
+		defaultEvaluator = ev;
+		evaluatedBy = null;
+		estimate = null;
+	}
+	
+	/**
+	 * Estimate token with the evaluator given in constructor. Returns
+	 * <code>null</code>, if none was given.
+	 */
+	public Double estimate()
+	{
+		return estimate(defaultEvaluator);
 	}
 	
 	/**
 	 * Estimate token: return previously calculated estimate if such exists, use
-	 * provided estimator otherwise. 
+	 * provided estimator otherwise. Synchronized, as variants of cached results
+	 * can be shared between threads.
 	 */
-	public Double estimate(VariantEvaluator ev)
+	public synchronized Double estimate(VariantEvaluator ev)
 	{
-		if (ev == null)
-		{
-			evaluatedBy = null;
-			estimate = null;
-			return null;
-		} else if (evaluatedBy == null || !evaluatedBy.equals(ev))
+		if (ev == null) return null;
+		else if (evaluatedBy == null || !evaluatedBy.equals(ev))
 		{
 			evaluatedBy = ev;
 			estimate = ev.evaluateToken(token);
@@ -56,6 +66,31 @@ public class Variant
 		} else return estimate;
 	}
 	
+	/**
+	 * Check if the estimate by the given evaluator is already calculated.
+	 */
+	synchronized boolean isEstimated(VariantEvaluator ev)
+	{
+		return ev != null && ev.equals(evaluatedBy);
+	}
+	
+	/**
+	 * Estimate calculated so far, <code>null</code>, if none.
+	 */
+	synchronized Double knownEstimate()
+	{
+		return estimate;
+	}
+	
+	/**
+	 * Remember the estimate calculated elsewhere by the given evaluator.
+	 */
+	synchronized void setEstimate(VariantEvaluator ev, double estimate)
+	{
+		evaluatedBy = ev;
+		this.estimate = estimate;
+	}
+	
 	/**
 	 * Equivalence is determined by comparing tokens. Probabilities are not
 	 * taken into account.
@@ -79,12 +114,15 @@ public class Variant
 	
 	/**
 	 * String representation for contents of this object. For debugging
-	 * purposes.
+	 * purposes. Estimate is calculated, if it has not been yet, so output does
+	 * not depend on whether something else has asked for it before.
 	 */
 	@Override
-	public String toString()
+	public synchronized String toString()
 	{
-		if (estimate == null) return token;
-		return token + " (" + String.format("%.4f", estimate) + ")";
+		Double e = estimate;
+		if (e == null) e = estimate();
+		if (e == null) return token;
+		return token + " (" + String.format("%.4f", e) + ")";
 	}
 }
\ No newline at end of file
@@ -0,0 +1,384 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Deterministic character automaton accepting all transliteration variants
+ * stored in a <code>ProcessingData</code> lattice. Each variant corresponds to
+ * exactly one path, so variant counting and deduplication can be done without
+ * building variant strings. States are created lazily by subset construction.
+ *
+ * Nondeterministic states are the lattice positions (boundaries) and the
+ * positions inside the replacement strings of the lattice edges. Each of them
+ * is paired with a flag telling if it is reachable without fuzzy rules, so
+ * the fuzzy/exact property of each variant can be read from the accepting
+ * state.
+ */
+class VariantAutomaton
+{
+	/**
+	 * Lattice edges in a flat array.
+	 */
+	private final ProcessingData.Edge[] edges;
+	/**
+	 * Indices of edges starting at each boundary. Boundary b is the point
+	 * after the first b characters of the source token.
+	 */
+	private final int[][] outgoing;
+	/**
+	 * First nondeterministic state ID for inner positions of each edge.
+	 */
+	private final int[] innerBase;
+	/**
+	 * For each inner state: the edge it belongs to.
+	 */
+	private final int[] innerEdge;
+	/**
+	 * Final boundary, i.e., length of the source token.
+	 */
+	private final int end;
+	/**
+	 * Created deterministic states, used for interning.
+	 */
+	private final HashMap<State, State> states;
+	/**
+	 * Start state.
+	 */
+	final State start;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param lattice	incoming edges for each token position.
+	 */
+	VariantAutomaton(ArrayList<ProcessingData.Edge>[] lattice)
+	{
+		end = lattice.length;
+		ArrayList<ProcessingData.Edge> all = new ArrayList<ProcessingData.Edge>();
+		for (ArrayList<ProcessingData.Edge> l : lattice) all.addAll(l);
+		edges = all.toArray(new ProcessingData.Edge[all.size()]);
+
+		// Number inner states and group edges by the starting boundary.
+		innerBase = new int[edges.length];
+		int innerCount = 0;
+		int[] outCount = new int[end + 1];
+		for (int i = 0; i < edges.length; i++)
+		{
+			innerBase[i] = end + 1 + innerCount;
+			int l = edges[i].replacement.length();
+			if (l > 1) innerCount += l - 1;
+			outCount[edges[i].from + 1]++;
+		}
+		innerEdge = new int[innerCount];
+		outgoing = new int[end + 1][];
+		for (int b = 0; b <= end; b++) outgoing[b] = new int[outCount[b]];
+		for (int i = 0; i < edges.length; i++)
+		{
+			int l = edges[i].replacement.length();
+			for (int k = 1; k < l; k++)
+				innerEdge[innerBase[i] - end - 1 + k - 1] = i;
+			int b = edges[i].from + 1;
+			outgoing[b][outgoing[b].length - outCount[b]--] = i;
+		}
+
+		states = new HashMap<State, State>();
+		TreeSet<Integer> init = new TreeSet<Integer>();
+		addBoundary(0, true, init);
+		start = intern(init);
+	}
+
+	/**
+	 * Count of distinct variants.
+	 */
+	long count()
+	{
+		return counts(start)[0];
+	}
+
+	/**
+	 * Count of distinct variants, if it does not exceed the given limit, or
+	 * some number greater than the limit otherwise. Counting stops as soon as
+	 * the limit is exceeded, so for tokens with very many variants only a
+	 * small part of the automaton is built.
+	 */
+	long count(long limit)
+	{
+		return counts(start, limit)[0];
+	}
+
+	/**
+	 * Count of distinct variants obtainable without fuzzy rules.
+	 */
+	long exactCount()
+	{
+		return counts(start)[1];
+	}
+
+	/**
+	 * Checks if given variant is accepted by this automaton and whether it
+	 * needs fuzzy rules.
+	 *
+	 * @return	<code>null</code>, if variant is not accepted,
+	 *			<code>true</code>, if fuzzy rules are needed,
+	 *			<code>false</code> otherwise.
+	 */
+	Boolean isFuzzy(String variant)
+	{
+		State s = start;
+		for (int i = 0; i < variant.length() && s != null; i++)
+			s = s.next(variant.charAt(i));
+		if (s == null || !s.accepting) return null;
+		return !s.exactAccepting;
+	}
+
+	/**
+	 * Counts accepted suffixes for given state: all and exact only.
+	 */
+	private long[] counts(State s)
+	{
+		return counts(s, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Counts accepted suffixes for given state: all and exact only. If count
+	 * of all exceeds the limit, counting stops and partial counts are
+	 * returned. Any state reachable from the start has no more suffixes than
+	 * the start has variants, so the count for the start exceeds the limit
+	 * as well. Partial counts are not cached.
+	 */
+	private long[] counts(State s, long limit)
+	{
+		if (s.counts != null) return s.counts;
+		long all = s.accepting ? 1 : 0;
+		long exact = s.exactAccepting ? 1 : 0;
+		s.expand();
+		for (State t : s.targets)
+		{
+			long[] c = counts(t, limit);
+			all += c[0];
+			exact += c[1];
+			if (all > limit) return new long[] {all, exact};
+		}
+		s.counts = new long[] {all, exact};
+		return s.counts;
+	}
+
+	/**
+	 * Add boundary state together with all states reachable from it by empty
+	 * replacements.
+	 */
+	private void addBoundary(int boundary, boolean exact, TreeSet<Integer> to)
+	{
+		if (!to.add(boundary * 2 + (exact ? 1 : 0))) return;
+		if (boundary >= end) return;
+		for (int e : outgoing[boundary])
+		{
+			if (edges[e].replacement.length() == 0)
+				addBoundary(edges[e].to + 1, exact && !edges[e].fuzzy, to);
+		}
+	}
+
+	/**
+	 * Add state reached after reading <code>offset</code> characters from the
+	 * replacement of the given edge.
+	 */
+	private void addAfter(int e, int offset, boolean exact, TreeSet<Integer> to)
+	{
+		if (offset >= edges[e].replacement.length())
+			addBoundary(edges[e].to + 1, exact, to);
+		else to.add((innerBase[e] + offset - 1) * 2 + (exact ? 1 : 0));
+	}
+
+	/**
+	 * Find existing deterministic state for given set of nondeterministic
+	 * states or create new one.
+	 */
+	private State intern(TreeSet<Integer> nfaStates)
+	{
+		// If a state is reachable without fuzzy rules, it does not matter if
+		// it is reachable with them as well.
+		int[] ids = new int[nfaStates.size()];
+		int i = 0;
+		for (int id : nfaStates)
+		{
+			if (id % 2 == 1 && i > 0 && ids[i - 1] == id - 1) i--;
+			ids[i++] = id;
+		}
+		if (i < ids.length) ids = Arrays.copyOf(ids, i);
+		State s = new State(ids);
+		State previous = states.get(s);
+		if (previous != null) return previous;
+		states.put(s, s);
+		return s;
+	}
+
+	/**
+	 * Deterministic state.
+	 */
+	class State
+	{
+		/**
+		 * Sorted nondeterministic state IDs: (inner or boundary ID) * 2 + 1,
+		 * if reachable without fuzzy rules, (inner or boundary ID) * 2
+		 * otherwise.
+		 */
+		private final int[] ids;
+		/**
+		 * Cached hash code.
+		 */
+		private final int hash;
+		/**
+		 * Whether some variant ends in this state.
+		 */
+		final boolean accepting;
+		/**
+		 * Whether some variant obtainable without fuzzy rules ends here.
+		 */
+		final boolean exactAccepting;
+		/**
+		 * Outgoing transition characters in ascending order, filled by
+		 * <code>expand()</code>.
+		 */
+		private char[] labels;
+		/**
+		 * Transition targets, parallel to <code>labels</code>.
+		 */
+		private State[] targets;
+		/**
+		 * Cached results of <code>counts()</code>.
+		 */
+		private long[] counts;
+
+		/**
+		 * Constructor.
+		 */
+		private State(int[] ids)
+		{
+			this.ids = ids;
+			hash = Arrays.hashCode(ids);
+			boolean acc = false;
+			boolean exactAcc = false;
+			for (int id : ids)
+			{
+				if (id / 2 == end)
+				{
+					acc = true;
+					if (id % 2 == 1) exactAcc = true;
+				}
+			}
+			accepting = acc;
+			exactAccepting = exactAcc;
+		}
+
+		/**
+		 * Outgoing transition characters in ascending order.
+		 */
+		char[] labels()
+		{
+			expand();
+			return labels;
+		}
+
+		/**
+		 * State reached by reading given character or <code>null</code>.
+		 */
+		State next(char c)
+		{
+			expand();
+			int i = Arrays.binarySearch(labels, c);
+			return i < 0 ? null : targets[i];
+		}
+
+		/**
+		 * State reached by reading i-th character from <code>labels()</code>.
+		 */
+		State target(int i)
+		{
+			expand();
+			return targets[i];
+		}
+
+		/**
+		 * Compute all outgoing transitions, if not done yet.
+		 */
+		private void expand()
+		{
+			if (labels != null) return;
+			TreeMap<Character, TreeSet<Integer>> trans =
+				new TreeMap<Character, TreeSet<Integer>>();
+			for (int id : ids)
+			{
+				int n = id / 2;
+				boolean exact = id % 2 == 1;
+				if (n < end)
+				{
+					// Boundary: start reading each outgoing replacement.
+					for (int e : outgoing[n])
+					{
+						String r = edges[e].replacement;
+						if (r.length() == 0) continue;
+						addAfter(e, 1, exact && !edges[e].fuzzy,
+							targetSet(trans, r.charAt(0)));
+					}
+				} else if (n > end)
+				{
+					// Inside replacement: continue reading it.
+					int e = innerEdge[n - end - 1];
+					int offset = n - innerBase[e] + 1;
+					addAfter(e, offset + 1, exact, targetSet(
+						trans, edges[e].replacement.charAt(offset)));
+				}
+			}
+
+			char[] l = new char[trans.size()];
+			State[] t = new State[trans.size()];
+			int i = 0;
+			for (Map.Entry<Character, TreeSet<Integer>> e : trans.entrySet())
+			{
+				l[i] = e.getKey();
+				t[i] = intern(e.getValue());
+				i++;
+			}
+			targets = t;
+			labels = l;
+		}
+
+		/**
+		 * Get or create the target set for given character.
+		 */
+		private TreeSet<Integer> targetSet(
+			TreeMap<Character, TreeSet<Integer>> trans, char c)
+		{
+			TreeSet<Integer> res = trans.get(c);
+			if (res == null)
+			{
+				res = new TreeSet<Integer>();
+				trans.put(c, res);
+			}
+			return res;
+		}
+
+		/**
+		 * Returns a hash code for this object.
+		 */
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		/**
+		 * Indicates whether some other object is "equal to" this one.
+		 */
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof State && Arrays.equals(ids, ((State) o).ids);
+		}
+	}
+}
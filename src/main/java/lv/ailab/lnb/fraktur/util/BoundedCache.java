@@ -0,0 +1,410 @@
+package lv.ailab.lnb.fraktur.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded thread-safe cache with frequency-aware eviction.
+ *
+ * Entries are kept in several independently locked segments, each ordered
+ * from the least recently used. When a segment is full, a new entry is
+ * admitted only if it has been asked for more often than the entry it would
+ * evict (TinyLFU admission policy), so rare keys do not push out frequent
+ * ones. Access frequencies are approximated by a small count-min sketch that
+ * is periodically halved to forget old history.
+ *
+ * By default each entry weighs 1, i.e., the bound is the count of entries.
+ * Override <code>weigh()</code> to bound by some other measure, e.g., memory.
+ */
+public class BoundedCache<K, V>
+{
+	/**
+	 * Count of segments for caches big enough.
+	 */
+	private static final int SEGMENTS = 16;
+
+	/**
+	 * Cache segments, selected by key hash.
+	 */
+	private final Segment[] segments;
+
+	/**
+	 * Maximum total weight of all entries.
+	 */
+	private final long maxWeight;
+
+	/**
+	 * Statistics.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param maxWeight	maximum total weight of all entries, must be positive.
+	 */
+	public BoundedCache(long maxWeight)
+	{
+		if (maxWeight < 1)
+			throw new IllegalArgumentException(
+				"Cache size must be positive, " + maxWeight + " given.");
+		this.maxWeight = maxWeight;
+		int count = (int) Math.min(SEGMENTS, maxWeight);
+		segments = newSegments(count);
+		for (int i = 0; i < count; i++)
+		{
+			// Distribute weight so that segments sum up to maxWeight.
+			long segWeight = maxWeight / count + (i < maxWeight % count ? 1 : 0);
+			segments[i] = new Segment(segWeight);
+		}
+	}
+
+	/**
+	 * Weight of the single entry. Override this to bound the cache by
+	 * something other than the count of entries.
+	 */
+	protected long weigh(K key, V value)
+	{
+		return 1;
+	}
+
+	/**
+	 * Returns cached value or <code>null</code>.
+	 */
+	public V get(K key)
+	{
+		Segment s = segmentFor(key);
+		V res;
+		synchronized (s)
+		{
+			s.sketch.increment(key.hashCode());
+			res = s.entries.get(key);
+		}
+		if (res == null) misses.incrementAndGet();
+		else hits.incrementAndGet();
+		return res;
+	}
+
+	/**
+	 * Add value to cache. If the cache is full, value is added only if its key
+	 * is used more frequently than keys of all the entries that must be
+	 * evicted; otherwise cache is left unchanged. Value for a key already in
+	 * cache is always replaced.
+	 */
+	public void put(K key, V value)
+	{
+		long w = weigh(key, value);
+		Segment s = segmentFor(key);
+		synchronized (s)
+		{
+			if (w > s.maxWeight)
+			{
+				rejections.incrementAndGet();
+				return;
+			}
+			V previous = s.entries.get(key);
+			if (previous == null && !s.admits(key, w))
+			{
+				rejections.incrementAndGet();
+				return;
+			}
+			if (previous != null)
+			{
+				s.entries.remove(key);
+				s.weight -= weigh(key, previous);
+			}
+
+			Iterator<Map.Entry<K, V>> it = s.entries.entrySet().iterator();
+			while (s.weight + w > s.maxWeight)
+			{
+				Map.Entry<K, V> victim = it.next();
+				s.weight -= weigh(victim.getKey(), victim.getValue());
+				it.remove();
+				evictions.incrementAndGet();
+			}
+			s.entries.put(key, value);
+			s.weight += w;
+		}
+	}
+
+	/**
+	 * Remove all entries. Statistics are kept.
+	 */
+	public void clear()
+	{
+		for (Segment s : segments)
+		{
+			synchronized (s)
+			{
+				s.entries.clear();
+				s.weight = 0;
+			}
+		}
+	}
+
+	/**
+	 * Count of cached entries.
+	 */
+	public int size()
+	{
+		int res = 0;
+		for (Segment s : segments)
+		{
+			synchronized (s)
+			{
+				res += s.entries.size();
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Total weight of cached entries.
+	 */
+	public long weight()
+	{
+		long res = 0;
+		for (Segment s : segments)
+		{
+			synchronized (s)
+			{
+				res += s.weight;
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Maximum total weight of cached entries.
+	 */
+	public long maxWeight()
+	{
+		return maxWeight;
+	}
+
+	/**
+	 * How many times <code>get()</code> has found the value.
+	 */
+	public long hitCount()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * How many times <code>get()</code> has not found the value.
+	 */
+	public long missCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * How many entries have been evicted to make room for new ones.
+	 */
+	public long evictionCount()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * How many new entries have not been admitted because they were used less
+	 * frequently than entries already in cache.
+	 */
+	public long rejectionCount()
+	{
+		return rejections.get();
+	}
+
+	/**
+	 * Ratio of <code>get()</code> calls that have found the value.
+	 */
+	public double hitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Statistics in human readable form.
+	 */
+	@Override
+	public String toString()
+	{
+		return "size " + size() + ", weight " + weight() + "/" + maxWeight
+			+ ", hits " + hitCount() + ", misses " + missCount()
+			+ String.format(", hit rate %.4f", hitRate())
+			+ ", evictions " + evictionCount()
+			+ ", rejections " + rejectionCount();
+	}
+
+	/**
+	 * Create array for segments. Arrays of generic types can not be created
+	 * directly, but this one never leaves the cache and holds only its own
+	 * segments, so unchecked conversion is safe.
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private Segment[] newSegments(int count)
+	{
+		return new BoundedCache.Segment[count];
+	}
+
+	/**
+	 * Find segment for the key.
+	 */
+	private Segment segmentFor(K key)
+	{
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[(h & 0x7fffffff) % segments.length];
+	}
+
+	/**
+	 * Independently locked part of the cache.
+	 */
+	private class Segment
+	{
+		/**
+		 * Entries ordered from the least recently used.
+		 */
+		final LinkedHashMap<K, V> entries =
+			new LinkedHashMap<K, V>(16, 0.75f, true);
+		/**
+		 * Key usage frequencies.
+		 */
+		final FrequencySketch sketch;
+		/**
+		 * Maximum weight of this segment.
+		 */
+		final long maxWeight;
+		/**
+		 * Current weight of this segment.
+		 */
+		long weight;
+
+		/**
+		 * Constructor.
+		 */
+		Segment(long maxWeight)
+		{
+			this.maxWeight = maxWeight;
+			sketch = new FrequencySketch(
+				(int) Math.min(maxWeight, 1 << 14));
+		}
+
+		/**
+		 * Whether new key with the given weight should be admitted: all
+		 * entries that would be evicted to make room for it must be used less
+		 * frequently. Nothing is evicted here, so a rejected key costs no
+		 * entries.
+		 */
+		boolean admits(K key, long w)
+		{
+			int frequency = sketch.frequency(key.hashCode());
+			long free = maxWeight - weight;
+			Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+			while (free < w)
+			{
+				Map.Entry<K, V> victim = it.next();
+				if (frequency <= sketch.frequency(victim.getKey().hashCode()))
+					return false;
+				free += weigh(victim.getKey(), victim.getValue());
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Count-min sketch with four rows of small saturating counters. When
+	 * enough increments are done, all counters are halved.
+	 */
+	private static class FrequencySketch
+	{
+		/**
+		 * Maximum value of a counter.
+		 */
+		private static final int MAX_COUNT = 15;
+		/**
+		 * Hash seed for each row.
+		 */
+		private static final int[] SEEDS =
+			{0x9E3779B9, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1};
+		/**
+		 * Counters, four rows.
+		 */
+		private final byte[][] table;
+		/**
+		 * Row length - 1, row length is power of 2.
+		 */
+		private final int mask;
+		/**
+		 * Increments left until counters are halved.
+		 */
+		private int untilReset;
+		/**
+		 * Increments between halving.
+		 */
+		private final int sampleSize;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param expected	expected count of distinct frequent keys.
+		 */
+		FrequencySketch(int expected)
+		{
+			int width = Integer.highestOneBit(Math.max(expected, 8) - 1) << 1;
+			table = new byte[4][width];
+			mask = width - 1;
+			sampleSize = 10 * width;
+			untilReset = sampleSize;
+		}
+
+		/**
+		 * Register one more use of the key with the given hash.
+		 */
+		void increment(int hash)
+		{
+			for (int i = 0; i < table.length; i++)
+			{
+				int j = index(hash, i);
+				if (table[i][j] < MAX_COUNT) table[i][j]++;
+			}
+			if (--untilReset <= 0)
+			{
+				for (byte[] row : table)
+					for (int j = 0; j < row.length; j++)
+						row[j] = (byte) (row[j] >> 1);
+				untilReset = sampleSize;
+			}
+		}
+
+		/**
+		 * Estimated count of uses of the key with the given hash.
+		 */
+		int frequency(int hash)
+		{
+			int res = MAX_COUNT;
+			for (int i = 0; i < table.length; i++)
+				res = Math.min(res, table[i][index(hash, i)]);
+			return res;
+		}
+
+		/**
+		 * Counter index for given row.
+		 */
+		private int index(int hash, int row)
+		{
+			int h = hash * SEEDS[row];
+			h ^= h >>> 15;
+			h *= 0x85EBCA6B;
+			h ^= h >>> 13;
+			return h & mask;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package lv.ailab.lnb.fraktur.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Prefix trie over a fixed set of words, kept as a sorted array of these
+ * words: trie node for a prefix is the range of words starting with it. No
+ * node objects are made, nodes are packed into <code>long</code> values, so
+ * walking the trie creates no new objects.
+ *
+ * Instances are not modified after construction, so can be used from several
+ * threads at once.
+ */
+public class PrefixIndex
+{
+	/**
+	 * Value returned by <code>next()</code> when there is no such prefix.
+	 */
+	public static final long NONE = -1L;
+	
+	/**
+	 * Sorted words.
+	 */
+	private final String[] words;
+	
+	/**
+	 * Constructor.
+	 */
+	public PrefixIndex(Collection<String> words)
+	{
+		this.words = words.toArray(new String[words.size()]);
+		Arrays.sort(this.words);
+	}
+	
+	/**
+	 * Node for the empty prefix.
+	 */
+	public long root()
+	{
+		return pack(0, words.length);
+	}
+	
+	/**
+	 * Node for the prefix one character longer than the one given by
+	 * <code>node</code>.
+	 *
+	 * @param node	node for some prefix.
+	 * @param depth	length of that prefix.
+	 * @param c		next character.
+	 * @return	node for the extended prefix or <code>NONE</code>, if no word
+	 *			starts with it.
+	 */
+	public long next(long node, int depth, char c)
+	{
+		int from = (int) (node >>> 32);
+		int to = (int) node;
+		int lower = firstAtLeast(from, to, depth, c);
+		int upper = firstAtLeast(lower, to, depth, c + 1);
+		return lower < upper ? pack(lower, upper) : NONE;
+	}
+	
+	/**
+	 * Count of words in the index.
+	 */
+	public int size()
+	{
+		return words.length;
+	}
+	
+	/**
+	 * Pack range of words into node value.
+	 */
+	private static long pack(int from, int to)
+	{
+		return ((long) from << 32) | to;
+	}
+	
+	/**
+	 * First word in the range, which has character at the given position not
+	 * less than <code>c</code>. Words in the range share prefix of length
+	 * <code>depth</code>, so words that have no character at this position
+	 * go first, and the rest are ordered by the character at this position.
+	 */
+	private int firstAtLeast(int from, int to, int depth, int c)
+	{
+		while (from < to)
+		{
+			int mid = (from + to) >>> 1;
+			String w = words[mid];
+			if (w.length() <= depth || w.charAt(depth) < c) from = mid + 1;
+			else to = mid;
+		}
+		return from;
+	}
+}
@@ -0,0 +1,59 @@
+package lv.ailab.lnb.fraktur.util;
+
+import java.io.IOException;
+
+/**
+ * Helpers for writing XML without building it in memory first.
+ */
+public class XMLUtils
+{
+	/**
+	 * Write text escaped for use both in double-quoted attribute values and
+	 * element content.
+	 * Markup characters, quotes and whitespace other than space are written as
+	 * character references; characters not allowed in XML are replaced with
+	 * U+FFFD.
+	 */
+	public static Appendable escape(Appendable out, CharSequence text)
+	throws IOException
+	{
+		if (text == null) return out;
+		int start = 0;
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			String replacement;
+			switch (c)
+			{
+				case '&': replacement = "&amp;"; break;
+				case '<': replacement = "&lt;"; break;
+				case '>': replacement = "&gt;"; break;
+				case '"': replacement = "&quot;"; break;
+				case '\t': replacement = "&#9;"; break;
+				case '\n': replacement = "&#10;"; break;
+				case '\r': replacement = "&#13;"; break;
+				default:
+					if (c < 0x20 || c == 0xFFFE || c == 0xFFFF
+						|| (Character.isSurrogate(c) && !isPaired(text, i)))
+						replacement = "\uFFFD";
+					else replacement = null;
+			}
+			if (replacement == null) continue;
+			out.append(text, start, i).append(replacement);
+			start = i + 1;
+		}
+		return out.append(text, start, text.length());
+	}
+
+	/**
+	 * Check if the surrogate at the given position is a part of valid pair.
+	 */
+	private static boolean isPaired(CharSequence text, int i)
+	{
+		char c = text.charAt(i);
+		if (Character.isHighSurrogate(c))
+			return i + 1 < text.length()
+				&& Character.isLowSurrogate(text.charAt(i + 1));
+		return i > 0 && Character.isHighSurrogate(text.charAt(i - 1));
+	}
+}
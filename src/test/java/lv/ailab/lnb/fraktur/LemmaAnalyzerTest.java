@@ -0,0 +1,112 @@
+package lv.ailab.lnb.fraktur;
+
+import lv.semti.morphology.analyzer.Analyzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that memoized lemmas are the same as obtained from the analyzer.
+ */
+public class LemmaAnalyzerTest
+{
+	private static final String[] WORDS = {"latviešu", "valoda", "grāmatas",
+		"gāja", "Rīgā", "un", "xyzq", "skolotājiem"};
+
+	private static LemmaAnalyzer uncached;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		uncached = new LemmaAnalyzer(TestResources.analyzer(), 0);
+	}
+
+	@Test
+	public void cachedLemmasMatchAnalyzer() throws Exception
+	{
+		LemmaAnalyzer cached =
+			new LemmaAnalyzer(TestResources.analyzer(), 1024 * 1024);
+		for (int pass = 0; pass < 2; pass++)
+		{
+			for (String word : WORDS)
+			{
+				LemmaAnalyzer.Lemmas expected = uncached.analyze(word);
+				LemmaAnalyzer.Lemmas lemmas = cached.analyze(word);
+				assertEquals(word, expected.trusted, lemmas.trusted);
+				assertEquals(word, expected.guessed, lemmas.guessed);
+				if (pass > 0) assertSame(word, lemmas, cached.analyze(word));
+			}
+		}
+		assertEquals(WORDS.length, cached.cache.missCount());
+		assertEquals(2 * WORDS.length, cached.cache.hitCount());
+		assertTrue(uncached.analyze("valoda").trusted.contains("valoda"));
+	}
+
+	@Test
+	public void cacheIsBoundedByBytes() throws Exception
+	{
+		LemmaAnalyzer cached = new LemmaAnalyzer(TestResources.analyzer(), 2000);
+		for (String word : WORDS) cached.analyze(word);
+		assertTrue(cached.cache.weight() <= 2000);
+		assertTrue(cached.cache.size() < WORDS.length);
+		assertNull(uncached.cache);
+	}
+
+	@Test
+	public void concurrentLemmasMatchSequential() throws Exception
+	{
+		final LemmaAnalyzer pooled = new LemmaAnalyzer(Arrays.asList(
+			TestResources.analyzer(), TestResources.newAnalyzer()), 0);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			ArrayList<Future<LemmaAnalyzer.Lemmas>> results =
+				new ArrayList<Future<LemmaAnalyzer.Lemmas>>();
+			for (int pass = 0; pass < 20; pass++)
+				for (final String word : WORDS)
+					results.add(executor.submit(
+						new Callable<LemmaAnalyzer.Lemmas>()
+						{
+							public LemmaAnalyzer.Lemmas call()
+							{
+								return pooled.analyze(word);
+							}
+						}));
+			for (int i = 0; i < results.size(); i++)
+			{
+				String word = WORDS[i % WORDS.length];
+				LemmaAnalyzer.Lemmas expected = uncached.analyze(word);
+				LemmaAnalyzer.Lemmas lemmas = results.get(i).get();
+				assertEquals(word, expected.trusted, lemmas.trusted);
+				assertEquals(word, expected.guessed, lemmas.guessed);
+			}
+		} finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNoAnalyzers()
+	{
+		new LemmaAnalyzer(new ArrayList<Analyzer>(), 0);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void lemmasCanNotBeChanged() throws Exception
+	{
+		uncached.analyze("valoda").trusted.add("x");
+	}
+}
@@ -0,0 +1,120 @@
+package lv.ailab.lnb.fraktur;
+
+import lv.ailab.lnb.fraktur.translit.Engine;
+import lv.ailab.lnb.fraktur.translit.Rules;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks loading on first use and dropping of idle groups in
+ * <code>RuleGroups</code>.
+ */
+public class RuleGroupsTest
+{
+	@Test
+	public void loadsOnFirstUse() throws Exception
+	{
+		RuleGroups groups = groups(0);
+		assertEquals("[Fraktur, Latin, Missing]", groups.names().toString());
+		assertTrue(groups.contains("Latin"));
+		assertFalse(groups.contains("Core"));
+		assertFalse(groups.isLoaded("Fraktur"));
+		Rules rules = groups.get("Fraktur");
+		assertTrue(groups.isLoaded("Fraktur"));
+		assertFalse(groups.isLoaded("Latin"));
+		assertSame(rules, groups.get("Fraktur"));
+		assertNull(groups.get("Core"));
+		assertFalse(groups.isLoaded("Core"));
+		assertEquals(0, groups.evictIdle());
+		assertTrue(groups.isLoaded("Fraktur"));
+	}
+
+	@Test
+	public void concurrentCallersShareRules() throws Exception
+	{
+		final RuleGroups groups = groups(0);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			ArrayList<Future<Rules>> results = new ArrayList<Future<Rules>>();
+			for (int i = 0; i < 16; i++)
+				results.add(executor.submit(new Callable<Rules>()
+				{
+					public Rules call()
+					{
+						return groups.get("Latin");
+					}
+				}));
+			for (Future<Rules> result : results)
+				assertSame(results.get(0).get(), result.get());
+		} finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void dropsIdleGroups() throws Exception
+	{
+		RuleGroups groups = groups(500);
+		Rules rules = groups.get("Fraktur");
+		groups.get("Latin");
+		assertEquals(0, groups.evictIdle());
+		Thread.sleep(1000);
+		groups.get("Latin");
+		// Checked on request, Latin was just used.
+		assertFalse(groups.isLoaded("Fraktur"));
+		assertTrue(groups.isLoaded("Latin"));
+		Thread.sleep(1000);
+		assertEquals(1, groups.evictIdle());
+		assertFalse(groups.isLoaded("Latin"));
+
+		Rules reloaded = groups.get("Fraktur");
+		assertNotSame(rules, reloaded);
+		// Reloaded rules are not idle, though the group was.
+		assertEquals(0, groups.evictIdle());
+		assertTrue(groups.isLoaded("Fraktur"));
+		assertEquals(Engine.transform("ſchee", rules, true),
+			Engine.transform("ſchee", reloaded, true));
+	}
+
+	@Test
+	public void namesGroupOfBrokenFile()
+	{
+		RuleGroups groups = groups(0);
+		try
+		{
+			groups.get("Missing");
+		} catch (IllegalArgumentException e)
+		{
+			assertTrue(e.getMessage().contains("\"Missing\""));
+			assertFalse(groups.isLoaded("Missing"));
+			return;
+		}
+		throw new AssertionError("Missing rule file was loaded.");
+	}
+
+	private static RuleGroups groups(long idleMillis)
+	{
+		LinkedHashMap<String, File> files = new LinkedHashMap<String, File>();
+		files.put("Fraktur", new File("res/rules/fraktur.xml"));
+		files.put("Latin", new File("res/rules/latin.xml"));
+		files.put("Missing", new File("res/rules/missing.xml"));
+		return new RuleGroups(files, idleMillis);
+	}
+}
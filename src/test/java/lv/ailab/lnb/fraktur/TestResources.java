@@ -0,0 +1,211 @@
+package lv.ailab.lnb.fraktur;
+
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.semti.morphology.analyzer.Analyzer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Resources shared by tests. N-gram statistics are not distributed with the
+ * sources, so tests use models made of random data.
+ */
+public class TestResources
+{
+	/**
+	 * Vocabulary of the N-gram models.
+	 */
+	public static final String VOCABULARY = "res/ngrams/vocabulary.txt";
+
+	/**
+	 * Morphological analyzer shared by all tests, as loading it is slow.
+	 */
+	private static Analyzer analyzer;
+
+	/**
+	 * Morphological analyzer with the lexicon from the morphology library,
+	 * set up as the transliterator does.
+	 */
+	public static synchronized Analyzer analyzer() throws Exception
+	{
+		if (analyzer == null) analyzer = newAnalyzer();
+		return analyzer;
+	}
+
+	/**
+	 * Morphological analyzer set up as <code>analyzer()</code>, but not
+	 * shared, so it loads its own lexicon.
+	 */
+	public static Analyzer newAnalyzer() throws Exception
+	{
+		Analyzer res = new Analyzer(false);
+		res.enableDiminutive = true;
+		res.enablePrefixes = true;
+		res.enableVocative = true;
+		res.enableGuessing = true;
+		res.enableAllGuesses = true;
+		return res;
+	}
+
+	/**
+	 * Write path file for a transliterator: settings from the path file in
+	 * the project directory, but with random N-gram model and with the given
+	 * changes.
+	 *
+	 * @param dir		directory where to put the files.
+	 * @param changes	changed settings, key followed by value.
+	 * @return	path to the new path file.
+	 */
+	public static String pathFile(File dir, String... changes)
+	throws IOException
+	{
+		Properties paths = new Properties();
+		InputStreamReader in = new InputStreamReader(
+			new FileInputStream("path.conf"), "UTF8");
+		try
+		{
+			paths.load(in);
+		} finally
+		{
+			in.close();
+		}
+		int level = Integer.parseInt(paths.getProperty("ngramLevel"));
+		paths.setProperty("ngramStats", nGramModel(dir, level).getPath());
+		for (int i = 0; i + 1 < changes.length; i += 2)
+			paths.setProperty(changes[i], changes[i + 1]);
+
+		File file = File.createTempFile("path", ".conf", dir);
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF8");
+		try
+		{
+			paths.store(out, null);
+		} finally
+		{
+			out.close();
+		}
+		return file.getPath();
+	}
+
+	/**
+	 * Tokens from the first column of a corpus file in test resources.
+	 *
+	 * @param name	file name.
+	 * @param max	maximum count of tokens to read.
+	 */
+	public static List<String> corpus(String name, int max) throws IOException
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			TestResources.class.getResourceAsStream("/" + name), "UTF8"));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null && res.size() < max)
+			{
+				line = line.split("\t")[0].trim();
+				if (line.length() > 0) res.add(line);
+			}
+		} finally
+		{
+			in.close();
+		}
+		return res;
+	}
+
+	/**
+	 * Write text N-gram file with random data for all vocabulary items and
+	 * some random longer N-grams of each level. The same file is made for the
+	 * same level each time.
+	 *
+	 * @param dir	directory where to put the file.
+	 * @param level	length of the longest N-grams.
+	 */
+	public static File nGramModel(File dir, int level) throws IOException
+	{
+		ArrayList<String> items = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			new FileInputStream(VOCABULARY), "UTF8"));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+				if (line.trim().length() > 0) items.add(line.trim());
+		} finally
+		{
+			in.close();
+		}
+
+		Random random = new Random(3);
+		File file = new File(dir, "model" + level + ".txt");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF8"));
+		try
+		{
+			out.println("\\data\\");
+			out.println("ngram 1=" + items.size());
+			out.println();
+			for (int n = 1; n <= level; n++)
+			{
+				out.println("\\" + n + "-grams:");
+				int count = n == 1 ? items.size() : 400;
+				for (int i = 0; i < count; i++)
+				{
+					StringBuilder nGram = new StringBuilder(
+						n == 1 ? items.get(i) : pick(items, random));
+					for (int j = 1; j < n; j++)
+						nGram.append(' ').append(pick(items, random));
+					out.print(format(score(random)) + "\t" + nGram);
+					if (n < level && random.nextBoolean())
+						out.print("\t" + format(score(random)));
+					out.println();
+				}
+				out.println();
+			}
+			out.println("\\end\\");
+		} finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Evaluator with random N-gram model of the given level.
+	 */
+	public static VariantEvaluator evaluator(File dir, int level)
+	throws IOException
+	{
+		return new VariantEvaluator(null, null, null, VOCABULARY,
+			nGramModel(dir, level).getPath(), level);
+	}
+
+	/**
+	 * Random logarithmic score with 4 decimal digits, as in N-gram files.
+	 */
+	public static double score(Random random)
+	{
+		return Double.parseDouble(format(-5 * random.nextDouble()));
+	}
+
+	private static String format(double score)
+	{
+		return String.format(Locale.ROOT, "%.4f", score);
+	}
+
+	private static String pick(ArrayList<String> items, Random random)
+	{
+		return items.get(random.nextInt(items.size()));
+	}
+}
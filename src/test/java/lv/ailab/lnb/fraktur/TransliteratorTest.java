@@ -0,0 +1,456 @@
+package lv.ailab.lnb.fraktur;
+
+import lv.ailab.lnb.fraktur.translit.ResultData;
+import lv.ailab.lnb.fraktur.translit.Variant;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks processing of words with a transliterator made from the project
+ * resources.
+ */
+public class TransliteratorTest
+{
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static Transliterator translit;
+	private static List<String> tokens;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		translit = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "threads", "4"),
+			TestResources.analyzer());
+		tokens = TestResources.corpus("aarste6-1kol.txt", 150);
+	}
+
+	@Test
+	public void parallelResultsInInputOrder() throws Exception
+	{
+		Transliterator uncached = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "resultCache", "0"),
+			TestResources.analyzer());
+		ArrayList<String> expected = new ArrayList<String>();
+		for (String token : tokens)
+			expected.add(describe(uncached.processWord(token, "Fraktur", true)));
+
+		assertEquals(expected,
+			describe(translit.processWords(tokens, "Fraktur", true)));
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try
+		{
+			assertEquals(expected, describe(translit.processWords(
+				tokens, "Fraktur", true, executor, 3)));
+		} finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void countsTokenFrequencies()
+	{
+		LinkedHashMap<String, Integer> expected =
+			new LinkedHashMap<String, Integer>();
+		expected.put("Un", 2);
+		expected.put("un", 1);
+		expected.put("ſchee", 1);
+		LinkedHashMap<String, Integer> counts = Transliterator.tokenFrequencies(
+			Arrays.asList("Un", " un", null, "", "Un ", "ſchee", "  "));
+		assertEquals(expected, counts);
+		assertEquals(new ArrayList<String>(expected.keySet()),
+			new ArrayList<String>(counts.keySet()));
+	}
+
+	@Test
+	public void documentResultsInInputOrder() throws Exception
+	{
+		ArrayList<String> document = new ArrayList<String>(tokens);
+		document.addAll(tokens.subList(0, 20));
+		document.add(null);
+		document.add(" " + tokens.get(3));
+		ArrayList<String> expected = new ArrayList<String>();
+		for (String token : document)
+			expected.add(token == null ? null
+				: describe(translit.processWord(token, "Fraktur", false)));
+
+		for (ArrayList<ResultData> results : Arrays.asList(
+			translit.processDocument(document, "Fraktur", false),
+			translit.processDocument(document, "Fraktur", false, null, 1)))
+		{
+			assertEquals(expected, describe(results));
+			// Repeated tokens share the result.
+			assertSame(results.get(0), results.get(tokens.size()));
+			assertSame(results.get(3), results.get(document.size() - 1));
+		}
+	}
+
+	@Test
+	public void variantIsSharedAmongCategories() throws Exception
+	{
+		for (String token : tokens)
+		{
+			ResultData data = translit.processWord(token, "Fraktur", true);
+			HashMap<String, Variant> seen = new HashMap<String, Variant>();
+			for (ResultData.ResultDataWithDic category : new ResultData
+				.ResultDataWithDic[] {data.DICT_EXACT, data.DICT_EXACT_GUESS,
+				data.DICT_FUZZY, data.DICT_FUZZY_GUESS})
+				for (Variant v : category.data.keySet()) same(seen, v);
+			for (Variant v : data.NO_DICT_EXACT) same(seen, v);
+			for (Variant v : data.NO_DICT_FUZZY) same(seen, v);
+		}
+	}
+
+	@Test
+	public void pruningKeepsDictionaryVariants() throws Exception
+	{
+		Transliterator pruned = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "prunePrefixes", "true",
+				"suffixTolerance", "4", "resultCache", "0"),
+			TestResources.analyzer());
+		for (String token : tokens)
+		{
+			ResultData all = translit.processWord(token, "Fraktur", false);
+			ResultData some = pruned.processWord(token, "Fraktur", false);
+			assertEquals(token, all.DICT_EXACT.data.keySet(),
+				some.DICT_EXACT.data.keySet());
+			assertTrue(token, all.NO_DICT_EXACT.containsAll(some.NO_DICT_EXACT));
+		}
+		// Nothing is left after pruning, so all variants are given.
+		String token = "Qxqxqxqxſchee";
+		assertTrue(variants(translit.processWord(token, "Fraktur", true)).size()
+			> variants(translit.processWord(token, "Fraktur", false)).size());
+		for (boolean fuzzy : new boolean[] {false, true})
+			assertEquals(describe(translit.processWord(token, "Fraktur", fuzzy)),
+				describe(pruned.processWord(token, "Fraktur", fuzzy)));
+	}
+
+	@Test
+	public void limitedResultsAreTruncated() throws Exception
+	{
+		Transliterator limited = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "maxVariants", "3",
+				"resultCache", "0"),
+			TestResources.analyzer());
+		int truncated = 0;
+		for (String token : tokens)
+		{
+			ResultData all = translit.processWord(token, "Fraktur", true);
+			ResultData some = limited.processWord(token, "Fraktur", true);
+			int count = variants(all).size();
+			assertEquals(token, count > 3, some.truncated);
+			assertEquals(token, some.truncated, describe(some).contains(
+				"<transliterations truncated=\"true\""));
+			assertFalse(token, all.truncated);
+			assertEquals(token, Math.min(count, 3), variants(some).size());
+			assertTrue(token, variants(all).containsAll(variants(some)));
+			if (some.truncated) truncated++;
+			// Skipped variants are counted within the limit.
+			ResultData best = limited.processWordBest(token, "Fraktur", true);
+			assertTrue(token, variants(best).size() + best.skipped <= 3);
+		}
+		assertTrue(truncated > 0);
+	}
+
+	@Test
+	public void truncatedResultsAreNotCached() throws Exception
+	{
+		Transliterator limited = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "maxVariants", "3"),
+			TestResources.analyzer());
+		int truncated = 0;
+		HashSet<String> cached = new HashSet<String>();
+		for (String token : tokens)
+		{
+			ResultData first = limited.processWord(token, "Fraktur", true);
+			long misses = limited.resultCache.missCount();
+			ResultData second = limited.processWord(token, "Fraktur", true);
+			assertEquals(token, contents(first), contents(second));
+			if (first.truncated)
+			{
+				// Computed again, not taken from the cache.
+				assertEquals(token, misses + 1,
+					limited.resultCache.missCount());
+				truncated++;
+			}
+			else
+			{
+				assertEquals(token, misses, limited.resultCache.missCount());
+				cached.add(token.trim());
+			}
+		}
+		assertTrue(truncated > 0);
+		assertEquals(cached.size(), limited.resultCache.size());
+	}
+
+	@Test
+	public void bestAnswerStopsAtExactDictionaryWord() throws Exception
+	{
+		int found = 0;
+		for (String token : tokens)
+		{
+			ResultData all = translit.processWord(token, "Fraktur", true);
+			ResultData best = translit.processWordBest(token, "Fraktur", true);
+			int processed = variants(best).size();
+			assertEquals(token, variants(all).size(), processed + best.skipped);
+			assertTrue(token, variants(all).containsAll(variants(best)));
+			if (all.DICT_EXACT.data.isEmpty())
+			{
+				// Nothing to stop at, so all variants are processed.
+				assertEquals(token, contents(all), contents(best));
+				continue;
+			}
+			found++;
+			assertEquals(token, 1, best.DICT_EXACT.data.size());
+			Variant hit = best.DICT_EXACT.data.keySet().iterator().next();
+			assertTrue(token, all.DICT_EXACT.data.containsKey(hit));
+			// Fuzzy variants come after exact ones.
+			assertTrue(token, best.DICT_FUZZY.data.isEmpty());
+			assertTrue(token, best.NO_DICT_FUZZY.isEmpty());
+		}
+		assertTrue(found > 0);
+		assertEquals(null, translit.processWordBest(" ", "Fraktur", true));
+		assertEquals(null, translit.processWordBest("un", "Gothic", true));
+	}
+
+	@Test
+	public void cachedResultsAreCopies() throws Exception
+	{
+		String token = tokens.get(0);
+		ResultData first = translit.processWord(token, "Fraktur", true);
+		String expected = describe(first);
+		ResultData second = translit.processWord(token, "Fraktur", true);
+		assertNotSame(first, second);
+		for (List<Tuple<String, Properties[]>> lemmas
+			: first.DICT_EXACT.data.values())
+			lemmas.clear();
+		first.DICT_EXACT_GUESS.data.clear();
+		first.NO_DICT_EXACT.clear();
+		first.NO_DICT_FUZZY.add(new Variant("changed", null));
+		first.truncated = true;
+		assertEquals(expected, describe(second));
+		assertEquals(expected,
+			describe(translit.processWord(token, "Fraktur", true)));
+	}
+
+	@Test
+	public void closedInstanceWorksInCallingThread() throws Exception
+	{
+		Transliterator closed = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "threads", "2"),
+			TestResources.analyzer());
+		closed.close();
+		closed.close();
+		List<String> some = tokens.subList(0, 20);
+		assertEquals(describe(translit.processWords(some, "Fraktur", true)),
+			describe(closed.processWords(some, "Fraktur", true)));
+		assertEquals(describe(translit.processDocument(some, "Fraktur", true)),
+			describe(closed.processDocument(some, "Fraktur", true)));
+	}
+
+	@Test
+	public void interruptedBatchIsCancelled() throws Exception
+	{
+		final AtomicInteger calls = new AtomicInteger();
+		Transliterator counting = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "threads", "1"),
+			TestResources.analyzer())
+		{
+			@Override
+			public ResultData processWord(
+				String token, String group, boolean useFuzzy)
+			{
+				calls.incrementAndGet();
+				return super.processWord(token, group, useFuzzy);
+			}
+		};
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			// Keep the only thread busy, so that no token is processed.
+			executor.submit(new Callable<Object>()
+			{
+				public Object call() throws Exception
+				{
+					return release.await(10, TimeUnit.SECONDS);
+				}
+			});
+			Thread.currentThread().interrupt();
+			try
+			{
+				counting.processWords(tokens, "Fraktur", true, executor, 1);
+				throw new AssertionError("Interrupt was ignored.");
+			} catch (InterruptedException e)
+			{
+				// Expected.
+			}
+			release.countDown();
+		} finally
+		{
+			executor.shutdown();
+			counting.close();
+		}
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, calls.get());
+	}
+
+	@Test
+	public void instancesAreIndependent() throws Exception
+	{
+		Transliterator other = new Transliterator(
+			TestResources.pathFile(folder.getRoot(), "groups", "Latin"),
+			TestResources.analyzer());
+		assertNotSame(translit.dict, other.dict);
+		assertEquals(1, other.ruleSets().size());
+		assertEquals(4, translit.ruleSets().size());
+	}
+
+	@Test
+	public void reportsStartupTimes()
+	{
+		LinkedHashMap<String, Long> times = translit.startupTimes();
+		// No groups are preloaded.
+		for (String group : translit.ruleSets())
+			assertFalse(group, times.containsKey("rules " + group));
+		assertTrue(times.containsKey("dictionaries"));
+		assertTrue(times.containsKey("n-grams"));
+		// Analyzer was given, so it was not loaded.
+		assertFalse(times.containsKey("morphology"));
+		long total = times.remove("total");
+		for (long time : times.values()) assertTrue(time <= total);
+		assertTrue(translit.startupReport().startsWith("Startup times:"));
+	}
+
+	@Test
+	public void preloadsGroups() throws Exception
+	{
+		Transliterator preloading = new Transliterator(
+			TestResources.pathFile(folder.getRoot(),
+				"preloadGroups", "Latin, Fraktur"),
+			TestResources.analyzer());
+		LinkedHashMap<String, Long> times = preloading.startupTimes();
+		assertTrue(times.containsKey("rules Latin"));
+		assertTrue(times.containsKey("rules Fraktur"));
+		assertFalse(times.containsKey("rules Fraktur_Double"));
+		assertEquals(describe(translit.processWord("ſchee", "Latin", true)),
+			describe(preloading.processWord("ſchee", "Latin", true)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownPreloadGroup() throws Exception
+	{
+		new Transliterator(TestResources.pathFile(folder.getRoot(),
+				"preloadGroups", "Gothic"),
+			TestResources.analyzer());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rethrowsLoadingErrors() throws Exception
+	{
+		new Transliterator(TestResources.pathFile(folder.getRoot(),
+				"dictDir", "res/missing"),
+			TestResources.analyzer());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void ruleSetsAreReadOnly()
+	{
+		translit.ruleSets().clear();
+	}
+
+	/**
+	 * Variants of each result category with their lemmas, in a form that
+	 * does not depend on the order variants were added in.
+	 */
+	private static List<TreeMap<String, String>> contents(ResultData data)
+	{
+		ArrayList<TreeMap<String, String>> res =
+			new ArrayList<TreeMap<String, String>>();
+		for (ResultData.ResultDataWithDic category : new ResultData
+			.ResultDataWithDic[] {data.DICT_EXACT, data.DICT_EXACT_GUESS,
+			data.DICT_FUZZY, data.DICT_FUZZY_GUESS})
+		{
+			TreeMap<String, String> variants = new TreeMap<String, String>();
+			for (Map.Entry<Variant, ArrayList<Tuple<String, Properties[]>>> e
+				: category.data.entrySet())
+			{
+				StringBuilder lemmas = new StringBuilder();
+				for (Tuple<String, Properties[]> lemma : e.getValue())
+					lemmas.append(lemma.first).append(' ')
+						.append(lemma.second.length).append(';');
+				variants.put(e.getKey().token, lemmas.toString());
+			}
+			res.add(variants);
+		}
+		TreeMap<String, String> exact = new TreeMap<String, String>();
+		for (Variant v : data.NO_DICT_EXACT) exact.put(v.token, "");
+		res.add(exact);
+		TreeMap<String, String> fuzzy = new TreeMap<String, String>();
+		for (Variant v : data.NO_DICT_FUZZY) fuzzy.put(v.token, "");
+		res.add(fuzzy);
+		return res;
+	}
+
+	/**
+	 * All variants in the result.
+	 */
+	private static HashSet<String> variants(ResultData data)
+	{
+		HashSet<String> res = new HashSet<String>();
+		for (ResultData.ResultDataWithDic category : new ResultData
+			.ResultDataWithDic[] {data.DICT_EXACT, data.DICT_EXACT_GUESS,
+			data.DICT_FUZZY, data.DICT_FUZZY_GUESS})
+			for (Variant v : category.data.keySet()) res.add(v.token);
+		for (Variant v : data.NO_DICT_EXACT) res.add(v.token);
+		for (Variant v : data.NO_DICT_FUZZY) res.add(v.token);
+		return res;
+	}
+
+	private static void same(HashMap<String, Variant> seen, Variant v)
+	{
+		if (!seen.containsKey(v.token)) seen.put(v.token, v);
+		assertSame(v.token, seen.get(v.token), v);
+	}
+
+	private static String describe(ResultData data)
+	{
+		return data.toXML(translit.getDictIdKey(), translit.getEntryUrlKey(),
+			translit.comparator);
+	}
+
+	private static List<String> describe(List<ResultData> data)
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		for (ResultData d : data) res.add(d == null ? null : describe(d));
+		return res;
+	}
+}
@@ -0,0 +1,246 @@
+package lv.ailab.lnb.fraktur;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks word lookups and dictionary bitmasks of <code>WordList</code>.
+ */
+public class WordListTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsDictionariesOfWords() throws Exception
+	{
+		WordList list = new WordList();
+		add(list, "A", "Ābele", "māja", "māja", "un");
+		add(list, "B", "MĀJA", "galds");
+		Properties[] a = dictionaries(list, "ābele");
+		Properties[] both = dictionaries(list, "Māja");
+
+		assertEquals(4, list.wordCount());
+		assertTrue(list.containsWord("ĀBELE"));
+		assertFalse(list.containsWord("ābel"));
+		assertEquals(1, list.countDict("ābele"));
+		// Word repeated in one list is reported once.
+		assertEquals(2, list.countDict("māja"));
+		assertEquals(0, list.countDict("krēsls"));
+		assertNull(list.dictionaries("krēsls"));
+		assertEquals(1, a.length);
+		assertEquals("A", a[0].getProperty("id"));
+		assertEquals(2, both.length);
+		assertEquals("A", both[0].getProperty("id"));
+		assertEquals("B", both[1].getProperty("id"));
+		assertEquals("B.txt", both[1].getProperty("dataFile"));
+		// Words in the same dictionaries share the array.
+		assertSame(a, list.dictionaries("un"));
+		assertEquals(2, list.allDictionaries().size());
+	}
+
+	@Test
+	public void keepsWordsWhenGrowing() throws Exception
+	{
+		WordList list = new WordList();
+		String[] many = new String[5000];
+		for (int i = 0; i < many.length; i++) many[i] = "vārds" + i;
+		add(list, "A", many);
+		String[] even = new String[many.length / 2];
+		for (int i = 0; i < even.length; i++) even[i] = many[2 * i];
+		add(list, "B", even);
+
+		assertEquals(many.length, list.wordCount());
+		for (int i = 0; i < many.length; i++)
+			assertEquals(many[i], i % 2 == 0 ? 2 : 1, list.countDict(many[i]));
+		assertFalse(list.containsWord("vārds" + many.length));
+	}
+
+	@Test
+	public void projectDictionariesMatchWordSets() throws Exception
+	{
+		WordList list = new WordList();
+		HashMap<String, HashSet<String>> expected =
+			new HashMap<String, HashSet<String>>();
+		for (File f : new File("res/dict").listFiles())
+		{
+			if (!f.getName().endsWith(".txt")) continue;
+			String base = f.getPath().substring(0, f.getPath().length() - 4);
+			list.addDictionary(f, new File(base + ".conf"));
+			for (String word : read(f))
+			{
+				if (!expected.containsKey(word))
+					expected.put(word, new HashSet<String>());
+				expected.get(word).add(f.getName());
+			}
+		}
+
+		assertEquals(expected.size(), list.wordCount());
+		for (Map.Entry<String, HashSet<String>> e : expected.entrySet())
+		{
+			HashSet<String> files = new HashSet<String>();
+			for (Properties dict : list.dictionaries(e.getKey()))
+				files.add(dict.getProperty("dataFile"));
+			assertEquals(e.getKey(), e.getValue(), files);
+		}
+	}
+
+	@Test
+	public void parallelLoadingMatchesSequential() throws Exception
+	{
+		WordList expected = new WordList();
+		ArrayList<File> wordlists = new ArrayList<File>();
+		ArrayList<File> attributes = new ArrayList<File>();
+		for (File f : new File("res/dict").listFiles())
+		{
+			if (!f.getName().endsWith(".txt")) continue;
+			String base = f.getPath().substring(0, f.getPath().length() - 4);
+			expected.addDictionary(f, new File(base + ".conf"));
+			wordlists.add(f);
+			attributes.add(new File(base + ".conf"));
+		}
+		// No line break at the end of file.
+		File last = folder.newFile("Z.txt");
+		FileOutputStream out = new FileOutputStream(last);
+		try
+		{
+			out.write("vārds\r\npēdējais".getBytes("UTF8"));
+		} finally
+		{
+			out.close();
+		}
+		expected.addDictionary(last, write("Z.conf", "id=Z"));
+		wordlists.add(last);
+		attributes.add(new File(folder.getRoot(), "Z.conf"));
+
+		WordList list = new WordList();
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try
+		{
+			list.addDictionaries(wordlists, attributes, executor);
+		} finally
+		{
+			executor.shutdown();
+		}
+		assertEquals(expected.wordCount(), list.wordCount());
+		assertEquals(expected.prefixIndex().size(), list.prefixIndex().size());
+		assertTrue(list.containsWord("pēdējais"));
+		for (File f : wordlists)
+		{
+			for (String word : read(f))
+				assertEquals(word, files(expected.dictionaries(word)),
+					files(list.dictionaries(word)));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void parallelLoadingRethrowsErrors() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			new WordList().addDictionaries(
+				Arrays.asList(new File(folder.getRoot(), "missing.txt")),
+				Arrays.asList(new File(folder.getRoot(), "missing.conf")),
+				executor);
+		} finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTooManyDictionaries() throws Exception
+	{
+		WordList list = new WordList();
+		for (int i = 0; i <= WordList.MAX_DICTIONARIES; i++)
+			add(list, "D" + i, "vārds");
+	}
+
+	private static Properties[] dictionaries(WordList list, String word)
+	{
+		Properties[] res = list.dictionaries(word);
+		assertArrayEquals(res, list.dictionaries(word.toUpperCase()));
+		return res;
+	}
+
+	/**
+	 * Data files of the given dictionaries, in the same order.
+	 */
+	private static ArrayList<String> files(Properties[] dicts)
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		for (Properties dict : dicts) res.add(dict.getProperty("dataFile"));
+		return res;
+	}
+
+	/**
+	 * Write wordlist and its attribute file and add them to the list.
+	 */
+	private void add(WordList list, String id, String... words)
+	throws Exception
+	{
+		File wordlist = write(id + ".txt", words);
+		list.addDictionary(wordlist, write(id + ".conf", "id=" + id));
+	}
+
+	private File write(String name, String... lines) throws Exception
+	{
+		File file = folder.newFile(name);
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF8"));
+		try
+		{
+			for (String line : lines) out.println(line);
+		} finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	private static ArrayList<String> read(File file) throws Exception
+	{
+		ArrayList<String> res = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			new FileInputStream(file), "UTF8"));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				line = line.trim().toLowerCase();
+				if (line.length() > 0) res.add(line);
+			}
+		} finally
+		{
+			in.close();
+		}
+		return res;
+	}
+}
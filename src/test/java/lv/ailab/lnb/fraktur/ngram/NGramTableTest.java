@@ -0,0 +1,269 @@
+package lv.ailab.lnb.fraktur.ngram;
+
+import lv.ailab.lnb.fraktur.TestResources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that N-gram lookups give the same data from the hash table and from
+ * the memory-mapped binary file as the text N-gram file they are made of.
+ */
+public class NGramTableTest
+{
+	private static final String[] TOKENS = {"a", "latweeschu", "Ahrstes",
+		"schee", "x?q", "ŗūķis", "zzzz", "wiſſeem"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void tableMatchesMap()
+	{
+		Random random = new Random(1);
+		HashMap<Long, double[]> expected = new HashMap<Long, double[]>();
+		NGramTable table = new NGramTable();
+		// Enough keys for the table to grow several times.
+		for (int i = 0; i < 5000; i++)
+		{
+			long key = 1 + (random.nextLong() >>> 1);
+			double[] data = {score(random), score(random)};
+			expected.put(key, data);
+			table.put(key, data[0], data[1]);
+		}
+		// Replaced data.
+		for (Map.Entry<Long, double[]> e : expected.entrySet())
+		{
+			double[] data = {score(random), 0};
+			e.setValue(data);
+			table.put(e.getKey(), data[0], data[1]);
+			if (random.nextInt(4) == 0) break;
+		}
+
+		assertEquals(expected.size(), table.size());
+		for (Map.Entry<Long, double[]> e : expected.entrySet())
+		{
+			int slot = table.find(e.getKey());
+			assertTrue(slot >= 0);
+			assertEquals(e.getValue()[0], table.prob(slot), 0);
+			assertEquals(e.getValue()[1], table.backoff(e.getKey()), 0);
+		}
+		for (int i = 0; i < 1000; i++)
+		{
+			long key = 1 + (random.nextLong() >>> 1);
+			if (expected.containsKey(key)) continue;
+			assertEquals(-1, table.find(key));
+			assertEquals(0, table.backoff(key), 0);
+		}
+	}
+
+	@Test
+	public void evaluatorMatchesStringModel() throws Exception
+	{
+		for (int level : new int[] {3, 5})
+		{
+			File text = TestResources.nGramModel(folder.getRoot(), level);
+			StringModel expected = new StringModel(text.getPath(), level);
+			VariantEvaluator evaluator = new VariantEvaluator(null, null, null,
+				TestResources.VOCABULARY, text.getPath(), level);
+			for (String token : TOKENS)
+			{
+				double score = expected.evaluate(token);
+				assertEquals(token, score, evaluator.evaluateToken(token), 0);
+				VariantEvaluator.Partial partial = evaluator.begin();
+				for (char c : token.toCharArray())
+					partial = evaluator.extend(partial, c);
+				assertEquals(token, score, evaluator.finish(partial), 0);
+			}
+		}
+	}
+
+	@Test
+	public void mappedTableMatchesTable() throws Exception
+	{
+		Random random = new Random(2);
+		NGramTable table = new NGramTable();
+		for (int i = 0; i < 3000; i++)
+			table.put(1 + (random.nextLong() >>> 1), score(random),
+				random.nextBoolean() ? score(random) : 0);
+		int[] charIds = new int['z' + 1];
+		charIds['a'] = 4;
+		charIds['z'] = 5;
+		File file = folder.newFile("table.bin");
+		MappedNGramTable.write(file.getPath(), table, charIds, 6, 4);
+
+		assertTrue(MappedNGramTable.isBinary(file.getPath()));
+		MappedNGramTable mapped = new MappedNGramTable(file.getPath());
+		assertEquals(4, mapped.level);
+		assertEquals(6, mapped.bits);
+		assertArrayEquals(charIds, mapped.charIds);
+		assertEquals(table.size(), mapped.size());
+		for (long key : table.sortedKeys())
+		{
+			int slot = mapped.find(key);
+			assertTrue(slot >= 0);
+			assertEquals(table.prob(table.find(key)), mapped.prob(slot), 0);
+			assertEquals(table.backoff(key), mapped.backoff(key), 0);
+		}
+		for (int i = 0; i < 1000; i++)
+		{
+			long key = 1 + (random.nextLong() >>> 1);
+			if (table.find(key) >= 0) continue;
+			assertEquals(-1, mapped.find(key));
+			assertEquals(0, mapped.backoff(key), 0);
+		}
+	}
+
+	@Test
+	public void binaryModelMatchesTextModel() throws Exception
+	{
+		for (int level : new int[] {3, 5})
+		{
+			File text = TestResources.nGramModel(folder.getRoot(), level);
+			File binary = new File(folder.getRoot(), "model" + level + ".bin");
+			VariantEvaluator fromText = new VariantEvaluator(null, null, null,
+				TestResources.VOCABULARY, text.getPath(), level);
+			fromText.writeBinary(binary.getPath());
+			VariantEvaluator fromBinary = new VariantEvaluator(null, null,
+				null, TestResources.VOCABULARY, binary.getPath(), level);
+
+			for (String token : TOKENS)
+			{
+				double expected = fromText.evaluateToken(token);
+				assertEquals(token, expected,
+					fromBinary.evaluateToken(token), 0);
+				VariantEvaluator.Partial partial = fromBinary.begin();
+				for (char c : token.toCharArray())
+					partial = fromBinary.extend(partial, c);
+				assertEquals(token, expected, fromBinary.finish(partial), 0);
+			}
+		}
+	}
+
+	@Test
+	public void binaryModelOfOtherLevelIsRejected() throws Exception
+	{
+		File text = TestResources.nGramModel(folder.getRoot(), 5);
+		File binary = new File(folder.getRoot(), "model5.bin");
+		new VariantEvaluator(null, null, null, TestResources.VOCABULARY,
+			text.getPath(), 5).writeBinary(binary.getPath());
+		for (int level : new int[] {3, 6})
+		{
+			try
+			{
+				new VariantEvaluator(null, null, null,
+					TestResources.VOCABULARY, binary.getPath(), level);
+			} catch (IllegalArgumentException e)
+			{
+				assertTrue(e.getMessage().contains("5-grams"));
+				continue;
+			}
+			throw new AssertionError(
+				"5-gram model was used as " + level + "-gram model.");
+		}
+	}
+
+	/**
+	 * Random score as in N-gram files.
+	 */
+	private static double score(Random random)
+	{
+		return TestResources.score(random);
+	}
+
+	/**
+	 * N-gram model keyed by N-gram strings, evaluated with the back-off
+	 * recursion: probability of the N-gram, if it is given, or back-off
+	 * weight of its prefix added to probability of its suffix.
+	 */
+	private static class StringModel
+	{
+		private final HashSet<String> vocab = new HashSet<String>();
+		private final HashMap<String, Double> prob =
+			new HashMap<String, Double>();
+		private final HashMap<String, Double> backoff =
+			new HashMap<String, Double>();
+		private final int level;
+
+		StringModel(String file, int level) throws Exception
+		{
+			this.level = level;
+			for (String line : read(TestResources.VOCABULARY))
+				if (line.length() == 1) vocab.add(line);
+			for (String line : read(file))
+			{
+				String[] split = line.split("\t");
+				if (split.length < 2) continue;
+				prob.put(split[1], Double.parseDouble(split[0]));
+				if (split.length > 2)
+					backoff.put(split[1], Double.parseDouble(split[2]));
+			}
+		}
+
+		double evaluate(String token)
+		{
+			ArrayList<String> items = new ArrayList<String>();
+			items.add("<s>");
+			for (char c : token.toLowerCase().toCharArray())
+				items.add(vocab.contains(String.valueOf(c))
+					? String.valueOf(c) : "<unk>");
+			items.add("</s>");
+			double res = 0;
+			for (int pos = 1; pos < items.size(); pos++)
+				res += prob(items, pos - Math.min(pos + 1, level) + 1, pos);
+			return res;
+		}
+
+		/**
+		 * Probability of the N-gram of items from first to last.
+		 */
+		private double prob(ArrayList<String> items, int first, int last)
+		{
+			String nGram = join(items, first, last);
+			if (prob.containsKey(nGram) || first == last)
+				return prob.get(nGram);
+			Double weight = backoff.get(join(items, first, last - 1));
+			return (weight == null ? 0 : weight)
+				+ prob(items, first + 1, last);
+		}
+
+		private static String join(ArrayList<String> items, int first, int last)
+		{
+			StringBuilder res = new StringBuilder(items.get(first));
+			for (int i = first + 1; i <= last; i++)
+				res.append(' ').append(items.get(i));
+			return res.toString();
+		}
+
+		private static ArrayList<String> read(String file) throws Exception
+		{
+			ArrayList<String> res = new ArrayList<String>();
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF8"));
+			try
+			{
+				String line;
+				while ((line = in.readLine()) != null) res.add(line.trim());
+			} finally
+			{
+				in.close();
+			}
+			return res;
+		}
+	}
+}
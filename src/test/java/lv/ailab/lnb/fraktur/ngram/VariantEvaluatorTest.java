@@ -0,0 +1,66 @@
+package lv.ailab.lnb.fraktur.ngram;
+
+import lv.ailab.lnb.fraktur.TestResources;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that evaluating many tokens at once gives the same estimates as
+ * evaluating each token separately.
+ */
+public class VariantEvaluatorTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void evaluateAllMatchesEvaluateToken() throws Exception
+	{
+		// Tokens with long common prefixes, prefixes of each other, unknown
+		// characters and upper case letters.
+		HashSet<String> tokens = new HashSet<String>(Arrays.asList(
+			"", "l", "la", "lat", "latv", "latvieši", "latviešu", "latwieschu",
+			"Latvieši", "LATVIEŠU", "lat?x", "ŗūķis", "zzzz", "z", "ŗ"));
+		Random random = new Random(4);
+		String letters = "aeiļšsz";
+		for (int i = 0; i < 300; i++)
+		{
+			StringBuilder token = new StringBuilder("ahr");
+			int length = random.nextInt(8);
+			for (int j = 0; j < length; j++)
+				token.append(letters.charAt(random.nextInt(letters.length())));
+			tokens.add(token.toString());
+		}
+
+		for (int level : new int[] {1, 3, 5})
+		{
+			File text = TestResources.nGramModel(folder.getRoot(), level);
+			File binary = new File(folder.getRoot(), "model" + level + ".bin");
+			VariantEvaluator fromText = new VariantEvaluator(null, null, null,
+				TestResources.VOCABULARY, text.getPath(), level);
+			fromText.writeBinary(binary.getPath());
+			VariantEvaluator fromBinary = new VariantEvaluator(null, null, null,
+				TestResources.VOCABULARY, binary.getPath(), level);
+			for (VariantEvaluator ev
+				: new VariantEvaluator[] {fromText, fromBinary})
+			{
+				HashMap<String, Double> all = ev.evaluateAll(tokens);
+				assertEquals(tokens, all.keySet());
+				for (Map.Entry<String, Double> e : all.entrySet())
+					assertEquals(level + " " + e.getKey(),
+						ev.evaluateToken(e.getKey()), e.getValue(), 0);
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package lv.ailab.lnb.fraktur.sampleui;
+
+import lv.ailab.lnb.fraktur.TestResources;
+import lv.ailab.lnb.fraktur.Transliterator;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that all file processing modes of the CLI give the same output:
+ * sequential, parallel and with each distinct token processed once. The
+ * CLI writes results next to the working directory, so input files are put
+ * there and removed afterwards.
+ */
+public class TransliteratorCLITest
+{
+	private static final int LINES = 200;
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Files made by the current test.
+	 */
+	private final ArrayList<File> made = new ArrayList<File>();
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		// Without result cache, every run really processes the tokens.
+		Transliterator.PATH_FILE =
+			TestResources.pathFile(folder.getRoot(), "resultCache", "0");
+		Transliterator.getTransliterator(TestResources.analyzer());
+	}
+
+	@AfterClass
+	public static void tearDown()
+	{
+		Transliterator.PATH_FILE = "path.conf";
+	}
+
+	@After
+	public void removeFiles()
+	{
+		for (File f : made) f.delete();
+	}
+
+	@Test
+	public void parallelBasicOutputIsSame() throws Exception
+	{
+		String input = input("aarste6-1kol.txt");
+		byte[] expected = run("res-", input, "-file", "-F", "-Fraktur");
+		assertTrue(expected.length > 0);
+		assertArrayEquals(expected,
+			run("res-", input, "-file", "-F", "-Fraktur", "-parallel=3"));
+		assertArrayEquals(expected,
+			run("res-", input, "-file", "-F", "-Fraktur", "-dedup"));
+		assertArrayEquals(expected, run("res-", input, "-file", "-F",
+			"-Fraktur", "-dedup", "-parallel=3"));
+	}
+
+	@Test
+	public void parallelOrderOutputIsSame() throws Exception
+	{
+		String input = input("aviize1861-1kol.txt");
+		byte[] expected = run("res-ord-", input, "-file", "-F",
+			"-Fraktur_Double", "-order");
+		assertArrayEquals(expected, run("res-ord-", input, "-file", "-F",
+			"-Fraktur_Double", "-order", "-parallel"));
+		assertArrayEquals(expected, run("res-ord-", input, "-file", "-F",
+			"-Fraktur_Double", "-order", "-dedup", "-parallel"));
+	}
+
+	@Test
+	public void parallelOutputWithAnswersIsSame() throws Exception
+	{
+		String input = input("aarste6-2kol.txt");
+		byte[] expected = run("res-", input, "-file", "-E", "-Fraktur");
+		assertArrayEquals(expected,
+			run("res-", input, "-file", "-E", "-Fraktur", "-parallel=2"));
+		assertArrayEquals(expected,
+			run("res-", input, "-file", "-E", "-Fraktur", "-dedup"));
+	}
+
+	/**
+	 * Run CLI and return the contents of its output file.
+	 */
+	private byte[] run(String prefix, String... args) throws Exception
+	{
+		File output = new File(prefix + args[0]);
+		made.add(output);
+		output.delete();
+		TransliteratorCLI.main(args);
+		assertTrue(output.getPath(), output.isFile());
+		return Files.readAllBytes(output.toPath());
+	}
+
+	/**
+	 * Copy the beginning of a corpus file to the working directory.
+	 */
+	private String input(String name) throws Exception
+	{
+		File file = File.createTempFile("cli-test", ".txt", new File("."));
+		made.add(file);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			getClass().getResourceAsStream("/" + name), "UTF8"));
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF8"));
+		try
+		{
+			String line;
+			for (int i = 0; i < LINES && (line = in.readLine()) != null; i++)
+				out.println(line);
+		} finally
+		{
+			in.close();
+			out.close();
+		}
+		return file.getName();
+	}
+}
@@ -0,0 +1,123 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.TestResources;
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.ailab.lnb.fraktur.util.PrefixIndex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks best-first variant search against evaluating all variants.
+ */
+public class BestVariantsTest
+{
+	private static final String[] TOKENS = {"Latweeschu", "wiſſeem",
+		"GabbalS", "ſchee", "Mmm", "ahrſtes", "LAIKS", "no", "x"};
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static Rules rules;
+	private static VariantEvaluator evaluator;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		rules = new Rules(new File("res/rules/fraktur_double.xml"));
+		evaluator = TestResources.evaluator(folder.getRoot(), 3);
+	}
+
+	@Test
+	public void findsMostProbableVariants()
+	{
+		for (String token : TOKENS)
+		{
+			HashMap<String, Boolean> all = Engine.transform(token, rules, true);
+			ArrayList<Double> expected = new ArrayList<Double>();
+			for (String variant : all.keySet())
+				expected.add(evaluator.evaluateToken(variant));
+			Collections.sort(expected, Collections.reverseOrder());
+
+			for (int k : new int[] {1, 5, all.size() + 1})
+			{
+				// Beam is wide enough for all variants.
+				LinkedHashMap<String, Boolean> best = Engine.bestVariants(
+					token, rules, true, evaluator, k, Integer.MAX_VALUE);
+				assertEquals(token, Math.min(k, all.size()), best.size());
+				int i = 0;
+				for (Map.Entry<String, Boolean> e : best.entrySet())
+				{
+					String message = token + " " + e.getKey();
+					assertEquals(message, all.get(e.getKey()), e.getValue());
+					// Ties may come in any order, but scores must not.
+					assertEquals(message, expected.get(i++),
+						evaluator.evaluateToken(e.getKey()), 1e-9);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void narrowBeamGivesValidVariants()
+	{
+		for (String token : TOKENS)
+		{
+			HashMap<String, Boolean> all = Engine.transform(token, rules, true);
+			LinkedHashMap<String, Boolean> best = Engine.bestVariants(
+				token, rules, true, evaluator, 10, 3);
+			assertTrue(token, best.size() <= 10);
+			assertTrue(token, best.size() > 0);
+			double previous = 0;
+			for (Map.Entry<String, Boolean> e : best.entrySet())
+			{
+				assertEquals(token, all.get(e.getKey()), e.getValue());
+				double score = evaluator.evaluateToken(e.getKey());
+				assertTrue(token, score <= previous + 1e-9);
+				previous = score;
+			}
+		}
+	}
+
+	@Test
+	public void prunedSearchFindsPrunedVariants()
+	{
+		PrefixIndex prefixes = new PrefixIndex(Arrays.asList(
+			"latviešu", "latvji", "visiem", "gabals", "šī", "mm", "ārstes"));
+		for (String token : TOKENS)
+		{
+			HashMap<String, Boolean> pruned = Engine.transform(
+				token, rules, true, prefixes, 1);
+			LinkedHashMap<String, Boolean> best = Engine.bestVariants(
+				token, rules, true, evaluator, pruned.size() + 1,
+				Integer.MAX_VALUE, prefixes, 1, null);
+			assertEquals(token, pruned, new HashMap<String, Boolean>(best));
+		}
+	}
+
+	@Test
+	public void exactRulesOnly()
+	{
+		LinkedHashMap<String, Boolean> best = Engine.bestVariants(
+			"Latweeschu", rules, false, evaluator, 10);
+		assertEquals(Engine.transform("Latweeschu", rules, false).keySet(),
+			best.keySet());
+		assertEquals(0, Engine.bestVariants(
+			"", rules, true, evaluator, 10).size());
+		assertEquals(0, Engine.bestVariants(
+			"Latweeschu", rules, true, evaluator, 0).size());
+	}
+}
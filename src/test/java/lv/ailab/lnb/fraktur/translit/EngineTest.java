@@ -0,0 +1,435 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.util.HashMultiMap;
+import lv.ailab.lnb.fraktur.util.PrefixIndex;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the transliteration against the string-set dynamic program it
+ * replaced: all variants of each token prefix are built as strings, rules are
+ * read from the XML file with DOM and looked up in hash maps.
+ */
+public class EngineTest
+{
+	/**
+	 * Rule fixtures.
+	 */
+	private static final String[] RULE_FILES = {
+		"res/rules/core.xml", "res/rules/fraktur.xml",
+		"res/rules/fraktur_double.xml", "res/rules/latin.xml"};
+
+	/**
+	 * Tokens to transliterate.
+	 */
+	private static ArrayList<String> tokens;
+
+	@BeforeClass
+	public static void readTokens() throws Exception
+	{
+		tokens = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			EngineTest.class.getResourceAsStream("/aarste6-1kol.txt"),
+			"UTF8"));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null && tokens.size() < 400)
+			{
+				line = line.split("\t")[0].trim();
+				if (line.length() > 0) tokens.add(line);
+			}
+		} finally
+		{
+			in.close();
+		}
+		// Letter case variants for capitalization of replacements.
+		tokens.add("LATWEESCHU");
+		tokens.add("Schee");
+		tokens.add("sCHee");
+		// Case sensitive exact rule in Latin rules.
+		tokens.add("Xenija");
+	}
+
+	@Test
+	public void transformMatchesStringSets() throws Exception
+	{
+		for (String file : RULE_FILES)
+		{
+			Rules rules = new Rules(new File(file));
+			StringSetEngine expected = new StringSetEngine(new File(file));
+			for (String token : tokens)
+			{
+				for (boolean fuzzy : new boolean[] {false, true})
+				{
+					assertEquals(file + " " + token + " " + fuzzy,
+						expected.transform(token, fuzzy),
+						Engine.transform(token, rules, fuzzy));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void latticeCountsMatchStringSets() throws Exception
+	{
+		for (String file : RULE_FILES)
+		{
+			Rules rules = new Rules(new File(file));
+			StringSetEngine expected = new StringSetEngine(new File(file));
+			for (String token : tokens)
+			{
+				for (boolean fuzzy : new boolean[] {false, true})
+				{
+					HashMap<String, Boolean> variants =
+						expected.transform(token, fuzzy);
+					ProcessingData lattice = Engine.lattice(token, rules, fuzzy);
+					String message = file + " " + token + " " + fuzzy;
+					assertEquals(message, variants.size(), lattice.translitCount());
+					int exact = 0;
+					for (Map.Entry<String, Boolean> e : variants.entrySet())
+					{
+						if (!e.getValue()) exact++;
+						assertEquals(message + " " + e.getKey(), e.getValue(),
+							lattice.isFuzzy(e.getKey()));
+					}
+					assertEquals(message, exact, lattice.exactCount());
+					long count = variants.size();
+					for (long limit : new long[] {0, 1, count - 1, count})
+					{
+						long capped = Engine.lattice(token, rules, fuzzy)
+							.translitCount(limit);
+						if (count <= limit) assertEquals(message, count, capped);
+						else assertTrue(message, capped > limit);
+					}
+					assertTrue(message,
+						lattice.pathCount() >= lattice.translitCount());
+					assertNull(message, lattice.isFuzzy(token + "#"));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void fuzzyStepKeepsVariantFuzzy() throws Exception
+	{
+		// Every derivation of "Mm" from "Mmm" has a fuzzy step, although for
+		// some of them the last step is exact.
+		Rules rules = new Rules(new File("res/rules/fraktur_double.xml"));
+		assertEquals(Boolean.TRUE, Engine.transform("Mmm", rules, true).get("Mm"));
+		assertEquals(Boolean.TRUE,
+			Engine.lattice("Mmm", rules, true).isFuzzy("Mm"));
+	}
+
+	@Test
+	public void lazyVariantsMatchStringSets() throws Exception
+	{
+		for (String file : RULE_FILES)
+		{
+			Rules rules = new Rules(new File(file));
+			StringSetEngine expected = new StringSetEngine(new File(file));
+			for (String token : tokens)
+			{
+				for (boolean fuzzy : new boolean[] {false, true})
+				{
+					String message = file + " " + token + " " + fuzzy;
+					assertEquals(message, expected.transform(token, fuzzy),
+						drain(message, Engine.variants(token, rules, fuzzy)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void lazyVariantsCanStopEarly() throws Exception
+	{
+		Rules rules = new Rules(new File("res/rules/fraktur_double.xml"));
+		Iterator<Tuple<String, Boolean>> it =
+			Engine.variants("Latweeschu", rules, true);
+		assertTrue(it.hasNext());
+		assertTrue(it.hasNext());
+		String first = it.next().first;
+		assertEquals(new TreeMap<String, Boolean>(
+			Engine.transform("Latweeschu", rules, true)).firstKey(), first);
+
+		it = Engine.variants("", rules, true);
+		assertFalse(it.hasNext());
+		try
+		{
+			it.next();
+		} catch (NoSuchElementException e)
+		{
+			return;
+		}
+		throw new AssertionError("Empty iterator gave a variant.");
+	}
+
+	@Test
+	public void prunedVariantsCanBeWords() throws Exception
+	{
+		Rules rules = new Rules(new File("res/rules/fraktur.xml"));
+		// Words are some of the variants, every other one cut short.
+		ArrayList<String> words = new ArrayList<String>();
+		for (String token : tokens)
+		{
+			String variant = new TreeMap<String, Boolean>(
+				Engine.transform(token, rules, false)).firstKey().toLowerCase();
+			if (words.size() % 2 == 1 && variant.length() > 3)
+				variant = variant.substring(0, variant.length() - 3);
+			if (words.size() % 3 == 0) words.add(variant);
+			else words.add(variant + "x");
+		}
+		PrefixIndex prefixes = new PrefixIndex(words);
+		for (String token : tokens)
+		{
+			for (int tolerance : new int[] {0, 2})
+			{
+				HashMap<String, Boolean> expected = new HashMap<String, Boolean>();
+				for (Map.Entry<String, Boolean> e
+					: Engine.transform(token, rules, true).entrySet())
+				{
+					String variant = e.getKey().toLowerCase();
+					int common = 0;
+					for (String word : words)
+						common = Math.max(common, commonPrefix(variant, word));
+					if (common + tolerance >= variant.length())
+						expected.put(e.getKey(), e.getValue());
+				}
+				assertEquals(token + " " + tolerance, expected,
+					Engine.transform(token, rules, true, prefixes, tolerance));
+				assertEquals(token + " " + tolerance, expected,
+					drain(token, Engine.variants(
+						token, rules, true, prefixes, tolerance)));
+			}
+		}
+		assertEquals(Engine.transform("ſchee", rules, true),
+			Engine.transform("ſchee", rules, true, null, 0));
+	}
+
+	/**
+	 * All variants from the iterator, checking that each comes once, in
+	 * alphabetical order.
+	 */
+	private static HashMap<String, Boolean> drain(
+		String message, Iterator<Tuple<String, Boolean>> it)
+	{
+		HashMap<String, Boolean> res = new HashMap<String, Boolean>();
+		String previous = null;
+		while (it.hasNext())
+		{
+			Tuple<String, Boolean> variant = it.next();
+			assertTrue(message + ": " + previous + " before " + variant.first,
+				previous == null || previous.compareTo(variant.first) < 0);
+			previous = variant.first;
+			res.put(variant.first, variant.second);
+		}
+		return res;
+	}
+
+	private static int commonPrefix(String a, String b)
+	{
+		int i = 0;
+		while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Transliteration as it was done before the rule tries: for each token
+	 * position, the set of variants for the token prefix ending there.
+	 */
+	static class StringSetEngine
+	{
+		final HashMap<String, Tuple<String, Rules.Pos>> exact =
+			new HashMap<String, Tuple<String, Rules.Pos>>();
+		final HashMap<String, Tuple<String, Rules.Pos>> exactSense =
+			new HashMap<String, Tuple<String, Rules.Pos>>();
+		final HashMultiMap<String, Tuple<String, Rules.Pos>> fuzzy =
+			new HashMultiMap<String, Tuple<String, Rules.Pos>>();
+		final HashMultiMap<String, Tuple<String, Rules.Pos>> fuzzySense =
+			new HashMultiMap<String, Tuple<String, Rules.Pos>>();
+
+		/**
+		 * Read rules from XML file without the <code>Rules</code> class.
+		 */
+		StringSetEngine(File ruleFile) throws Exception
+		{
+			Element root = DocumentBuilderFactory.newInstance()
+				.newDocumentBuilder().parse(ruleFile).getDocumentElement();
+			for (Element part : children(root, null))
+			{
+				boolean isFuzzy = part.getNodeName().equals("fuzzy");
+				for (Element r : children(part, "r"))
+					for (Element repl : replacements(r))
+						put(isFuzzy, r.getAttribute("target"), repl);
+			}
+		}
+
+		/**
+		 * Replacements of one rule: the rule itself, if the replacement is
+		 * given in its attribute or text, or its <code>replace</code>
+		 * elements.
+		 */
+		private static ArrayList<Element> replacements(Element r)
+		{
+			ArrayList<Element> res = children(r, "replace");
+			if (res.isEmpty()) res.add(r);
+			return res;
+		}
+
+		private void put(boolean isFuzzy, String target, Element repl)
+		{
+			String text = repl.hasAttribute("replace")
+				? repl.getAttribute("replace") : repl.getTextContent();
+			Rules.Pos pos = Rules.Pos.fromString(attribute(repl, "position"));
+			boolean sensitive = "1".equals(attribute(repl, "sensitive"));
+			if (!sensitive)
+			{
+				target = target.toLowerCase();
+				text = text.toLowerCase();
+			}
+			Tuple<String, Rules.Pos> rule = new Tuple<String, Rules.Pos>(text, pos);
+			if (isFuzzy) (sensitive ? fuzzySense : fuzzy).putOne(target, rule);
+			else (sensitive ? exactSense : exact).put(target, rule);
+		}
+
+		/**
+		 * Attribute of replacement or, if it has none, of its rule.
+		 */
+		private static String attribute(Element repl, String name)
+		{
+			if (repl.hasAttribute(name)) return repl.getAttribute(name).trim();
+			Node parent = repl.getParentNode();
+			if (parent instanceof Element && ((Element) parent).hasAttribute(name))
+				return ((Element) parent).getAttribute(name).trim();
+			return null;
+		}
+
+		private static ArrayList<Element> children(Element parent, String name)
+		{
+			ArrayList<Element> res = new ArrayList<Element>();
+			NodeList nl = parent.getChildNodes();
+			for (int i = 0; i < nl.getLength(); i++)
+				if (nl.item(i) instanceof Element
+					&& (name == null || nl.item(i).getNodeName().equals(name)))
+					res.add((Element) nl.item(i));
+			return res;
+		}
+
+		HashMap<String, Boolean> transform(String token, boolean useFuzzy)
+		{
+			int len = token.length();
+			ArrayList<HashMap<String, Boolean>> table =
+				new ArrayList<HashMap<String, Boolean>>();
+			String tokenLC = token.toLowerCase();
+			for (int pos = 0; pos < len; pos++)
+			{
+				HashMap<String, Boolean> here = new HashMap<String, Boolean>();
+				table.add(here);
+				boolean addUnaltered = true;
+				for (int begin = pos; begin >= 0; begin--)
+				{
+					String suffix = token.substring(begin, pos + 1);
+					String suffixLC = tokenLC.substring(begin, pos + 1);
+					HashMap<String, Boolean> from =
+						begin > 0 ? table.get(begin - 1) : null;
+					Tuple<String, Rules.Pos> repl = exact.get(suffixLC);
+					if (repl != null && isAllowed(repl.second, begin, pos, len))
+					{
+						add(here, from, capitalize(repl.first, suffix), false);
+						addUnaltered = false;
+					}
+					repl = exactSense.get(suffix);
+					if (repl != null && isAllowed(repl.second, begin, pos, len))
+					{
+						add(here, from, repl.first, false);
+						addUnaltered = false;
+					}
+					if (useFuzzy && fuzzy.containsKey(suffixLC))
+						for (Tuple<String, Rules.Pos> r : fuzzy.get(suffixLC))
+							if (isAllowed(r.second, begin, pos, len))
+								add(here, from, capitalize(r.first, suffix),
+									true);
+					if (useFuzzy && fuzzySense.containsKey(suffix))
+						for (Tuple<String, Rules.Pos> r : fuzzySense.get(suffix))
+							if (isAllowed(r.second, begin, pos, len))
+								add(here, from, r.first, true);
+				}
+				if (addUnaltered)
+					add(here, pos > 0 ? table.get(pos - 1) : null,
+						token.substring(pos, pos + 1), false);
+			}
+			return len > 0 ? table.get(len - 1) : new HashMap<String, Boolean>();
+		}
+
+		/**
+		 * Append the postfix to each variant in <code>from</code>. Variant is
+		 * fuzzy, if it can not be obtained without fuzzy rules.
+		 */
+		private static void add(HashMap<String, Boolean> where,
+			HashMap<String, Boolean> from, String postfix, boolean fuzzy)
+		{
+			if (from == null)
+			{
+				put(where, postfix, fuzzy);
+				return;
+			}
+			for (Map.Entry<String, Boolean> e : from.entrySet())
+				put(where, e.getKey() + postfix, e.getValue() || fuzzy);
+		}
+
+		private static void put(
+			HashMap<String, Boolean> where, String variant, boolean fuzzy)
+		{
+			Boolean old = where.get(variant);
+			where.put(variant, old == null ? fuzzy : old && fuzzy);
+		}
+
+		private static boolean isAllowed(
+			Rules.Pos restriction, int begin, int end, int len)
+		{
+			switch (restriction)
+			{
+				case BEGIN: return begin == 0;
+				case END: return end == len - 1;
+				case EXACT: return begin == 0 && end == len - 1;
+				default: return true;
+			}
+		}
+
+		private static String capitalize(String target, String pattern)
+		{
+			if (pattern.equals(pattern.toLowerCase())) return target;
+			if (pattern.equals(pattern.toUpperCase()))
+				return target.toUpperCase();
+			if (target.length() > 0 && Character.isLetter(pattern.charAt(0))
+				&& pattern.equals(
+					pattern.substring(0, 1).toUpperCase()
+					+ pattern.substring(1).toLowerCase()))
+				return target.substring(0, 1).toUpperCase()
+					+ target.substring(1).toLowerCase();
+			return target;
+		}
+	}
+}
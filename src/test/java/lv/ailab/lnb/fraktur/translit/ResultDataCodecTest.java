@@ -0,0 +1,213 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.TestResources;
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that results read by <code>ResultDataCodec</code> and
+ * <code>ResultDataJson</code> are the same as written.
+ */
+public class ResultDataCodecTest
+{
+	private static final String ID = "id";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Properties sv;
+	private Properties mev;
+	private VariantEvaluator evaluator;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		sv = dictionary("SV");
+		mev = dictionary("MEV");
+		// Estimates only need an evaluator to belong to.
+		evaluator = TestResources.evaluator(folder.getRoot(), 1);
+	}
+
+	@Test
+	public void binaryRoundTrip() throws Exception
+	{
+		ResultDataCodec codec = new ResultDataCodec(
+			ID, Arrays.asList(sv, mev), evaluator);
+		ResultData data = sample();
+		ResultData read = codec.decode(codec.encode(data));
+		assertEquals(describe(data), describe(read));
+		assertSame(sv, dictionaryOf(read, "šis"));
+		assertEquals(describe(new ResultData()),
+			describe(codec.decode(codec.encode(new ResultData()))));
+	}
+
+	@Test
+	public void binaryRecordsInSequence() throws Exception
+	{
+		ResultDataCodec codec = new ResultDataCodec(
+			ID, Arrays.asList(sv, mev), evaluator);
+		ResultData first = sample();
+		ResultData second = new ResultData();
+		second.NO_DICT_EXACT.add(new Variant("xyz", null));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		codec.write(out, first);
+		codec.write(out, second);
+		DataInputStream in = new DataInputStream(
+			new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(describe(first), describe(codec.read(in)));
+		assertEquals(describe(second), describe(codec.read(in)));
+	}
+
+	@Test
+	public void unknownDictionaryIsReadAsId() throws Exception
+	{
+		ResultData data = sample();
+		ResultDataCodec codec = new ResultDataCodec(
+			ID, new ArrayList<Properties>(), null);
+		ResultData read = codec.decode(codec.encode(data));
+		Properties dict = dictionaryOf(read, "šis");
+		assertEquals("SV", dict.get(ID));
+		assertEquals(1, dict.size());
+		// Estimates without evaluator are not kept.
+		assertNull(read.DICT_EXACT.data.keySet().iterator().next()
+			.knownEstimate());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBrokenRecord()
+	{
+		ResultDataCodec codec = new ResultDataCodec(
+			ID, Arrays.asList(sv, mev), evaluator);
+		byte[] record = codec.encode(sample());
+		codec.decode(Arrays.copyOf(record, record.length / 2));
+	}
+
+	@Test
+	public void jsonRoundTrip() throws Exception
+	{
+		ResultDataJson json = new ResultDataJson(
+			ID, Arrays.asList(sv, mev), evaluator);
+		ResultData data = sample();
+		String token = "\"ſchis\"\\\t\u0001ŗ";
+		String line = json.toJson(token, data);
+		assertEquals(-1, line.indexOf('\n'));
+		Tuple<String, ResultData> read = json.read(line);
+		assertEquals(token, read.first);
+		assertEquals(describe(data), describe(read.second));
+		assertSame(sv, dictionaryOf(read.second, "šis"));
+
+		StringBuilder out = new StringBuilder();
+		json.write(out, null, new ResultData());
+		read = json.read(out.toString().trim());
+		assertNull(read.first);
+		assertEquals(describe(new ResultData()), describe(read.second));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBrokenJson()
+	{
+		ResultDataJson json = new ResultDataJson(
+			ID, Arrays.asList(sv, mev), evaluator);
+		String line = json.toJson("x", sample());
+		json.read(line.substring(0, line.length() - 3));
+	}
+
+	/**
+	 * Result with variants in all categories, one variant in several of them.
+	 */
+	private ResultData sample()
+	{
+		ResultData res = new ResultData();
+		Variant sis = new Variant("šis", evaluator);
+		sis.setEstimate(evaluator, -4.125);
+		Variant quoted = new Variant("a\"b\\cé", evaluator);
+		quoted.setEstimate(evaluator, -12.5);
+		res.DICT_EXACT.add(sis, "šis", new Properties[] {sv});
+		res.DICT_EXACT.add(sis, "šī", new Properties[] {sv, mev});
+		res.DICT_EXACT_GUESS.add(sis, "šit", new Properties[] {mev});
+		res.DICT_FUZZY.add(quoted, "ab", new Properties[] {mev, sv});
+		res.DICT_FUZZY_GUESS.add(
+			new Variant("šiſ", null), "šiſ", new Properties[0]);
+		res.NO_DICT_EXACT.add(new Variant("schis", null));
+		res.NO_DICT_EXACT.add(quoted);
+		res.NO_DICT_FUZZY.add(new Variant("", null));
+		res.truncated = true;
+		res.skipped = 300;
+		return res;
+	}
+
+	/**
+	 * Everything the encodings must keep, in a form that does not depend on
+	 * iteration order of variants.
+	 */
+	private static String describe(ResultData data)
+	{
+		StringBuilder res = new StringBuilder();
+		res.append(data.truncated).append(' ').append(data.skipped)
+			.append('\n');
+		for (ResultData.ResultDataWithDic category
+			: ResultDataCodec.dictCategories(data))
+		{
+			TreeMap<String, String> variants = new TreeMap<String, String>();
+			for (Map.Entry<Variant, ArrayList<Tuple<String, Properties[]>>> e
+				: category.data.entrySet())
+			{
+				StringBuilder lemmas = new StringBuilder(
+					String.valueOf(e.getKey().knownEstimate()));
+				for (Tuple<String, Properties[]> lemma : e.getValue())
+				{
+					lemmas.append(' ').append(lemma.first);
+					for (Properties dict : lemma.second)
+						lemmas.append(':').append(dict.get(ID));
+				}
+				variants.put(e.getKey().token, lemmas.toString());
+			}
+			res.append(variants).append('\n');
+		}
+		for (HashSet<Variant> category : ResultDataCodec.noDictCategories(data))
+		{
+			TreeMap<String, Double> variants = new TreeMap<String, Double>();
+			for (Variant v : category) variants.put(v.token, v.knownEstimate());
+			res.append(variants).append('\n');
+		}
+		return res.toString();
+	}
+
+	/**
+	 * First dictionary of the first lemma of the given exact variant.
+	 */
+	private static Properties dictionaryOf(ResultData data, String variant)
+	{
+		return data.DICT_EXACT.data.get(new Variant(variant, null))
+			.get(0).second[0];
+	}
+
+	private static Properties dictionary(String id)
+	{
+		Properties res = new Properties();
+		res.put(ID, id);
+		res.put("name", id + " dictionary");
+		return res;
+	}
+}
@@ -0,0 +1,204 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.TestResources;
+import lv.ailab.lnb.fraktur.ngram.VariantComparator;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that XML written for results is valid against the DTDs and keeps
+ * the variants and lemmas as they are.
+ */
+public class ResultDataXmlTest
+{
+	private static final String ID = "id";
+	private static final String URL = "webservice";
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static VariantComparator comparator;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		comparator = new VariantComparator(
+			TestResources.evaluator(folder.getRoot(), 3));
+	}
+
+	@Test
+	public void normalizationIsValid() throws Exception
+	{
+		for (VariantComparator comp : new VariantComparator[] {comparator, null})
+		{
+			StringBuilder xml = new StringBuilder();
+			sample().writeNormalizationXML(
+				xml, "Fraktur_Double", true, ID, URL, comp);
+			Document doc = parse(xml.toString(), "normalization",
+				"dtd/normalization.dtd");
+			Element root = doc.getDocumentElement();
+			assertEquals("frakturDouble", root.getAttribute("rule_set"));
+			assertEquals("true", root.getAttribute("apply_opt_rules"));
+			checkContent(doc);
+		}
+	}
+
+	@Test
+	public void resultsAreValid() throws Exception
+	{
+		for (VariantComparator comp : new VariantComparator[] {comparator, null})
+		{
+			String xml = sample().toXML(ID, URL, comp);
+			StringBuilder written = new StringBuilder();
+			sample().writeXML(written, ID, URL, "", comp);
+			assertEquals(xml, written.toString());
+			checkContent(parse(xml, "transliterations", "dtd/results.dtd"));
+		}
+	}
+
+	@Test
+	public void truncationIsMarked() throws Exception
+	{
+		ResultData data = sample();
+		assertFalse(data.toXML(ID, URL, null).contains("truncated"));
+		// DTD gives the default value.
+		assertEquals("false", transliterations(parse(data.toXML(ID, URL, null),
+			"transliterations", "dtd/results.dtd")).getAttribute("truncated"));
+		data.truncated = true;
+		assertEquals("true", transliterations(parse(
+			data.toXML(ID, URL, comparator), "transliterations",
+			"dtd/results.dtd")).getAttribute("truncated"));
+		StringBuilder xml = new StringBuilder();
+		data.writeNormalizationXML(xml, "Fraktur", false, ID, URL, comparator);
+		assertEquals("true", transliterations(parse(xml.toString(),
+			"normalization", "dtd/normalization.dtd"))
+			.getAttribute("truncated"));
+	}
+
+	@Test
+	public void skippedCountIsGiven() throws Exception
+	{
+		ResultData data = sample();
+		assertFalse(data.toXML(ID, URL, null).contains("skipped"));
+		data.skipped = 12;
+		assertEquals("12", transliterations(parse(
+			data.toXML(ID, URL, comparator), "transliterations",
+			"dtd/results.dtd")).getAttribute("skipped"));
+		StringBuilder xml = new StringBuilder();
+		data.writeNormalizationXML(xml, "Fraktur", false, ID, URL, comparator);
+		assertEquals("12", transliterations(parse(xml.toString(),
+			"normalization", "dtd/normalization.dtd")).getAttribute("skipped"));
+	}
+
+	@Test
+	public void namesRuleSets()
+	{
+		assertEquals("frakturDouble", ResultData.ruleSetName("Fraktur_Double"));
+		assertEquals("core", ResultData.ruleSetName("core"));
+		assertEquals("latin", ResultData.ruleSetName("Latin"));
+	}
+
+	/**
+	 * Check that all variants, lemmas and entry URLs are in the document.
+	 */
+	private static void checkContent(Document doc)
+	{
+		HashSet<String> variants = new HashSet<String>();
+		NodeList nl = doc.getElementsByTagName("variant");
+		for (int i = 0; i < nl.getLength(); i++)
+			variants.add(((Element) nl.item(i)).getAttribute("wordform"));
+		HashSet<String> expected = new HashSet<String>();
+		for (Variant v : sample().getAllVariants()) expected.add(v.token);
+		assertEquals(expected, variants);
+
+		HashSet<String> lemmas = new HashSet<String>();
+		nl = doc.getElementsByTagName("lemma");
+		for (int i = 0; i < nl.getLength(); i++)
+			lemmas.add(((Element) nl.item(i)).getAttribute("form"));
+		assertEquals(new HashSet<String>(Arrays.asList(
+			"šis", "a<b>&\"c\"")), lemmas);
+
+		HashSet<String> urls = new HashSet<String>();
+		nl = doc.getElementsByTagName("desc");
+		for (int i = 0; i < nl.getLength(); i++)
+			urls.add(nl.item(i).getTextContent());
+		assertEquals(new HashSet<String>(Arrays.asList("SV", "MEV",
+			"http://sv/šis", "http://sv/a<b>&\"c\"")), urls);
+	}
+
+	private static Element transliterations(Document doc)
+	{
+		return (Element) doc.getElementsByTagName("transliterations").item(0);
+	}
+
+	/**
+	 * Parse XML document validating it against the given DTD.
+	 */
+	private static Document parse(String xml, String root, String dtd)
+	throws Exception
+	{
+		String doctype = "<!DOCTYPE " + root + " SYSTEM \""
+			+ new File(dtd).toURI() + "\">\n";
+		if (xml.startsWith("<?xml"))
+		{
+			int end = xml.indexOf("?>") + 3;
+			xml = xml.substring(0, end) + doctype + xml.substring(end);
+		}
+		else xml = doctype + xml;
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setValidating(true);
+		DocumentBuilder builder = factory.newDocumentBuilder();
+		builder.setErrorHandler(new DefaultHandler()
+		{
+			@Override
+			public void error(SAXParseException e) throws SAXParseException
+			{
+				throw e;
+			}
+		});
+		return builder.parse(new InputSource(new StringReader(xml)));
+	}
+
+	/**
+	 * Result with variants in all categories, some with characters to be
+	 * escaped.
+	 */
+	private static ResultData sample()
+	{
+		Properties sv = new Properties();
+		sv.put(ID, "SV");
+		sv.put(URL, "http://sv/{word}");
+		Properties mev = new Properties();
+		mev.put(ID, "MEV");
+		ResultData res = new ResultData();
+		res.DICT_EXACT.add(new Variant("šis", comparator.evaluator), "šis",
+			new Properties[] {sv, mev});
+		res.DICT_EXACT_GUESS.add(new Variant("a<b>", comparator.evaluator),
+			"a<b>&\"c\"", new Properties[] {sv});
+		res.DICT_FUZZY.add(new Variant("šiſ", null), "šis",
+			new Properties[] {mev});
+		res.NO_DICT_EXACT.add(new Variant("schis\t'", comparator.evaluator));
+		res.NO_DICT_FUZZY.add(new Variant("ſchis", null));
+		return res;
+	}
+}
@@ -0,0 +1,128 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that rules in compiled rule tries are grouped by position class and
+ * that the lattice applies each class only where it is allowed.
+ */
+public class RuleTrieTest
+{
+	private static final int ALL = Rules.Pos.ALL.mask();
+	private static final int BEGIN = Rules.Pos.BEGIN.mask();
+	private static final int END = Rules.Pos.END.mask();
+	private static final int EXACT = Rules.Pos.EXACT.mask();
+
+	private static final String[] TOKENS = {"a", "ba", "bab", "ca", "cab",
+		"xca", "dca", "Dcaa", "aca", "ccaba", "dcadca"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void partitionsRulesByPosition() throws Exception
+	{
+		File xml = rules();
+		File bin = folder.newFile();
+		new Rules(xml).write(bin);
+		for (Rules rules : new Rules[] {new Rules(xml), new Rules(bin)})
+		{
+			// Tries are walked from the end of the target.
+			RuleTrie trie = rules.insensitive;
+			int a = trie.next(RuleTrie.ROOT, 'a');
+			int ab = trie.next(a, 'b');
+			int ac = trie.next(a, 'c');
+			int acd = trie.next(ac, 'd');
+			assertEquals(ALL, trie.rules(a));
+			assertEquals(END, trie.rules(ab));
+			assertEquals(BEGIN | EXACT, trie.rules(ac));
+			assertEquals(END, trie.rules(acd));
+			assertEquals(ALL | BEGIN | END | EXACT, trie.reach(a));
+			assertEquals(END, trie.reach(ab));
+			assertEquals(BEGIN | END | EXACT, trie.reach(ac));
+
+			assertEquals(set("y", "z"), fuzzy(trie, ac, Rules.Pos.BEGIN));
+			assertEquals(set("w"), fuzzy(trie, ac, Rules.Pos.EXACT));
+			assertEquals(set(), fuzzy(trie, ac, Rules.Pos.ALL));
+			assertEquals(set(), fuzzy(trie, ac, Rules.Pos.END));
+			assertEquals(set("v"), fuzzy(trie, acd, Rules.Pos.END));
+		}
+	}
+
+	@Test
+	public void appliesRulesOnlyInTheirPositions() throws Exception
+	{
+		File xml = rules();
+		EngineTest.StringSetEngine expected = new EngineTest.StringSetEngine(xml);
+		Rules rules = new Rules(xml);
+		for (String token : TOKENS)
+			for (boolean fuzzy : new boolean[] {false, true})
+				assertEquals(token + " " + fuzzy, expected.transform(token, fuzzy),
+					Engine.transform(token, rules, fuzzy));
+	}
+
+	/**
+	 * Rules with targets sharing suffixes, so that one trie branch holds
+	 * rules of all position classes.
+	 */
+	private File rules() throws Exception
+	{
+		File file = folder.newFile("positions.xml");
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF8"));
+		try
+		{
+			out.println("<rules>");
+			out.println("<exact>");
+			out.println("<r target=\"a\">e</r>");
+			out.println("<r target=\"ba\"><replace position=\"end\">x</replace></r>");
+			out.println("</exact>");
+			out.println("<fuzzy>");
+			out.println("<r target=\"ca\">");
+			out.println("<replace position=\"begin\">y</replace>");
+			out.println("<replace position=\"begin\">z</replace>");
+			out.println("<replace position=\"exact\">w</replace>");
+			out.println("</r>");
+			out.println("<r target=\"dca\" position=\"end\">v</r>");
+			out.println("</fuzzy>");
+			out.println("</rules>");
+		} finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Replacements of ambiguous rules of the given node and position class.
+	 */
+	private static HashSet<String> fuzzy(RuleTrie trie, int node, Rules.Pos pos)
+	{
+		HashSet<String> res = new HashSet<String>();
+		int end = trie.fuzzyEnd(node, pos.ordinal());
+		for (int i = trie.fuzzyStart(node, pos.ordinal()); i < end; i++)
+		{
+			int repl = trie.fuzzy(i);
+			assertEquals(pos, trie.position(repl));
+			res.add(trie.replacement(repl));
+		}
+		return res;
+	}
+
+	private static HashSet<String> set(String... items)
+	{
+		HashSet<String> res = new HashSet<String>();
+		for (String item : items) res.add(item);
+		return res;
+	}
+}
@@ -0,0 +1,239 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.util.HashMultiMap;
+import lv.ailab.lnb.fraktur.util.Tuple;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks reading rules from XML and writing and reading them in binary form.
+ */
+public class RulesTest
+{
+	private static final String[] RULE_FILES = {
+		"res/rules/core.xml", "res/rules/fraktur.xml",
+		"res/rules/fraktur_double.xml", "res/rules/latin.xml"};
+
+	private static final String[] TOKENS = {"Latweeschu", "ſchee", "GabbalS",
+		"wiſſeem", "LAIKS", "no", "ahrſtes", "x"};
+
+	/**
+	 * Tokens for the rule forms in <code>readsRuleForms()</code>.
+	 */
+	private static final String[] FORM_TOKENS = {"Schee", "sCHEE", "Wee",
+		"wee", "ſee", "aſſ", "EEſch", "ee", "WEEEE"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsRuleForms() throws Exception
+	{
+		File xml = write("forms.xml",
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+			"<rules>",
+			"	<exact>",
+			"		<!-- comment -->",
+			"		<r target=\"EE\" replace=\"IE\"/>",
+			"		<r target=\"sch\">š</r>",
+			"		<r target=\"W\" sensitive=\"1\">V</r>",
+			"		<r target=\"ſ\"><replace position=\"begin\">s</replace></r>",
+			"	</exact>",
+			"	<fuzzy>",
+			"		<r target=\"ee\" position=\"end\">",
+			"			<replace>ie</replace>",
+			"			<replace position=\"all\">ē</replace>",
+			"			<replace sensitive=\"1\">EE</replace>",
+			"		</r>",
+			"	</fuzzy>",
+			"</rules>");
+		HashMap<String, Tuple<String, Rules.Pos>> exact =
+			new HashMap<String, Tuple<String, Rules.Pos>>();
+		exact.put("ee", rule("ie", Rules.Pos.ALL));
+		exact.put("sch", rule("š", Rules.Pos.ALL));
+		exact.put("ſ", rule("s", Rules.Pos.BEGIN));
+		HashMap<String, Tuple<String, Rules.Pos>> exactSense =
+			new HashMap<String, Tuple<String, Rules.Pos>>();
+		exactSense.put("W", rule("V", Rules.Pos.ALL));
+		HashMultiMap<String, Tuple<String, Rules.Pos>> fuzzy =
+			new HashMultiMap<String, Tuple<String, Rules.Pos>>();
+		fuzzy.putOne("ee", rule("ie", Rules.Pos.END));
+		fuzzy.putOne("ee", rule("ē", Rules.Pos.ALL));
+		HashMultiMap<String, Tuple<String, Rules.Pos>> fuzzySense =
+			new HashMultiMap<String, Tuple<String, Rules.Pos>>();
+		fuzzySense.putOne("ee", rule("EE", Rules.Pos.END));
+
+		EngineTest.StringSetEngine expected = new EngineTest.StringSetEngine(xml);
+		for (Rules rules : new Rules[] {new Rules(xml), binary(xml)})
+		{
+			assertEquals(exact, rules.exact);
+			assertEquals(exactSense, rules.exactSense);
+			assertEquals(fuzzy, rules.fuzzy);
+			assertEquals(fuzzySense, rules.fuzzySense);
+			assertReadOnly(rules);
+			for (String token : FORM_TOKENS)
+				for (boolean useFuzzy : new boolean[] {false, true})
+					assertEquals(token + " " + useFuzzy,
+						expected.transform(token, useFuzzy),
+						Engine.transform(token, rules, useFuzzy));
+		}
+		assertEquals(Boolean.FALSE,
+			Engine.transform("Wee", new Rules(xml), true).get("Vie"));
+	}
+
+	@Test
+	public void binaryRulesMatchXml() throws Exception
+	{
+		for (String file : RULE_FILES)
+		{
+			File xml = new File(file);
+			Rules fromXml = new Rules(xml);
+			Rules fromBinary = binary(xml);
+			// Maps as they were read from XML before the tries.
+			EngineTest.StringSetEngine expected =
+				new EngineTest.StringSetEngine(xml);
+			for (Rules rules : new Rules[] {fromXml, fromBinary})
+			{
+				assertEquals(file, expected.exact, rules.exact);
+				assertEquals(file, expected.exactSense, rules.exactSense);
+				assertEquals(file, expected.fuzzy, rules.fuzzy);
+				assertEquals(file, expected.fuzzySense, rules.fuzzySense);
+			}
+			for (String token : TOKENS)
+				for (boolean fuzzy : new boolean[] {false, true})
+					assertEquals(file + " " + token,
+						Engine.transform(token, fromXml, fuzzy),
+						Engine.transform(token, fromBinary, fuzzy));
+		}
+	}
+
+	@Test
+	public void binaryRulesWriteSameFile() throws Exception
+	{
+		for (String file : RULE_FILES)
+		{
+			File first = folder.newFile();
+			new Rules(new File(file)).write(first);
+			File second = folder.newFile();
+			new Rules(first).write(second);
+			assertArrayEquals(file, readAll(first), readAll(second));
+		}
+	}
+
+	@Test
+	public void recognizesBinaryFile() throws Exception
+	{
+		File xml = new File(RULE_FILES[0]);
+		assertFalse(Rules.isBinary(xml));
+		File bin = folder.newFile();
+		new Rules(xml).write(bin);
+		assertTrue(Rules.isBinary(bin));
+		assertFalse(Rules.isBinary(folder.newFile()));
+	}
+
+	@Test
+	public void compilerWritesValidRules() throws Exception
+	{
+		for (String file : RULE_FILES)
+		{
+			File bin = folder.newFile();
+			RuleCompiler.main(new String[] {file, bin.getPath()});
+			assertTrue(Rules.isBinary(bin));
+			File expected = folder.newFile();
+			new Rules(new File(file)).write(expected);
+			assertArrayEquals(file, readAll(expected), readAll(bin));
+		}
+	}
+
+	@Test(expected = SAXException.class)
+	public void reportsMalformedXml() throws Exception
+	{
+		new Rules(write("broken.xml", "<rules><exact><r target=\"a\">b</exact>"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsFileWithoutRules() throws Exception
+	{
+		new Rules(write("empty.xml", "<rules><exact/><fuzzy/></rules>"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAmbiguousExactRule() throws Exception
+	{
+		new Rules(write("ambiguous.xml", "<rules><exact><r target=\"a\">",
+			"<replace>b</replace><replace>c</replace></r></exact></rules>"));
+	}
+
+	/**
+	 * Write rules to binary file and read them back.
+	 */
+	private Rules binary(File xml) throws Exception
+	{
+		File bin = folder.newFile();
+		new Rules(xml).write(bin);
+		return new Rules(bin);
+	}
+
+	private File write(String name, String... lines) throws Exception
+	{
+		File file = folder.newFile(name);
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(file), "UTF8"));
+		try
+		{
+			for (String line : lines) out.println(line);
+		} finally
+		{
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * Rule maps can't be changed, neither can rule sets in them.
+	 */
+	private static void assertReadOnly(Rules rules)
+	{
+		try
+		{
+			rules.exact.put("x", rule("y", Rules.Pos.ALL));
+			throw new AssertionError("Exact rules were changed.");
+		} catch (UnsupportedOperationException e)
+		{
+			// Expected.
+		}
+		try
+		{
+			rules.fuzzy.get("ee").add(rule("y", Rules.Pos.ALL));
+			throw new AssertionError("Fuzzy rules were changed.");
+		} catch (UnsupportedOperationException e)
+		{
+			// Expected.
+		}
+	}
+
+	private static byte[] readAll(File file) throws Exception
+	{
+		return Files.readAllBytes(file.toPath());
+	}
+
+	private static Tuple<String, Rules.Pos> rule(String replacement, Rules.Pos pos)
+	{
+		return new Tuple<String, Rules.Pos>(replacement, pos);
+	}
+}
@@ -0,0 +1,119 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.TestResources;
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+
+import java.io.File;
+import java.util.HashMap;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that transliteration within a <code>TokenBudget</code> keeps to the
+ * limits and tells, when results are truncated.
+ */
+public class TokenBudgetTest
+{
+	private static final String TOKEN = "Latweeschu";
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static Rules rules;
+	private static VariantEvaluator evaluator;
+	private static HashMap<String, Boolean> all;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		rules = new Rules(new File("res/rules/fraktur_double.xml"));
+		evaluator = TestResources.evaluator(folder.getRoot(), 3);
+		all = Engine.transform(TOKEN, rules, true);
+		assertTrue(all.size() > 10);
+	}
+
+	@Test
+	public void noLimitHit()
+	{
+		TokenBudget budget = new TokenBudget(all.size(), 0, 0);
+		assertEquals(all, Engine.transform(
+			TOKEN, rules, true, null, null, 0, budget));
+		assertFalse(budget.truncated());
+
+		budget = new TokenBudget(all.size(), 0, 60000);
+		assertEquals(all, Engine.transform(
+			TOKEN, rules, true, evaluator, null, 0, budget));
+		assertFalse(budget.truncated());
+	}
+
+	@Test
+	public void keepsFirstVariantsWithoutEvaluator()
+	{
+		TokenBudget budget = new TokenBudget(5, 0, 0);
+		HashMap<String, Boolean> some = Engine.transform(
+			TOKEN, rules, true, null, null, 0, budget);
+		assertEquals(5, some.size());
+		assertSubset(some);
+		assertTrue(budget.truncated());
+	}
+
+	@Test
+	public void keepsMostProbableVariants()
+	{
+		TokenBudget budget = new TokenBudget(5, 0, 0);
+		HashMap<String, Boolean> best = Engine.transform(
+			TOKEN, rules, true, evaluator, null, 0, budget);
+		assertEquals(new HashMap<String, Boolean>(Engine.bestVariants(
+			TOKEN, rules, true, evaluator, 5, Integer.MAX_VALUE)), best);
+		assertTrue(budget.truncated());
+	}
+
+	@Test
+	public void narrowSearchIsTruncated()
+	{
+		TokenBudget budget = new TokenBudget(all.size() - 1, 2, 0);
+		HashMap<String, Boolean> best = Engine.transform(
+			TOKEN, rules, true, evaluator, null, 0, budget);
+		assertTrue(best.size() < all.size());
+		assertSubset(best);
+		assertTrue(budget.truncated());
+	}
+
+	@Test
+	public void expiredDeadlineStopsWork() throws Exception
+	{
+		TokenBudget budget = new TokenBudget(0, 0, 1);
+		Thread.sleep(5);
+		assertTrue(budget.expired());
+		HashMap<String, Boolean> some = Engine.transform(
+			TOKEN, rules, true, null, null, 0, budget);
+		assertTrue(some.isEmpty());
+		assertTrue(budget.truncated());
+
+		// Lattice is cut short, so the token end is not reached.
+		budget = new TokenBudget(0, 0, 1);
+		Thread.sleep(5);
+		assertEquals(0, Engine.lattice(TOKEN, rules, true, budget)
+			.translitCount());
+		assertTrue(budget.truncated());
+
+		budget = new TokenBudget(0, 0, 1);
+		Thread.sleep(5);
+		assertTrue(Engine.bestVariants(TOKEN, rules, true, evaluator, 5,
+			Engine.DEFAULT_BEAM_WIDTH, null, 0, budget).isEmpty());
+		assertTrue(budget.truncated());
+	}
+
+	private static void assertSubset(HashMap<String, Boolean> some)
+	{
+		for (String variant : some.keySet())
+			assertEquals(variant, all.get(variant), some.get(variant));
+	}
+}
@@ -0,0 +1,65 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that <code>TokenCase</code> classifies every fragment of a token the
+ * same way as comparing the fragment with its lower-cased, upper-cased and
+ * capitalized forms.
+ */
+public class TokenCaseTest
+{
+	private static final String[] TOKENS = {"latweeschu", "Latweeschu",
+		"LATWEESCHU", "sCHee", "ŖŪĶIS", "Ŗūķis", "ŗūĶis", "1Ab", "A1b",
+		"ab-CD", "'Schee'", "x", "X", "-", "ǅemma", "ΣΟΦΙΑ", "Σοφία",
+		"Aß", "STRAßE", "Straße", "ß", "ﬁx", "Aﬁ"};
+
+	@Test
+	public void classifiesFragments()
+	{
+		for (String token : TOKENS)
+		{
+			TokenCase tokenCase = new TokenCase(token);
+			assertEquals(token, expected(token), tokenCase.token());
+			for (int begin = 0; begin < token.length(); begin++)
+				for (int end = begin + 1; end <= token.length(); end++)
+				{
+					String fragment = token.substring(begin, end);
+					assertEquals(token + " " + fragment, expected(fragment),
+						tokenCase.fragment(begin, end));
+				}
+		}
+	}
+
+	@Test
+	public void namesClasses()
+	{
+		assertEquals(TokenCase.LOWER, new TokenCase("ſchee").token());
+		assertEquals(TokenCase.ALL_CAPS, new TokenCase("SCHEE").token());
+		assertEquals(TokenCase.FIRST_CAP, new TokenCase("Schee").token());
+		assertEquals(TokenCase.MIXED, new TokenCase("ScHee").token());
+		assertEquals(TokenCase.LOWER, new TokenCase("12,").token());
+		assertEquals(TokenCase.ALL_CAPS, new TokenCase("1A").token());
+		assertEquals(TokenCase.MIXED, new TokenCase("1Ab").token());
+		// No single character upper case form, so ß is never all caps.
+		assertEquals(TokenCase.FIRST_CAP, new TokenCase("Aß").token());
+		assertEquals(TokenCase.MIXED, new TokenCase("STRAßE").token());
+		assertEquals(TokenCase.LOWER, new TokenCase("ß").token());
+	}
+
+	/**
+	 * Case class found by comparing strings.
+	 */
+	private static int expected(String fragment)
+	{
+		if (fragment.equals(fragment.toLowerCase())) return TokenCase.LOWER;
+		if (fragment.equals(fragment.toUpperCase())) return TokenCase.ALL_CAPS;
+		if (Character.isLetter(fragment.charAt(0)) && fragment.equals(
+				fragment.substring(0, 1).toUpperCase()
+				+ fragment.substring(1).toLowerCase()))
+			return TokenCase.FIRST_CAP;
+		return TokenCase.MIXED;
+	}
+}
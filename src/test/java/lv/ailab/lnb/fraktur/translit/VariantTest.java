@@ -0,0 +1,131 @@
+package lv.ailab.lnb.fraktur.translit;
+
+import lv.ailab.lnb.fraktur.TestResources;
+import lv.ailab.lnb.fraktur.ngram.VariantEvaluator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that variant estimates are calculated only when asked for, and only
+ * once for each evaluator.
+ */
+public class VariantTest
+{
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static File model;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		model = TestResources.nGramModel(folder.getRoot(), 3);
+	}
+
+	@Test
+	public void estimateIsLazy() throws Exception
+	{
+		CountingEvaluator ev = new CountingEvaluator();
+		Variant v = new Variant("latvieši", ev);
+		assertEquals(0, ev.calls);
+		double expected = ev.evaluateToken("latvieši");
+		ev.calls = 0;
+
+		assertEquals(expected, v.estimate(), 0);
+		assertEquals(expected, v.estimate(ev), 0);
+		assertEquals(expected, v.estimate(), 0);
+		assertEquals(1, ev.calls);
+	}
+
+	@Test
+	public void otherEvaluatorRecalculates() throws Exception
+	{
+		CountingEvaluator ev = new CountingEvaluator();
+		CountingEvaluator other = new CountingEvaluator();
+		Variant v = new Variant("latvieši", ev);
+		v.estimate();
+		v.estimate(other);
+		v.estimate(other);
+		assertEquals(1, ev.calls);
+		assertEquals(1, other.calls);
+		assertNull(v.estimate(null));
+	}
+
+	@Test
+	public void estimateAllFillsMissingEstimates() throws Exception
+	{
+		CountingEvaluator ev = new CountingEvaluator();
+		ResultData data = new ResultData();
+		Variant known = new Variant("latvieši", ev);
+		known.estimate();
+		Variant dict = new Variant("latviešu", ev);
+		data.DICT_FUZZY.add(known, "latvietis", new Properties[0]);
+		data.DICT_FUZZY.add(dict, "latvietis", new Properties[0]);
+		data.NO_DICT_EXACT.add(new Variant("latwieschu", ev));
+		data.estimateAll(ev);
+		data.estimateAll(ev);
+		ev.calls = 0;
+
+		for (Variant v : data.getAllVariants())
+		{
+			assertTrue(v.token, v.isEstimated(ev));
+			assertEquals(v.token, ev.evaluateToken(v.token), v.estimate(), 0);
+		}
+		// Estimates were filled in, only the expected values were evaluated.
+		assertEquals(data.getAllVariants().size(), ev.calls);
+	}
+
+	@Test
+	public void toStringGivesEstimate() throws Exception
+	{
+		CountingEvaluator ev = new CountingEvaluator();
+		Variant fresh = new Variant("latvieši", ev);
+		Variant known = new Variant("latvieši", ev);
+		known.estimate();
+		assertEquals(known.toString(), fresh.toString());
+		assertEquals("latvieši (" + String.format("%.4f",
+			ev.evaluateToken("latvieši")) + ")", fresh.toString());
+		ev.calls = 0;
+		fresh.toString();
+		assertEquals(0, ev.calls);
+	}
+
+	@Test
+	public void noEvaluatorNoEstimate()
+	{
+		Variant v = new Variant("latvieši", null);
+		assertNull(v.estimate());
+		assertEquals("latvieši", v.toString());
+	}
+
+	/**
+	 * Evaluator that counts evaluated tokens.
+	 */
+	private static class CountingEvaluator extends VariantEvaluator
+	{
+		int calls;
+
+		CountingEvaluator() throws IOException
+		{
+			super(null, null, null, TestResources.VOCABULARY, model.getPath(), 3);
+		}
+
+		@Override
+		public double evaluateToken(String token)
+		{
+			calls++;
+			return super.evaluateToken(token);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package lv.ailab.lnb.fraktur.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks eviction and admission of <code>BoundedCache</code>. Caches here
+ * have 16 segments of weight 3, and all keys are multiples of 16, so they
+ * share one segment.
+ */
+public class BoundedCacheTest
+{
+	private static final Integer A = 16, B = 32, C = 48, D = 64;
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveSize()
+	{
+		new BoundedCache<Integer, String>(0);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed()
+	{
+		BoundedCache<Integer, String> cache =
+			new BoundedCache<Integer, String>(48);
+		cache.put(A, "a");
+		cache.put(B, "b");
+		cache.put(C, "c");
+		assertEquals("a", cache.get(A));
+		// D must be used more often than B to be admitted.
+		assertNull(cache.get(D));
+		cache.put(D, "d");
+
+		assertNull(cache.get(B));
+		assertEquals("a", cache.get(A));
+		assertEquals("c", cache.get(C));
+		assertEquals("d", cache.get(D));
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.evictionCount());
+		assertEquals(0, cache.rejectionCount());
+	}
+
+	@Test
+	public void rejectsRareKey()
+	{
+		BoundedCache<Integer, String> cache =
+			new BoundedCache<Integer, String>(48);
+		cache.put(A, "a");
+		cache.put(B, "b");
+		cache.put(C, "c");
+		cache.put(D, "d");
+
+		assertNull(cache.get(D));
+		assertEquals("a", cache.get(A));
+		assertEquals(3, cache.size());
+		assertEquals(0, cache.evictionCount());
+		assertEquals(1, cache.rejectionCount());
+	}
+
+	@Test
+	public void replacesExistingKey()
+	{
+		BoundedCache<Integer, String> cache = weighted();
+		cache.put(A, "a");
+		cache.put(B, "b");
+		cache.put(A, "aa");
+		assertEquals("aa", cache.get(A));
+		assertEquals("b", cache.get(B));
+		assertEquals(3, cache.weight());
+		assertEquals(0, cache.rejectionCount());
+	}
+
+	@Test
+	public void rejectionLeavesWeightedCacheUnchanged()
+	{
+		BoundedCache<Integer, String> cache = weighted();
+		// B is used often, A and C never.
+		for (int i = 0; i < 3; i++) cache.get(B);
+		cache.put(A, "a");
+		cache.put(B, "b");
+		cache.put(C, "c");
+
+		// D outweighs A, but to fit it, B must be evicted too.
+		cache.get(D);
+		cache.put(D, "dd");
+		assertEquals(1, cache.rejectionCount());
+		assertEquals(0, cache.evictionCount());
+		assertEquals(3, cache.size());
+		assertEquals(3, cache.weight());
+
+		// Once D is used more often than B, both A and B make room for it.
+		for (int i = 0; i < 3; i++) cache.get(D);
+		cache.put(D, "dd");
+		assertEquals(2, cache.evictionCount());
+		assertNull(cache.get(A));
+		assertNull(cache.get(B));
+		assertEquals("c", cache.get(C));
+		assertEquals("dd", cache.get(D));
+		assertEquals(3, cache.weight());
+	}
+
+	@Test
+	public void rejectsEntryHeavierThanSegment()
+	{
+		BoundedCache<Integer, String> cache = weighted();
+		cache.put(A, "a");
+		cache.put(B, "bbbb");
+		assertNull(cache.get(B));
+		assertEquals("a", cache.get(A));
+		assertEquals(1, cache.rejectionCount());
+	}
+
+	@Test
+	public void countsHitsAndMisses()
+	{
+		BoundedCache<Integer, String> cache =
+			new BoundedCache<Integer, String>(48);
+		cache.put(A, "a");
+		cache.get(A);
+		cache.get(B);
+		cache.get(A);
+		assertEquals(2, cache.hitCount());
+		assertEquals(1, cache.missCount());
+		assertEquals(2.0 / 3, cache.hitRate(), 1e-9);
+	}
+
+	/**
+	 * Cache where entry weight is the length of the value.
+	 */
+	private static BoundedCache<Integer, String> weighted()
+	{
+		return new BoundedCache<Integer, String>(48)
+		{
+			@Override
+			protected long weigh(Integer key, String value)
+			{
+				return value.length();
+			}
+		};
+	}
+}
@@ -0,0 +1,50 @@
+package lv.ailab.lnb.fraktur.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that walking <code>PrefixIndex</code> finds the same prefixes as
+ * comparing strings.
+ */
+public class PrefixIndexTest
+{
+	private static final List<String> WORDS = Arrays.asList("šis", "šī",
+		"latvietis", "latvju", "lat", "laiks", "ala", "", "zzz", "lat");
+
+	private static final String[] PROBES = {"", "l", "la", "lat", "latv",
+		"latvi", "latvietis", "latvietiss", "lai", "laik", "ša", "šis", "ši",
+		"a", "al", "alaa", "z", "zzz", "zzzz", "x", "LAT"};
+
+	@Test
+	public void findsPrefixesOfWords()
+	{
+		PrefixIndex index = new PrefixIndex(WORDS);
+		assertEquals(WORDS.size(), index.size());
+		for (String probe : PROBES)
+		{
+			long node = index.root();
+			for (int i = 0; i < probe.length() && node != PrefixIndex.NONE; i++)
+				node = index.next(node, i, probe.charAt(i));
+			assertEquals(probe, isPrefix(probe), node != PrefixIndex.NONE);
+		}
+	}
+
+	@Test
+	public void emptyIndexHasNoPrefixes()
+	{
+		PrefixIndex index = new PrefixIndex(Arrays.<String>asList());
+		assertEquals(PrefixIndex.NONE, index.next(index.root(), 0, 'a'));
+	}
+
+	private static boolean isPrefix(String probe)
+	{
+		for (String word : WORDS)
+			if (word.startsWith(probe)) return true;
+		return false;
+	}
+}
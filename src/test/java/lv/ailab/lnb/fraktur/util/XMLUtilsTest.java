@@ -0,0 +1,65 @@
+package lv.ailab.lnb.fraktur.util;
+
+import java.io.ByteArrayInputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks escaping of text written in XML results.
+ */
+public class XMLUtilsTest
+{
+	@Test
+	public void keepsPlainText() throws Exception
+	{
+		assertEquals("Latweeschu ŗūķis 'x'", escape("Latweeschu ŗūķis 'x'"));
+		assertEquals("", escape(""));
+		assertEquals("", escape(null));
+	}
+
+	@Test
+	public void escapesMarkup() throws Exception
+	{
+		assertEquals("a &amp; b &lt;c&gt; &quot;d&quot;",
+			escape("a & b <c> \"d\""));
+		assertEquals("&amp;amp;", escape("&amp;"));
+	}
+
+	@Test
+	public void escapesWhitespace() throws Exception
+	{
+		assertEquals("a&#9;b&#10;c&#13;d e", escape("a\tb\nc\rd e"));
+	}
+
+	@Test
+	public void replacesInvalidCharacters() throws Exception
+	{
+		assertEquals("a\uFFFDb\uFFFDc", escape("a\u0000b\u001Fc"));
+		assertEquals("\uFFFD\uFFFD", escape("\uFFFE\uFFFF"));
+		// Surrogate pair is kept, lone surrogates are not.
+		assertEquals("\uD835\uDD09", escape("\uD835\uDD09"));
+		assertEquals("\uFFFDa\uFFFD", escape("\uD835a\uDD09"));
+		assertEquals("a\uFFFD", escape("a\uD835"));
+	}
+
+	@Test
+	public void parsesBack() throws Exception
+	{
+		String text = "<\"Fraktur\" & 'latin'>\ttab\nline\rſch\uD835\uDD09";
+		String xml = "<r a=\"" + escape(text) + "\">" + escape(text) + "</r>";
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+			.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")))
+			.getDocumentElement();
+		assertEquals(text, root.getAttribute("a"));
+		assertEquals(text, root.getTextContent());
+	}
+
+	private static String escape(String text) throws Exception
+	{
+		return XMLUtils.escape(new StringBuilder(), text).toString();
+	}
+}